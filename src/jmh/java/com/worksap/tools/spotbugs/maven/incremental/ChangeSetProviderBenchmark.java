@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmark to compare each {@link ChangeSetBackend} on generated repository. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChangeSetProviderBenchmark {
+  @Param({"JGIT", "GIT", "FILE_LIST"})
+  public ChangeSetBackend backend;
+
+  @Param({"10000", "100000"})
+  public int files;
+
+  private Path root;
+  private Path sourceRoot;
+  private GitUpdatedJavaCodeDetector detector;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, GitAPIException {
+    root = Files.createTempDirectory("change-set-benchmark");
+    sourceRoot = root.resolve(ScaleFixtures.SOURCE_ROOT);
+    ScaleFixtures.createRepository(root, files, 100);
+
+    // file list refers files in working tree, which is empty in generated repository
+    String updated = ScaleFixtures.SOURCE_ROOT + "/" + ScaleFixtures.sourceOf(0);
+    Files.createDirectories(root.resolve(updated).getParent());
+    Files.write(root.resolve(updated), "updated".getBytes(StandardCharsets.UTF_8));
+    Path fileList = root.resolve("changed-files.txt");
+    Files.write(fileList, Collections.singletonList(updated));
+
+    switch (backend) {
+      case GIT:
+        detector =
+            new GitUpdatedJavaCodeDetector(new Metrics(), new GitCommandChangeSetProvider("git"));
+        break;
+      case FILE_LIST:
+        detector =
+            new GitUpdatedJavaCodeDetector(
+                new Metrics(), new FileListChangeSetProvider(fileList));
+        break;
+      default:
+        detector = new GitUpdatedJavaCodeDetector(new Metrics(), new JGitChangeSetProvider());
+        break;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    RepositoryCache.clear();
+    FileUtils.deleteDirectory(root.toFile());
+  }
+
+  @Benchmark
+  public List<Path> detectUpdatedCode() throws IOException {
+    return detector
+        .detectUpdatedCode(
+            new DiffSession(),
+            root,
+            Collections.singleton(sourceRoot),
+            Collections.singleton(sourceRoot),
+            ScaleFixtures.TARGET,
+            ScaleFixtures.SOURCE)
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Benchmark of {@link ClassSearcher} against synthetic output directory. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClassSearcherBenchmark {
+  @Param({"1000", "10000", "100000"})
+  public int classes;
+
+  private Path outputDir;
+  private ClassIndex warmIndex;
+  private List<Path> classFiles;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    outputDir = Files.createTempDirectory("class-searcher-benchmark");
+    ScaleFixtures.createOutputDirectory(outputDir, classes);
+    warmIndex = ClassIndex.inMemory();
+    searchOneFileWithIndex();
+    try (Stream<Path> stream = Files.walk(outputDir)) {
+      classFiles =
+          stream.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(outputDir.toFile());
+  }
+
+  /** One updated file, in a build which has no index. */
+  @Benchmark
+  public List<String> searchOneFileWithoutIndex() {
+    return new ClassSearcher(outputDir, ClassIndex.inMemory())
+        .search(oneFile())
+        .collect(Collectors.toList());
+  }
+
+  /** One updated file, in a build which reuses index of the previous build. */
+  @Benchmark
+  public List<String> searchOneFileWithIndex() {
+    return new ClassSearcher(outputDir, warmIndex).search(oneFile()).collect(Collectors.toList());
+  }
+
+  /** Every file in one package is updated. */
+  @Benchmark
+  public List<String> searchOnePackage() {
+    return new ClassSearcher(outputDir, ClassIndex.inMemory())
+        .search(
+            IntStream.range(0, Math.min(classes, ScaleFixtures.CLASSES_PER_PACKAGE))
+                .mapToObj(ScaleFixtures::sourceOf))
+        .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public String loadCompiledFrom() {
+    Path classFile = classFiles.get(next++ % classFiles.size());
+    return new ClassSearcher(outputDir).loadCompiledFrom(classFile);
+  }
+
+  private static Stream<String> oneFile() {
+    return Stream.of(ScaleFixtures.sourceOf(0));
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
+import edu.umd.cs.findbugs.BugInstance;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+
+/**
+ * A mojo to run SpotBugs once for every module in the reactor, instead of running it for each
+ * module like the {@code analyze} goal. Execute this mojo in every module after the {@code
+ * spotbugs} goal: it does nothing until the last module which binds this goal, then analyzes
+ * classes listed for it and all preceding modules over the union of their output directories. In
+ * parallel build, that module waits until the preceding modules finish.
+ *
+ * <p>It replaces both {@code spotbugs} and {@code check} goals of spotbugs-maven-plugin, so disable
+ * their executions, e.g. by {@code <phase>none</phase>}. The {@code spotbugs} goal would analyze
+ * every module twice, and the {@code check} goal of preceding modules would run before this mojo
+ * writes their reports. Found bugs are split back into XML report of each module, but tools which
+ * read these reports need to run after the reactor build.
+ */
+@Mojo(
+    name = "analyze-aggregate",
+    threadSafe = true,
+    requiresProject = true,
+    requiresDependencyResolution = ResolutionScope.COMPILE,
+    defaultPhase = LifecyclePhase.VERIFY)
+public class AnalyzeAggregateMojo extends AbstractMojo {
+  @Parameter(property = "project")
+  private MavenProject project;
+
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
+  @Parameter(defaultValue = "${mojoExecution}", readonly = true, required = true)
+  private MojoExecution mojoExecution;
+
+  @Component private RepositorySystem repositorySystem;
+
+  /** Name of the property which has {@code -onlyAnalyze} option generated by this plugin. */
+  @Parameter(defaultValue = "spotbugs.onlyAnalyze")
+  private String propertyToAnalyze;
+
+  /** Name of the property to decide that analysis should be skipped or not. */
+  @Parameter(defaultValue = "spotbugs.skip")
+  private String propertyToSkip;
+
+  /** Name of XML report to write in build directory of each module. */
+  @Parameter(defaultValue = "spotbugsXml.xml")
+  private String xmlOutputFileName;
+
+  /** XML report which has bugs found in every module. */
+  @Parameter(
+      defaultValue =
+          "${session.executionRootDirectory}/target/incremental-analysis/spotbugsXml.xml",
+      property = "incremental.aggregate.xmlOutputFile")
+  private File aggregateXmlOutputFile;
+
+  /** Flag to fail the build when SpotBugs finds bugs. */
+  @Parameter(defaultValue = "true", property = "spotbugs.failOnError")
+  private boolean failOnError;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    Log log = getLog();
+    List<MavenProject> projects = session.getProjects();
+    MojoDescriptor descriptor = mojoExecution.getMojoDescriptor();
+    int aggregator =
+        aggregatorOf(
+            projects, descriptor.getPluginDescriptor().getPluginLookupKey(), descriptor.getGoal());
+    if (!projects.get(aggregator).equals(project)) {
+      log.debug("SpotBugs will run in " + projects.get(aggregator).getArtifactId());
+      return;
+    }
+    // modules after the aggregator are not built yet, and they do not execute this mojo
+    projects = projects.subList(0, aggregator + 1);
+    if (session.isParallel()) {
+      awaitModules(projects.subList(0, aggregator));
+    }
+
+    // Key: output directory of each module, Value: the module
+    Map<Path, MavenProject> modules = new LinkedHashMap<>();
+    List<String> onlyAnalyze = new ArrayList<>();
+    int size = 0;
+    try {
+      for (MavenProject reactorProject : projects) {
+        if (Boolean.parseBoolean(reactorProject.getProperties().getProperty(propertyToSkip))) {
+          continue;
+        }
+        Path outputDirectory = Paths.get(reactorProject.getBuild().getOutputDirectory());
+        if (!Files.isDirectory(outputDirectory)) {
+          continue;
+        }
+        Collection<String> targetClasses =
+            reactorProject.getContextValue(SpotBugsMojo.FULL_ANALYSIS) != null
+                ? classesIn(outputDirectory)
+                : AnalyzeMojo.targetClassesOf(reactorProject, propertyToAnalyze);
+        if (targetClasses.isEmpty()) {
+          continue;
+        }
+        modules.put(outputDirectory, reactorProject);
+        onlyAnalyze.addAll(OnlyAnalyze.collapse(outputDirectory, targetClasses));
+        size += targetClasses.size();
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to list class files", e);
+    }
+    if (modules.isEmpty()) {
+      log.info("No target class found, SpotBugs will not run.");
+      return;
+    }
+
+    Path aggregateReport = aggregateXmlOutputFile.toPath();
+    List<BugInstance> bugs;
+    try {
+      SpotBugsRunner runner =
+          AnalyzeMojo.newRunner(session, project, repositorySystem, log)
+              .auxClasspath(getAuxClasspath(modules))
+              .sourceDirs(
+                  modules.values().stream()
+                      .flatMap(module -> module.getCompileSourceRoots().stream())
+                      .map(Paths::get)
+                      .collect(Collectors.toList()));
+      log.info(
+          String.format("Running SpotBugs for %d classes in %d modules...", size, modules.size()));
+      bugs = runner.analyze(modules.keySet(), onlyAnalyze, aggregateReport);
+      splitReport(aggregateReport, modules);
+    } catch (IOException | IllegalArgumentException e) {
+      throw new MojoExecutionException("Failed to run SpotBugs", e);
+    }
+
+    if (bugs.isEmpty()) {
+      log.info("SpotBugs found no bug.");
+      return;
+    }
+    bugs.forEach(bug -> log.error(bug.getMessageWithPriorityTypeAbbreviation()));
+    String message = String.format("SpotBugs found %d bugs, see %s", bugs.size(), aggregateReport);
+    if (failOnError) {
+      throw new MojoFailureException(message);
+    }
+    log.warn(message);
+  }
+
+  /**
+   * Find the module which runs SpotBugs. It is the last module whose build binds this goal, or the
+   * last module of the reactor when no module binds it, e.g. when the goal is given in command
+   * line.
+   *
+   * @param projects A non-null list of modules, sorted in the reactor order.
+   * @param pluginKey A non-null key of this plugin, in {@code groupId:artifactId} format.
+   * @param goal A non-null name of this goal.
+   * @return Index of the module in given list.
+   */
+  @VisibleForTesting
+  static int aggregatorOf(List<MavenProject> projects, String pluginKey, String goal) {
+    for (int i = projects.size() - 1; i >= 0; i--) {
+      Plugin plugin = projects.get(i).getBuild().getPluginsAsMap().get(pluginKey);
+      if (plugin != null
+          && plugin.getExecutions().stream()
+              .filter(execution -> !"none".equals(execution.getPhase()))
+              .anyMatch(execution -> execution.getGoals().contains(goal))) {
+        return i;
+      }
+    }
+    return projects.size() - 1;
+  }
+
+  /**
+   * Wait until given modules finish their build. In parallel build, they never depend on the
+   * aggregator which is after them in the reactor order, so other threads can build them.
+   *
+   * @param modules A non-null list of modules to wait.
+   */
+  private void awaitModules(List<MavenProject> modules) throws MojoExecutionException {
+    MavenExecutionResult result = session.getResult();
+    boolean logged = false;
+    while (true) {
+      if (result.hasExceptions()) {
+        // modules depending on failed one are skipped, and they never finish
+        throw new MojoExecutionException("Other modules failed, SpotBugs will not run.");
+      }
+      long remaining =
+          modules.stream().filter(module -> result.getBuildSummary(module) == null).count();
+      if (remaining == 0) {
+        return;
+      }
+      if (!logged) {
+        getLog().info(String.format("Waiting for %d modules to finish...", remaining));
+        logged = true;
+      }
+      Uninterruptibles.sleepUninterruptibly(1, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Write XML report of each module, which has bugs whose primary class is in the module.
+   *
+   * @param aggregateReport A non-null XML report which has bugs found in every module.
+   * @param modules A non-null map from output directory to module.
+   */
+  private void splitReport(Path aggregateReport, Map<Path, MavenProject> modules)
+      throws IOException {
+    for (Map.Entry<Path, MavenProject> module : modules.entrySet()) {
+      Path outputDirectory = module.getKey();
+      BugCollectionXml report = BugCollectionXml.load(aggregateReport);
+      report.retainClasses(
+          className ->
+              Files.isRegularFile(
+                  outputDirectory.resolve(className.replace('.', File.separatorChar) + ".class")));
+      report.save(
+          Paths.get(module.getValue().getBuild().getDirectory()).resolve(xmlOutputFileName));
+    }
+  }
+
+  /** @return A non-null list of name of every class in given output directory. */
+  private static List<String> classesIn(Path outputDirectory) throws IOException {
+    try (Stream<Path> stream = Files.walk(outputDirectory)) {
+      return stream
+          .filter(path -> path.toString().endsWith(".class"))
+          .map(outputDirectory::relativize)
+          .map(Path::toString)
+          .map(path -> path.substring(0, path.length() - ".class".length()))
+          .map(path -> path.replace(File.separatorChar, '.'))
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * @return A non-null set of compile classpath of given modules, except their output directory.
+   */
+  private Set<Path> getAuxClasspath(Map<Path, MavenProject> modules) throws MojoExecutionException {
+    Set<Path> auxClasspath = new LinkedHashSet<>();
+    for (MavenProject module : modules.values()) {
+      try {
+        module.getCompileClasspathElements().stream()
+            .map(Paths::get)
+            .filter(entry -> !modules.containsKey(entry))
+            .filter(Files::exists)
+            .forEach(auxClasspath::add);
+      } catch (DependencyResolutionRequiredException e) {
+        throw new MojoExecutionException("Failed to resolve compile classpath of " + module, e);
+      }
+    }
+    return auxClasspath;
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.Version;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+
+/**
+ * A mojo to run SpotBugs in the Maven JVM, for classes listed by the {@code spotbugs} goal. Unlike
+ * spotbugs-maven-plugin, it does not launch new JVM for each module. It writes XML report in the
+ * same format, so the {@code findings} goal and {@code spotbugs:check} can read it.
+ *
+ * <p>It reads the effective configuration of spotbugs-maven-plugin, such as {@code effort}, filter
+ * files and SpotBugs plugins. SpotBugs itself is an optional dependency of this plugin: add {@code
+ * com.github.spotbugs:spotbugs} to dependencies of this plugin, in the same version which
+ * spotbugs-maven-plugin uses.
+ */
+@Mojo(
+    name = "analyze",
+    threadSafe = true,
+    requiresProject = true,
+    requiresDependencyResolution = ResolutionScope.COMPILE,
+    defaultPhase = LifecyclePhase.VERIFY)
+public class AnalyzeMojo extends AbstractMojo {
+  private static final String SPOTBUGS_ENGINE = "edu.umd.cs.findbugs.FindBugs2";
+
+  @Parameter(property = "project")
+  private MavenProject project;
+
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
+  @Component private RepositorySystem repositorySystem;
+
+  /** Name of the property which has {@code -onlyAnalyze} option generated by this plugin. */
+  @Parameter(defaultValue = "spotbugs.onlyAnalyze")
+  private String propertyToAnalyze;
+
+  /** Name of the property to decide that analysis should be skipped or not. */
+  @Parameter(defaultValue = "spotbugs.skip")
+  private String propertyToSkip;
+
+  /** XML report to write. */
+  @Parameter(
+      defaultValue = "${project.build.directory}/spotbugsXml.xml",
+      property = "spotbugs.xmlOutputFile")
+  private File xmlOutputFile;
+
+  /** Flag to fail the build when SpotBugs finds bugs. */
+  @Parameter(defaultValue = "true", property = "spotbugs.failOnError")
+  private boolean failOnError;
+
+  /**
+   * Flag to give SpotBugs only jars which may be referred from target classes, instead of whole
+   * compile classpath. If some referred class is not found in the classpath, whole classpath is
+   * used.
+   */
+  @Parameter(defaultValue = "false", property = "incremental.spotbugs.reduceAuxClasspath")
+  private boolean reduceAuxClasspath;
+
+  /** File to cache packages provided and referred by each jar. */
+  @Parameter(
+      defaultValue = "${project.build.directory}/incremental-analysis/aux-classpath.idx",
+      property = "incremental.spotbugs.auxClasspathIndex")
+  private File auxClasspathIndex;
+
+  /** Name of the property to publish auxiliary classpath given to SpotBugs. */
+  @Parameter(defaultValue = "incremental.spotbugs.auxClasspath")
+  private String propertyToAuxClasspath;
+
+  /**
+   * File to record historical timing of SpotBugs, which the {@code spotbugs} goal refers to
+   * estimate cost of classes in time budget.
+   */
+  @Parameter(
+      defaultValue = "${project.build.directory}/incremental-analysis/cost-history.txt",
+      property = "incremental.spotbugs.costHistory")
+  private File costHistory;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    Log log = getLog();
+    if (Boolean.parseBoolean(project.getProperties().getProperty(propertyToSkip))) {
+      log.info("Skip running SpotBugs.");
+      return;
+    }
+    boolean fullAnalysis = project.getContextValue(SpotBugsMojo.FULL_ANALYSIS) != null;
+    Collection<String> targetClasses = fullAnalysis ? Collections.emptyList() : getTargetClasses();
+    if (!fullAnalysis && targetClasses.isEmpty()) {
+      log.info("No target class found, SpotBugs will not run.");
+      return;
+    }
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    if (!Files.isDirectory(outputDirectory)) {
+      log.info("No class file found, SpotBugs will not run.");
+      return;
+    }
+    // ClassScreener matches package wildcard with one prefix check instead of many class names
+    Collection<String> onlyAnalyze = OnlyAnalyze.collapse(outputDirectory, targetClasses);
+
+    List<Path> auxClasspath = getAuxClasspath(outputDirectory);
+    if (reduceAuxClasspath && !fullAnalysis) {
+      auxClasspath = reduce(auxClasspath, outputDirectory, targetClasses);
+    }
+    project
+        .getModel()
+        .addProperty(
+            propertyToAuxClasspath,
+            auxClasspath.stream()
+                .map(Path::toString)
+                .collect(Collectors.joining(File.pathSeparator)));
+
+    List<BugInstance> bugs;
+    try {
+      SpotBugsRunner runner =
+          newRunner(session, project, repositorySystem, log)
+              .auxClasspath(auxClasspath)
+              .sourceDirs(
+                  project.getCompileSourceRoots().stream()
+                      .map(Paths::get)
+                      .collect(Collectors.toList()));
+      if (fullAnalysis) {
+        log.info("Running SpotBugs for every class...");
+      } else {
+        log.info(String.format("Running SpotBugs for %d classes...", targetClasses.size()));
+      }
+      long start = System.nanoTime();
+      bugs = runner.analyze(outputDirectory, onlyAnalyze, xmlOutputFile.toPath());
+      recordCost(
+          outputDirectory,
+          fullAnalysis,
+          targetClasses,
+          runner.getAnalysisMillis(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException | IllegalArgumentException e) {
+      throw new MojoExecutionException("Failed to run SpotBugs", e);
+    }
+
+    if (bugs.isEmpty()) {
+      log.info("SpotBugs found no bug.");
+      return;
+    }
+    bugs.forEach(bug -> log.error(bug.getMessageWithPriorityTypeAbbreviation()));
+    String message = String.format("SpotBugs found %d bugs, see %s", bugs.size(), xmlOutputFile);
+    if (failOnError) {
+      throw new MojoFailureException(message);
+    }
+    log.warn(message);
+  }
+
+  /**
+   * Create a runner configured by the effective configuration of spotbugs-maven-plugin, including
+   * SpotBugs plugins in its {@code plugins} and {@code pluginList} parameters.
+   *
+   * @param session A non-null current session.
+   * @param project A non-null project which has configuration of spotbugs-maven-plugin.
+   * @param repositorySystem A non-null repository system to resolve SpotBugs plugins.
+   * @param log A non-null log to warn version mismatch of SpotBugs.
+   * @return A non-null runner.
+   * @throws MojoExecutionException when SpotBugs is not given to this plugin, or the configuration
+   *     is not supported by the runner
+   */
+  static SpotBugsRunner newRunner(
+      MavenSession session, MavenProject project, RepositorySystem repositorySystem, Log log)
+      throws MojoExecutionException {
+    try {
+      Class.forName(SPOTBUGS_ENGINE, false, AnalyzeMojo.class.getClassLoader());
+    } catch (ClassNotFoundException | LinkageError e) {
+      throw new MojoExecutionException(
+          "SpotBugs is not found, add com.github.spotbugs:spotbugs to dependencies of this plugin",
+          e);
+    }
+    SpotBugsConfiguration configuration = SpotBugsConfiguration.of(session, project);
+    String version = Version.VERSION_STRING;
+    configuration
+        .spotBugsVersion()
+        .filter(expected -> !expected.equals(version))
+        .ifPresent(
+            expected ->
+                log.warn(
+                    String.format(
+                        "spotbugs-maven-plugin uses SpotBugs %s but this plugin uses SpotBugs %s,"
+                            + " findings may differ",
+                        expected, version)));
+
+    SpotBugsRunner runner = new SpotBugsRunner();
+    try {
+      runner
+          .effort(configuration.get("effort").orElse("Default"))
+          .threshold(configuration.get("threshold").orElse("Default"))
+          .relaxed(Boolean.parseBoolean(configuration.get("relaxed").orElse("false")))
+          .nested(Boolean.parseBoolean(configuration.get("nested").orElse("false")))
+          .visitors(namesOf(configuration, "visitors"))
+          .omitVisitors(namesOf(configuration, "omitVisitors"));
+      Optional<String> maxRank = configuration.get("maxRank");
+      if (maxRank.isPresent()) {
+        runner.rankThreshold(Integer.parseInt(maxRank.get()));
+      }
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException("Unsupported configuration of spotbugs-maven-plugin", e);
+    }
+    filesOf(configuration, "includeFilterFile").forEach(runner::includeFilter);
+    filesOf(configuration, "excludeFilterFile").forEach(runner::excludeFilter);
+    filesOf(configuration, "excludeBugsFile").forEach(runner::excludeBugs);
+    filesOf(configuration, "userPrefs").forEach(runner::userPrefs);
+    filesOf(configuration, "pluginList").forEach(runner::plugin);
+    for (Artifact artifact : configuration.pluginArtifacts()) {
+      ArtifactRequest request =
+          new ArtifactRequest(artifact, project.getRemoteProjectRepositories(), null);
+      try {
+        runner.plugin(
+            repositorySystem
+                .resolveArtifact(session.getRepositorySession(), request)
+                .getArtifact()
+                .getFile()
+                .toPath());
+      } catch (ArtifactResolutionException e) {
+        throw new MojoExecutionException("Failed to resolve SpotBugs plugin " + artifact, e);
+      }
+    }
+    return runner;
+  }
+
+  private static List<String> namesOf(SpotBugsConfiguration configuration, String parameter) {
+    return configuration
+        .get(parameter)
+        .map(
+            value ->
+                Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(name -> !name.isEmpty())
+                    .collect(Collectors.toList()))
+        .orElse(Collections.emptyList());
+  }
+
+  /**
+   * @return A non-null list of files in given parameter.
+   * @throws MojoExecutionException when the parameter refers classpath resource or URL, which
+   *     spotbugs-maven-plugin supports but this plugin does not
+   */
+  private static List<Path> filesOf(SpotBugsConfiguration configuration, String parameter)
+      throws MojoExecutionException {
+    List<Path> files = configuration.files(parameter);
+    for (Path file : files) {
+      if (!Files.isRegularFile(file)) {
+        throw new MojoExecutionException(
+            String.format(
+                "%s of spotbugs-maven-plugin refers %s which is not a file,"
+                    + " classpath resource and URL are not supported",
+                parameter, file));
+      }
+    }
+    return files;
+  }
+
+  private Collection<String> getTargetClasses() {
+    return targetClassesOf(project, propertyToAnalyze);
+  }
+
+  /**
+   * @param project A non-null project which the {@code spotbugs} goal has processed.
+   * @param propertyToAnalyze A non-null name of the property which has {@code -onlyAnalyze} option.
+   * @return A non-null collection of target classes, which is shared by the {@code spotbugs} goal
+   *     without formatting to property.
+   */
+  static Collection<String> targetClassesOf(MavenProject project, String propertyToAnalyze) {
+    @SuppressWarnings("unchecked")
+    List<String> shared = (List<String>) project.getContextValue(SpotBugsMojo.TARGET_CLASSES);
+    if (shared != null) {
+      return shared;
+    }
+    String onlyAnalyze = project.getProperties().getProperty(propertyToAnalyze, "");
+    return Arrays.stream(onlyAnalyze.split(","))
+        .filter(className -> !className.isEmpty())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Record time spent to analyze classes in {@link #costHistory}. Failure is not fatal, because the
+   * history is used only for estimation.
+   *
+   * @param analysisMillis Time spent by the analysis phase of SpotBugs in milliseconds.
+   * @param totalMillis Time spent by SpotBugs in milliseconds, including its overhead.
+   */
+  private void recordCost(
+      Path outputDirectory,
+      boolean fullAnalysis,
+      Collection<String> targetClasses,
+      long analysisMillis,
+      long totalMillis) {
+    Log log = getLog();
+    try {
+      long bytes;
+      if (fullAnalysis) {
+        try (Stream<Path> stream = Files.walk(outputDirectory)) {
+          bytes =
+              stream
+                  .filter(path -> path.toString().endsWith(".class"))
+                  .mapToLong(path -> path.toFile().length())
+                  .sum();
+        }
+      } else if (targetClasses.stream()
+          .anyMatch(className -> className.endsWith(".*") || className.endsWith(".-"))) {
+        // size of classes matched by wildcard is unknown
+        return;
+      } else {
+        bytes =
+            targetClasses.stream()
+                .mapToLong(className -> Shards.sizeOf(outputDirectory, className))
+                .sum();
+      }
+      if (bytes > 0) {
+        CostHistory.load(costHistory.toPath())
+            .record(bytes, analysisMillis, totalMillis)
+            .save(costHistory.toPath());
+      }
+    } catch (IOException e) {
+      log.warn("Failed to record cost history of SpotBugs", e);
+    }
+  }
+
+  /**
+   * @param auxClasspath A non-null list of whole auxiliary classpath.
+   * @return A non-null list of auxiliary classpath which SpotBugs needs to analyze target classes.
+   */
+  private List<Path> reduce(
+      List<Path> auxClasspath, Path outputDirectory, Collection<String> targetClasses) {
+    Log log = getLog();
+    AuxClasspath index = AuxClasspath.load(auxClasspathIndex.toPath());
+    try {
+      Optional<List<Path>> reduced = index.reduce(outputDirectory, targetClasses, auxClasspath);
+      if (!reduced.isPresent()) {
+        log.info("Some target or referred class is not found, SpotBugs will use whole classpath.");
+        return auxClasspath;
+      }
+      log.info(
+          String.format(
+              "SpotBugs will use %d of %d classpath entries.",
+              reduced.get().size(), auxClasspath.size()));
+      return reduced.get();
+    } catch (IOException e) {
+      log.warn("Failed to reduce classpath, SpotBugs will use whole classpath", e);
+      return auxClasspath;
+    } finally {
+      try {
+        index.save();
+      } catch (IOException e) {
+        log.warn("Failed to save index of classpath, next build will scan jars again", e);
+      }
+    }
+  }
+
+  private List<Path> getAuxClasspath(Path outputDirectory) throws MojoExecutionException {
+    try {
+      return project.getCompileClasspathElements().stream()
+          .map(Paths::get)
+          .filter(entry -> !entry.equals(outputDirectory))
+          .filter(Files::exists)
+          .collect(Collectors.toList());
+    } catch (DependencyResolutionRequiredException e) {
+      throw new MojoExecutionException("Failed to resolve compile classpath", e);
+    }
+  }
+}
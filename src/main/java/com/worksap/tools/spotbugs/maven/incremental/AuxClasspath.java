@@ -0,0 +1,357 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A calculator of auxiliary classpath which SpotBugs needs to analyze given classes. It follows
+ * references from target classes to other classes in the output directory, then to packages in
+ * classpath entries and packages referred from them. SpotBugs then indexes only the jars which may
+ * be used, instead of every dependency.
+ *
+ * <p>Packages provided and referred by each jar are cached in an index file. Each entry is valid
+ * while size and last modified time of the jar are not changed. Directories in classpath, such as
+ * output directory of other modules, are scanned every time.
+ *
+ * <p>This class is not thread-safe.
+ */
+class AuxClasspath {
+  private static final int MAGIC = 0x4941414A; // "IAAJ"
+  private static final int VERSION = 1;
+
+  /** Loader of JRE classes, which are available to SpotBugs without auxiliary classpath. */
+  private static final ClassLoader PLATFORM = ClassLoader.getSystemClassLoader().getParent();
+
+  /** File to persist this index, or {@code null} if this index is in-memory only. */
+  private final Path file;
+
+  /** Key: absolute path of jar file */
+  private final Map<String, Entry> entries;
+
+  private boolean updated;
+
+  private AuxClasspath(Path file, Map<String, Entry> entries) {
+    this.file = file;
+    this.entries = entries;
+  }
+
+  /** @return A non-null index which is not persisted. */
+  static AuxClasspath inMemory() {
+    return new AuxClasspath(null, new HashMap<>());
+  }
+
+  /**
+   * Load index from given file. If the file does not exist or is broken, this method returns an
+   * empty index which will be saved to the file.
+   *
+   * @param file A non-null path of index file.
+   * @return A non-null index.
+   */
+  static AuxClasspath load(Path file) {
+    Objects.requireNonNull(file);
+    Map<String, Entry> entries = new HashMap<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+        int size = input.readInt();
+        for (int i = 0; i < size; ++i) {
+          String jar = input.readUTF();
+          long length = input.readLong();
+          long lastModified = input.readLong();
+          Set<String> provided = readStrings(input);
+          Set<String> referred = readStrings(input);
+          entries.put(jar, new Entry(length, lastModified, provided, referred));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // this is the first build, or build directory has been cleaned
+    } catch (IOException e) {
+      // broken index is same with no index, we just need to rebuild it
+      entries.clear();
+    }
+    return new AuxClasspath(file, entries);
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains target classes.
+   * @param targetClasses A non-null collection of class names such as {@code
+   *     "com.worksap.ClassName$1"}.
+   * @param classpath A non-null list of auxiliary classpath entries, which are jar files or
+   *     directories.
+   * @return A non-null sub list of given classpath which SpotBugs needs to analyze target classes,
+   *     or empty if some target is not a class file in the output directory, e.g. package pattern
+   *     like {@code "com.worksap.*"}, or some class referred from target classes is not found in
+   *     the classpath.
+   * @throws IOException when failed to read class files
+   */
+  Optional<List<Path>> reduce(
+      Path outputDir, Collection<String> targetClasses, List<Path> classpath) throws IOException {
+    Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(targetClasses);
+    Objects.requireNonNull(classpath);
+
+    // classes in the output directory can refer each other, so follow them class by class
+    Set<String> visited = new HashSet<>();
+    Queue<String> queue = new ArrayDeque<>();
+    Set<String> externalClasses = new TreeSet<>();
+    Set<String> externalPackages = new HashSet<>();
+    for (String targetClass : targetClasses) {
+      String className = targetClass.replace('.', '/');
+      if (!Files.isRegularFile(classFileOf(outputDir, className))) {
+        // we cannot follow references from classes which we do not know
+        return Optional.empty();
+      }
+      queue.add(className);
+    }
+    while (!queue.isEmpty()) {
+      String className = queue.poll();
+      if (!visited.add(className)) {
+        continue;
+      }
+      Path classFile = classFileOf(outputDir, className);
+      if (!Files.isRegularFile(classFile)) {
+        continue;
+      }
+      // descriptor may give wrong names, so only names in CONSTANT_Class are checked strictly
+      externalClasses.addAll(ClassFileReader.readReferences(classFile).getReferredClasses());
+      for (String referred : ClassFileReader.readAllReferences(classFile).getReferredClasses()) {
+        if (Files.isRegularFile(classFileOf(outputDir, referred))) {
+          queue.add(referred);
+        } else {
+          externalPackages.add(packageOf(referred));
+        }
+      }
+    }
+    externalClasses.removeIf(className -> Files.isRegularFile(classFileOf(outputDir, className)));
+
+    // Key: package such as "com/worksap", Value: indices of classpath entries which provide it
+    Map<String, List<Integer>> providers = new HashMap<>();
+    Entry[] indexed = new Entry[classpath.size()];
+    for (int i = 0; i < indexed.length; ++i) {
+      indexed[i] = entryOf(classpath.get(i));
+      for (String packageName : indexed[i].provided) {
+        providers.computeIfAbsent(packageName, key -> new ArrayList<>()).add(i);
+      }
+    }
+    for (String className : externalClasses) {
+      if (!providers.containsKey(packageOf(className))
+          && PLATFORM.getResource(className + ".class") == null) {
+        return Optional.empty();
+      }
+    }
+
+    boolean[] required = new boolean[indexed.length];
+    Queue<String> packages = new ArrayDeque<>(externalPackages);
+    Set<String> visitedPackages = new HashSet<>();
+    while (!packages.isEmpty()) {
+      String packageName = packages.poll();
+      if (!visitedPackages.add(packageName)) {
+        continue;
+      }
+      for (int index : providers.getOrDefault(packageName, Collections.emptyList())) {
+        if (!required[index]) {
+          required[index] = true;
+          packages.addAll(indexed[index].referred);
+        }
+      }
+    }
+    List<Path> result = new ArrayList<>();
+    for (int i = 0; i < required.length; ++i) {
+      if (required[i]) {
+        result.add(classpath.get(i));
+      }
+    }
+    return Optional.of(result);
+  }
+
+  /**
+   * Save this index to file, if it has been updated. Entries of jars which no longer exist are
+   * dropped.
+   *
+   * @throws IOException when failed to write the file
+   */
+  void save() throws IOException {
+    if (file == null || !updated) {
+      return;
+    }
+    Files.createDirectories(file.getParent());
+    Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        Map<String, Entry> snapshot = new TreeMap<>(entries);
+        snapshot.keySet().removeIf(jar -> !new File(jar).isFile());
+        output.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue().length);
+          output.writeLong(entry.getValue().lastModified);
+          writeStrings(output, entry.getValue().provided);
+          writeStrings(output, entry.getValue().referred);
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      updated = false;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** @return A non-null entry of given classpath entry, loaded from this index if it is valid. */
+  private Entry entryOf(Path classpathEntry) throws IOException {
+    if (Files.isDirectory(classpathEntry)) {
+      return scanDirectory(classpathEntry);
+    }
+    String key = classpathEntry.toAbsolutePath().toString();
+    BasicFileAttributes attributes =
+        Files.readAttributes(classpathEntry, BasicFileAttributes.class);
+    Entry entry = entries.get(key);
+    if (entry != null
+        && entry.length == attributes.size()
+        && entry.lastModified == attributes.lastModifiedTime().toMillis()) {
+      return entry;
+    }
+    Set<String> provided = new TreeSet<>();
+    Set<String> referred = new TreeSet<>();
+    try (JarFile jar = new JarFile(classpathEntry.toFile())) {
+      Enumeration<JarEntry> jarEntries = jar.entries();
+      while (jarEntries.hasMoreElements()) {
+        JarEntry jarEntry = jarEntries.nextElement();
+        String name = jarEntry.getName();
+        if (!name.endsWith(".class")
+            || name.startsWith("META-INF/")
+            || name.endsWith("-info.class")) {
+          continue;
+        }
+        byte[] bytes;
+        try (InputStream input = jar.getInputStream(jarEntry)) {
+          bytes = ByteStreams.toByteArray(input);
+        }
+        ClassFileReader.References references = ClassFileReader.readAllReferences(bytes);
+        provided.add(packageOf(references.getClassName()));
+        references.getReferredClasses().stream()
+            .map(AuxClasspath::packageOf)
+            .forEach(referred::add);
+      }
+    }
+    referred.removeAll(provided);
+    entry =
+        new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), provided, referred);
+    entries.put(key, entry);
+    updated = true;
+    return entry;
+  }
+
+  private static Entry scanDirectory(Path directory) throws IOException {
+    Set<String> provided = new TreeSet<>();
+    Set<String> referred = new TreeSet<>();
+    try (Stream<Path> stream = Files.walk(directory)) {
+      List<Path> classFiles =
+          stream.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+      for (Path classFile : classFiles) {
+        ClassFileReader.References references = ClassFileReader.readAllReferences(classFile);
+        provided.add(packageOf(references.getClassName()));
+        references.getReferredClasses().stream()
+            .map(AuxClasspath::packageOf)
+            .forEach(referred::add);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    referred.removeAll(provided);
+    return new Entry(0, 0, provided, referred);
+  }
+
+  private static Path classFileOf(Path outputDir, String internalName) {
+    return outputDir.resolve(internalName.replace('/', File.separatorChar) + ".class");
+  }
+
+  /** @return A package of given internal name such as {@code "com/worksap"}. */
+  private static String packageOf(String internalName) {
+    int lastSlash = internalName.lastIndexOf('/');
+    return lastSlash < 0 ? "" : internalName.substring(0, lastSlash);
+  }
+
+  private static Set<String> readStrings(DataInputStream input) throws IOException {
+    int size = input.readInt();
+    Set<String> result = new TreeSet<>();
+    for (int i = 0; i < size; ++i) {
+      result.add(input.readUTF());
+    }
+    return result;
+  }
+
+  private static void writeStrings(DataOutputStream output, Set<String> strings)
+      throws IOException {
+    output.writeInt(strings.size());
+    for (String string : strings) {
+      output.writeUTF(string);
+    }
+  }
+
+  private static final class Entry {
+    private final long length;
+    private final long lastModified;
+
+    /** Packages which have classes in the classpath entry. */
+    private final Set<String> provided;
+
+    /** Packages referred from classes in the classpath entry, excluding provided packages. */
+    private final Set<String> referred;
+
+    private Entry(long length, long lastModified, Set<String> provided, Set<String> referred) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.provided = provided;
+      this.referred = referred;
+    }
+  }
+}
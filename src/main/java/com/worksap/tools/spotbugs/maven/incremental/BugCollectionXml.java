@@ -0,0 +1,489 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * A minimal DOM wrapper of XML report generated by SpotBugs, such as {@code spotbugsXml.xml}. It
+ * handles {@code BugInstance} elements with definitions of their pattern, and keeps bug counts in
+ * {@code FindBugsSummary} consistent with them. Other elements are kept as they are.
+ */
+final class BugCollectionXml {
+  static final String BUG_COLLECTION = "BugCollection";
+  static final String BUG_INSTANCE = "BugInstance";
+
+  private static final String FIND_BUGS_SUMMARY = "FindBugsSummary";
+  private static final String FILE_STATS = "FileStats";
+  private static final String PACKAGE_STATS = "PackageStats";
+  private static final String CLASS_STATS = "ClassStats";
+  private static final String PRIORITY_PREFIX = "priority_";
+
+  /** Order of children of {@code BugCollection}, defined by the XML schema of SpotBugs. */
+  private static final List<String> ORDER =
+      Arrays.asList(
+          "Project",
+          BUG_INSTANCE,
+          "BugCategory",
+          "BugPattern",
+          "BugCode",
+          "Errors",
+          FIND_BUGS_SUMMARY,
+          "ClassFeatures",
+          "History");
+
+  /** Order of children of {@code FindBugsSummary}. */
+  private static final List<String> SUMMARY_ORDER =
+      Arrays.asList(FILE_STATS, PACKAGE_STATS, "FindBugsProfile");
+
+  /**
+   * Elements which define {@code BugInstance} attributes, and their key attribute. Each key has the
+   * same name with the attribute of {@code BugInstance}.
+   */
+  private static final Map<String, String> DEFINITIONS = new LinkedHashMap<>();
+
+  static {
+    DEFINITIONS.put("BugCategory", "category");
+    DEFINITIONS.put("BugPattern", "type");
+    DEFINITIONS.put("BugCode", "abbrev");
+  }
+
+  private final Document document;
+
+  private BugCollectionXml(Document document) {
+    this.document = document;
+  }
+
+  /** @return A non-null report which has no {@code BugInstance}. */
+  static BugCollectionXml empty() {
+    Document document = newDocumentBuilder().newDocument();
+    document.appendChild(document.createElement(BUG_COLLECTION));
+    return new BugCollectionXml(document);
+  }
+
+  /**
+   * @param file A non-null path of XML report.
+   * @return A non-null report loaded from given file.
+   * @throws IOException when failed to read or parse the file
+   */
+  static BugCollectionXml load(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    try (InputStream input = Files.newInputStream(file)) {
+      Document document = newDocumentBuilder().parse(input);
+      if (!BUG_COLLECTION.equals(document.getDocumentElement().getTagName())) {
+        throw new IOException("Unexpected root element found in " + file);
+      }
+      return new BugCollectionXml(document);
+    } catch (SAXException e) {
+      throw new IOException("Failed to parse " + file, e);
+    }
+  }
+
+  /**
+   * @return A non-null map from name of primary class such as {@code "com.worksap.ClassName$1"} to
+   *     {@code BugInstance} elements which belong to the class.
+   */
+  Map<String, List<Element>> bugInstancesByClass() {
+    Map<String, List<Element>> result = new TreeMap<>();
+    for (Element bugInstance : bugInstances()) {
+      String className = primaryClassOf(bugInstance);
+      if (className != null) {
+        result.computeIfAbsent(className, key -> new ArrayList<>()).add(bugInstance);
+      }
+    }
+    return result;
+  }
+
+  /** @return A non-null list of {@code BugInstance} elements in this report. */
+  List<Element> bugInstances() {
+    return childrenOf(document.getDocumentElement(), BUG_INSTANCE);
+  }
+
+  /**
+   * Remove {@code BugInstance} elements whose primary class does not match given predicate. Stats
+   * of such classes in {@code FindBugsSummary} are also removed.
+   *
+   * @param className A non-null predicate of class name such as {@code "com.worksap.ClassName$1"}.
+   */
+  void retainClasses(Predicate<String> className) {
+    Objects.requireNonNull(className);
+    Element root = document.getDocumentElement();
+    for (Element bugInstance : bugInstances()) {
+      String primaryClass = primaryClassOf(bugInstance);
+      if (primaryClass == null || !className.test(primaryClass)) {
+        root.removeChild(bugInstance);
+      }
+    }
+
+    Element summary = childOf(root, FIND_BUGS_SUMMARY);
+    if (summary != null) {
+      Set<String> retainedFiles = new HashSet<>();
+      for (Element packageStats : childrenOf(summary, PACKAGE_STATS)) {
+        for (Element classStats : childrenOf(packageStats, CLASS_STATS)) {
+          if (className.test(classStats.getAttribute("class"))) {
+            retainedFiles.add(fileOf(packageStats, classStats));
+          } else {
+            packageStats.removeChild(classStats);
+          }
+        }
+        if (childrenOf(packageStats, CLASS_STATS).isEmpty()) {
+          summary.removeChild(packageStats);
+        }
+      }
+      for (Element fileStats : childrenOf(summary, FILE_STATS)) {
+        if (!retainedFiles.contains(fileStats.getAttribute("path"))) {
+          summary.removeChild(fileStats);
+        }
+      }
+    }
+    updateSummary();
+  }
+
+  /**
+   * Copy given {@code BugInstance} elements into this report, with {@code BugPattern}, {@code
+   * BugCategory} and {@code BugCode} elements which this report does not have yet.
+   *
+   * @param bugInstances A non-null collection of {@code BugInstance} elements, which may belong to
+   *     other document.
+   * @param definitions A non-null report which has definitions of given {@code BugInstance}
+   *     elements, usually the report which they belong to.
+   */
+  void addAll(Collection<Element> bugInstances, BugCollectionXml definitions) {
+    Objects.requireNonNull(bugInstances);
+    Objects.requireNonNull(definitions);
+    Element root = document.getDocumentElement();
+    for (Element bugInstance : bugInstances) {
+      insert(root, importElement(bugInstance), ORDER);
+      for (Map.Entry<String, String> definition : DEFINITIONS.entrySet()) {
+        String key = bugInstance.getAttribute(definition.getValue());
+        if (key.isEmpty()
+            || childOf(root, definition.getKey(), definition.getValue(), key) != null) {
+          continue;
+        }
+        Element found =
+            childOf(
+                definitions.document.getDocumentElement(),
+                definition.getKey(),
+                definition.getValue(),
+                key);
+        if (found != null) {
+          insert(root, importElement(found), ORDER);
+        }
+      }
+    }
+    updateSummary();
+  }
+
+  /**
+   * Merge other report of disjoint classes into this report, such as report of other shard. Stats
+   * of classes, packages and files are merged, then totals in {@code FindBugsSummary} are computed
+   * again.
+   *
+   * @param other A non-null report to merge.
+   */
+  void merge(BugCollectionXml other) {
+    Objects.requireNonNull(other);
+    Element root = document.getDocumentElement();
+    Element otherSummary = childOf(other.document.getDocumentElement(), FIND_BUGS_SUMMARY);
+    Element summary = childOf(root, FIND_BUGS_SUMMARY);
+    if (otherSummary != null && summary == null) {
+      insert(root, importElement(otherSummary), ORDER);
+    } else if (otherSummary != null) {
+      for (Element fileStats : childrenOf(otherSummary, FILE_STATS)) {
+        if (childOf(summary, FILE_STATS, "path", fileStats.getAttribute("path")) == null) {
+          insert(summary, importElement(fileStats), SUMMARY_ORDER);
+        }
+      }
+      for (Element otherPackage : childrenOf(otherSummary, PACKAGE_STATS)) {
+        Element packageStats =
+            childOf(summary, PACKAGE_STATS, "package", otherPackage.getAttribute("package"));
+        if (packageStats == null) {
+          insert(summary, importElement(otherPackage), SUMMARY_ORDER);
+          continue;
+        }
+        for (Element classStats : childrenOf(otherPackage, CLASS_STATS)) {
+          if (childOf(packageStats, CLASS_STATS, "class", classStats.getAttribute("class"))
+              == null) {
+            packageStats.appendChild(importElement(classStats));
+          }
+        }
+      }
+    }
+    addAll(other.bugInstances(), other);
+  }
+
+  /**
+   * Compute bug counts in {@code FindBugsSummary} from {@code BugInstance} elements, and totals of
+   * classes from {@code ClassStats} elements. Classes which have bug but no stats get new {@code
+   * ClassStats} without size, e.g. classes whose findings are cached.
+   */
+  private void updateSummary() {
+    Element root = document.getDocumentElement();
+    Element summary = childOf(root, FIND_BUGS_SUMMARY);
+    if (summary == null) {
+      return;
+    }
+
+    // Key: class name, Value: number of bugs indexed by priority
+    Map<String, int[]> bugsByClass = new HashMap<>();
+    for (Element bugInstance : bugInstances()) {
+      String className = primaryClassOf(bugInstance);
+      if (className != null) {
+        int priority = parseInt(bugInstance.getAttribute("priority"));
+        int[] counts = bugsByClass.computeIfAbsent(className, key -> new int[6]);
+        ++counts[priority >= 1 && priority <= 5 ? priority : 0];
+      }
+    }
+    for (String className : bugsByClass.keySet()) {
+      int index = className.lastIndexOf('.');
+      String packageName = index < 0 ? "" : className.substring(0, index);
+      Element packageStats = childOf(summary, PACKAGE_STATS, "package", packageName);
+      if (packageStats == null) {
+        packageStats = document.createElement(PACKAGE_STATS);
+        packageStats.setAttribute("package", packageName);
+        insert(summary, packageStats, SUMMARY_ORDER);
+      }
+      if (childOf(packageStats, CLASS_STATS, "class", className) == null) {
+        Element classStats = document.createElement(CLASS_STATS);
+        classStats.setAttribute("class", className);
+        classStats.setAttribute("size", "0");
+        packageStats.appendChild(classStats);
+      }
+    }
+
+    int[] total = new int[6];
+    int classes = 0;
+    long size = 0;
+    Map<String, Integer> bugsByFile = new HashMap<>();
+    List<Element> packages = childrenOf(summary, PACKAGE_STATS);
+    for (Element packageStats : packages) {
+      int[] packageTotal = new int[6];
+      int packageClasses = 0;
+      long packageSize = 0;
+      for (Element classStats : childrenOf(packageStats, CLASS_STATS)) {
+        int[] counts = bugsByClass.getOrDefault(classStats.getAttribute("class"), new int[6]);
+        setCounts(classStats, "bugs", counts);
+        bugsByFile.merge(fileOf(packageStats, classStats), sum(counts), Integer::sum);
+        for (int i = 0; i < counts.length; ++i) {
+          packageTotal[i] += counts[i];
+        }
+        ++packageClasses;
+        packageSize += parseInt(classStats.getAttribute("size"));
+      }
+      setCounts(packageStats, "total_bugs", packageTotal);
+      packageStats.setAttribute("total_types", Integer.toString(packageClasses));
+      packageStats.setAttribute("total_size", Long.toString(packageSize));
+      for (int i = 0; i < packageTotal.length; ++i) {
+        total[i] += packageTotal[i];
+      }
+      classes += packageClasses;
+      size += packageSize;
+    }
+    for (Element fileStats : childrenOf(summary, FILE_STATS)) {
+      fileStats.setAttribute(
+          "bugCount", Integer.toString(bugsByFile.getOrDefault(fileStats.getAttribute("path"), 0)));
+    }
+    setCounts(summary, "total_bugs", total);
+    summary.setAttribute("total_classes", Integer.toString(classes));
+    summary.setAttribute("total_size", Long.toString(size));
+    summary.setAttribute("num_packages", Integer.toString(packages.size()));
+  }
+
+  /**
+   * Set total count to given attribute, and count of each priority to {@code priority_N}
+   * attributes. Like SpotBugs, priority which has no bug has no attribute.
+   *
+   * @param counts Number of bugs indexed by priority. Index {@code 0} has bugs without priority.
+   */
+  private static void setCounts(Element element, String totalAttribute, int[] counts) {
+    element.setAttribute(totalAttribute, Integer.toString(sum(counts)));
+    for (int i = 1; i < counts.length; ++i) {
+      if (counts[i] > 0) {
+        element.setAttribute(PRIORITY_PREFIX + i, Integer.toString(counts[i]));
+      } else {
+        element.removeAttribute(PRIORITY_PREFIX + i);
+      }
+    }
+  }
+
+  private static int sum(int[] counts) {
+    return Arrays.stream(counts).sum();
+  }
+
+  /** @return Path of source file in {@code FileStats}, such as {@code "com/worksap/Foo.java"}. */
+  private static String fileOf(Element packageStats, Element classStats) {
+    String packageName = packageStats.getAttribute("package");
+    String sourceFile = classStats.getAttribute("sourceFile");
+    return packageName.isEmpty() ? sourceFile : packageName.replace('.', '/') + '/' + sourceFile;
+  }
+
+  private static int parseInt(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Write this report to given file. The file is replaced atomically, so readers never see
+   * incomplete report.
+   *
+   * @param file A non-null path to write.
+   * @throws IOException when failed to write the file
+   */
+  void save(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream output = Files.newOutputStream(temp)) {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        transformer.transform(new DOMSource(document), new StreamResult(output));
+      } catch (TransformerException e) {
+        throw new IOException("Failed to write " + file, e);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * @return Name of the primary class, or the first class if no class is marked as primary. {@code
+   *     null} if given {@code BugInstance} has no class.
+   */
+  private static String primaryClassOf(Element bugInstance) {
+    String first = null;
+    NodeList children = bugInstance.getChildNodes();
+    for (int i = 0; i < children.getLength(); ++i) {
+      Node child = children.item(i);
+      if (child instanceof Element && "Class".equals(((Element) child).getTagName())) {
+        Element classElement = (Element) child;
+        if ("true".equals(classElement.getAttribute("primary"))) {
+          return classElement.getAttribute("classname");
+        } else if (first == null) {
+          first = classElement.getAttribute("classname");
+        }
+      }
+    }
+    return first;
+  }
+
+  /** @return A deep copy of given element which belongs to the document of this report. */
+  private Element importElement(Element element) {
+    return (Element) document.importNode(element, true);
+  }
+
+  /**
+   * Insert given element after the last sibling which has the same tag name, or before the first
+   * sibling which should follow it.
+   *
+   * @param order A non-null list of tag names in order. Unknown tag follows every known tag.
+   */
+  private static void insert(Element parent, Element element, List<String> order) {
+    int rank = order.indexOf(element.getTagName());
+    if (rank < 0) {
+      parent.appendChild(element);
+      return;
+    }
+    Node reference = null;
+    NodeList children = parent.getChildNodes();
+    for (int i = children.getLength() - 1; i >= 0; --i) {
+      Node child = children.item(i);
+      if (!(child instanceof Element)) {
+        continue;
+      }
+      int childRank = order.indexOf(((Element) child).getTagName());
+      if (childRank >= 0 && childRank <= rank) {
+        break;
+      }
+      reference = child;
+    }
+    parent.insertBefore(element, reference);
+  }
+
+  private static List<Element> childrenOf(Element parent, String tagName) {
+    List<Element> result = new ArrayList<>();
+    NodeList children = parent.getChildNodes();
+    for (int i = 0; i < children.getLength(); ++i) {
+      Node child = children.item(i);
+      if (child instanceof Element && tagName.equals(((Element) child).getTagName())) {
+        result.add((Element) child);
+      }
+    }
+    return result;
+  }
+
+  private static Element childOf(Element parent, String tagName) {
+    List<Element> children = childrenOf(parent, tagName);
+    return children.isEmpty() ? null : children.get(0);
+  }
+
+  private static Element childOf(Element parent, String tagName, String attribute, String value) {
+    for (Element child : childrenOf(parent, tagName)) {
+      if (value.equals(child.getAttribute(attribute))) {
+        return child;
+      }
+    }
+    return null;
+  }
+
+  private static DocumentBuilder newDocumentBuilder() {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      factory.setExpandEntityReferences(false);
+      return factory.newDocumentBuilder();
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException("Failed to create XML parser", e);
+    }
+  }
+}
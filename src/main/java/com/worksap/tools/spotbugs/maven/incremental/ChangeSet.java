@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * An immutable set of files updated between two commits. Paths are kept sorted, so each module can
+ * take its own slice by binary search instead of scanning whole change set.
+ */
+final class ChangeSet {
+  private final Path gitRoot;
+
+  /** Sorted array of path relative to Git root, such as {@code "module/src/main/java/Foo.java"}. */
+  private final String[] paths;
+
+  /**
+   * @param gitRoot A non-null root directory of Git repository.
+   * @param paths A non-null collection of updated file path, relative to Git root and separated by
+   *     slash.
+   */
+  ChangeSet(Path gitRoot, Collection<String> paths) {
+    this.gitRoot = Objects.requireNonNull(gitRoot);
+    this.paths = paths.toArray(new String[0]);
+    Arrays.sort(this.paths);
+  }
+
+  /** @return number of updated files in this change set. */
+  int size() {
+    return paths.length;
+  }
+
+  /**
+   * @param directory A non-null directory which locates in the Git repository.
+   * @return A non-null stream of absolute path of updated files under given directory.
+   */
+  Stream<Path> under(Path directory) {
+    Objects.requireNonNull(directory);
+    if (!directory.startsWith(gitRoot)) {
+      return Stream.empty();
+    }
+    String prefix = toPrefix(gitRoot.relativize(directory));
+    int from = lowerBound(prefix);
+    int to = lowerBound(prefix + Character.MAX_VALUE);
+    return IntStream.range(from, to).mapToObj(i -> paths[i]).map(gitRoot::resolve);
+  }
+
+  /**
+   * @param relative A relative path from Git root.
+   * @return A path prefix such as {@code "module/"}, or empty string for the Git root itself.
+   */
+  private static String toPrefix(Path relative) {
+    StringBuilder builder = new StringBuilder();
+    for (Path name : relative) {
+      if (!name.toString().isEmpty()) {
+        builder.append(name).append('/');
+      }
+    }
+    return builder.toString();
+  }
+
+  /** @return the index of the first path which is not smaller than given key. */
+  private int lowerBound(String key) {
+    int index = Arrays.binarySearch(paths, key);
+    return index < 0 ? -(index + 1) : index;
+  }
+}
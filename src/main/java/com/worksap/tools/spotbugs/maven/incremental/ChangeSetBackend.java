@@ -0,0 +1,31 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+/** Backend to compute updated files between the target and the source commits. */
+public enum ChangeSetBackend {
+  /** Compute difference by JGit, in the Maven JVM. */
+  JGIT,
+  /**
+   * Compute difference by the native {@code git} command, which may be faster than JGit on large
+   * packfiles.
+   */
+  GIT,
+  /**
+   * Read updated files from a newline-delimited list prepared by CI, without computing difference.
+   */
+  FILE_LIST
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * A strategy to compute updated .java files between two commits. Implementations should exclude
+ * deleted files, because they have no class to analyze.
+ */
+interface ChangeSetProvider {
+  /**
+   * @param repository A non-null repository which contains both commits.
+   * @param gitRoot A non-null root directory of the Git repository.
+   * @param target A non-null ID of the target commit.
+   * @param source A non-null ID of the source commit.
+   * @param paths A non-null and non-empty list of directories relative to Git root separated by
+   *     slash, to limit files to compare. Empty string represents Git root itself.
+   * @return A non-null {@link ChangeSet} which contains updated .java files in given directories.
+   * @throws IOException when failed to compute difference
+   */
+  ChangeSet diff(
+      Repository repository, Path gitRoot, ObjectId target, ObjectId source, List<String> paths)
+      throws IOException;
+
+  /**
+   * @return true if result of {@link #diff} depends on given commits. If it is false, caller cannot
+   *     skip computing difference even if two commits have the same tree.
+   */
+  default boolean comparesCommits() {
+    return true;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A record of the last analyzed source commit of a module, and classes which have been analyzed
+ * between the base commit and it. The next build can compute difference from the source commit
+ * instead of the base commit, and reuse findings of other classes.
+ *
+ * <p>A checkpoint file is a UTF-8 text file. The first two lines have ID of base and source commit
+ * such as {@code "base 0123...cdef"}, and each following line has class name.
+ */
+final class Checkpoint {
+  private static final String BASE = "base ";
+  private static final String SOURCE = "source ";
+
+  private final String base;
+  private final String source;
+  private final List<String> classes;
+
+  /**
+   * @param base A non-null ID of commit which the source has been compared with.
+   * @param source A non-null ID of analyzed source commit.
+   * @param classes A non-null collection of name of analyzed classes.
+   */
+  Checkpoint(String base, String source, Collection<String> classes) {
+    this.base = Objects.requireNonNull(base);
+    this.source = Objects.requireNonNull(source);
+    this.classes = Collections.unmodifiableList(new ArrayList<>(classes));
+  }
+
+  String getBase() {
+    return base;
+  }
+
+  String getSource() {
+    return source;
+  }
+
+  /** @return A non-null list of name of classes such as {@code "com.worksap.ClassName$1"}. */
+  List<String> getClasses() {
+    return classes;
+  }
+
+  /**
+   * @param file A non-null path of checkpoint file.
+   * @return A loaded checkpoint, or empty if the file does not exist or is broken.
+   * @throws IOException when failed to read the file
+   */
+  static Optional<Checkpoint> load(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String base = reader.readLine();
+      String source = reader.readLine();
+      if (base == null || !base.startsWith(BASE) || source == null || !source.startsWith(SOURCE)) {
+        return Optional.empty();
+      }
+      List<String> classes = new ArrayList<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          classes.add(line);
+        }
+      }
+      return Optional.of(
+          new Checkpoint(
+              base.substring(BASE.length()).trim(),
+              source.substring(SOURCE.length()).trim(),
+              classes));
+    } catch (NoSuchFileException e) {
+      // this is the first build of the branch
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @param file A non-null path of checkpoint file to write.
+   * @throws IOException when failed to write the file
+   */
+  void save(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        writer.write(BASE + base);
+        writer.newLine();
+        writer.write(SOURCE + source);
+        writer.newLine();
+        for (String className : classes) {
+          writer.write(className);
+          writer.newLine();
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * A minimal reader of class file, which reads only the constant pool and class level attributes.
+ * Unlike {@link org.objectweb.asm.ClassReader#accept(org.objectweb.asm.ClassVisitor, int)}, it
+ * skips fields and methods without parsing their code, and reuses buffers in each thread.
+ *
+ * @see <a href="https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html">The class File
+ *     Format</a>
+ */
+final class ClassFileReader {
+  private static final byte[] SOURCE_FILE = "SourceFile".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] INNER_CLASSES = "InnerClasses".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NEST_MEMBERS = "NestMembers".getBytes(StandardCharsets.US_ASCII);
+
+  private static final ThreadLocal<ClassFileReader> READERS =
+      ThreadLocal.withInitial(ClassFileReader::new);
+
+  /**
+   * Reusable buffer to load class files. Large class files are also copied to this buffer instead
+   * of being mapped into memory, because mapped file stays locked on Windows until GC releases the
+   * mapping, and following compilation cannot overwrite it.
+   */
+  private ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+  /** Reusable table to store offset of each constant pool entry. */
+  private int[] offsets = new int[1024];
+
+  /** Buffer which contains currently parsing class file. */
+  private ByteBuffer data;
+
+  /** Number of entries in the constant pool, including the unusable zeroth entry. */
+  private int constantPoolCount;
+
+  /** Offset of the first byte after the constant pool. */
+  private int headerEnd;
+
+  /** Size of the class file loaded last time. */
+  private long loadedSize;
+
+  private ClassFileReader() {}
+
+  /**
+   * @param classFile A non-null path of class file.
+   * @return A name of source file such as {@code "ClassName.java"}, or {@code null} if class file
+   *     has no information.
+   * @throws IOException when failed to read the file, or the file is not a valid class file.
+   */
+  static String readSourceFile(Path classFile) throws IOException {
+    return read(classFile, ClassFileReader::sourceFile);
+  }
+
+  /**
+   * @param classFile A non-null path of class file.
+   * @return A non-null {@link Nest} which describes source file and nested classes of given class.
+   * @throws IOException when failed to read the file, or the file is not a valid class file.
+   */
+  static Nest readNest(Path classFile) throws IOException {
+    return read(classFile, ClassFileReader::nest);
+  }
+
+  /**
+   * @param classFile A non-null path of class file.
+   * @return A non-null {@link References} which describes classes referred from given class.
+   * @throws IOException when failed to read the file, or the file is not a valid class file.
+   */
+  static References readReferences(Path classFile) throws IOException {
+    return read(classFile, ClassFileReader::references);
+  }
+
+  /**
+   * @param classFile A non-null path of class file.
+   * @return A non-null {@link References} which describes classes referred from given class,
+   *     including classes which appear only in descriptors such as types of method parameter.
+   * @throws IOException when failed to read the file, or the file is not a valid class file.
+   */
+  static References readAllReferences(Path classFile) throws IOException {
+    return read(classFile, ClassFileReader::allReferences);
+  }
+
+  /**
+   * @param classFile A non-null content of class file, such as an entry of jar file.
+   * @return A non-null {@link References} which describes classes referred from given class,
+   *     including classes which appear only in descriptors such as types of method parameter.
+   * @throws IOException when the content is not a valid class file.
+   */
+  static References readAllReferences(byte[] classFile) throws IOException {
+    Objects.requireNonNull(classFile);
+    ClassFileReader reader = READERS.get();
+    try {
+      reader.data = ByteBuffer.wrap(classFile);
+      reader.loadedSize = classFile.length;
+      if (reader.data.getInt(0) != 0xCAFEBABE) {
+        throw new IOException("Invalid magic number found");
+      }
+      reader.parseConstantPool();
+      return reader.allReferences();
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Invalid class file", e);
+    } finally {
+      reader.data = null;
+    }
+  }
+
+  /**
+   * @return Size of the class file read by the last method call in the current thread, in bytes. It
+   *     is {@code 0} if this thread has not read any class file.
+   */
+  static long lastReadSize() {
+    return READERS.get().loadedSize;
+  }
+
+  private static <T> T read(Path classFile, Function<ClassFileReader, T> function)
+      throws IOException {
+    Objects.requireNonNull(classFile);
+    ClassFileReader reader = READERS.get();
+    try {
+      reader.load(classFile);
+      return function.apply(reader);
+    } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException("Invalid class file: " + classFile, e);
+    } finally {
+      reader.data = null;
+    }
+  }
+
+  private void load(Path classFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(classFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      loadedSize = size;
+      if (size > Integer.MAX_VALUE / 2) {
+        throw new IOException("Too large class file: " + classFile);
+      }
+      if (buffer.capacity() < size) {
+        buffer = ByteBuffer.allocate(Integer.highestOneBit((int) size) << 1);
+      }
+      buffer.clear();
+      buffer.limit((int) size);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // continue until the buffer becomes full
+      }
+      buffer.flip();
+      data = buffer;
+    }
+    if (data.getInt(0) != 0xCAFEBABE) {
+      throw new IOException("Invalid magic number found in " + classFile);
+    }
+    parseConstantPool();
+  }
+
+  /** Record offset of each constant pool entry, to refer them later. */
+  private void parseConstantPool() {
+    int count = readUnsignedShort(8);
+    constantPoolCount = count;
+    if (offsets.length < count) {
+      offsets = Arrays.copyOf(offsets, Integer.highestOneBit(count) << 1);
+    }
+    int offset = 10;
+    for (int i = 1; i < count; ++i) {
+      offsets[i] = offset + 1;
+      int tag = data.get(offset);
+      switch (tag) {
+        case 1: // Utf8
+          offset += 3 + readUnsignedShort(offset + 1);
+          break;
+        case 3: // Integer
+        case 4: // Float
+        case 9: // Fieldref
+        case 10: // Methodref
+        case 11: // InterfaceMethodref
+        case 12: // NameAndType
+        case 17: // Dynamic
+        case 18: // InvokeDynamic
+          offset += 5;
+          break;
+        case 5: // Long
+        case 6: // Double
+          offset += 9;
+          ++i; // takes two entries
+          break;
+        case 7: // Class
+        case 8: // String
+        case 16: // MethodType
+        case 19: // Module
+        case 20: // Package
+          offset += 3;
+          break;
+        case 15: // MethodHandle
+          offset += 4;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+      }
+    }
+    headerEnd = offset;
+  }
+
+  private String sourceFile() {
+    int offset = skipMembers();
+    int attributeCount = readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < attributeCount; ++i) {
+      if (utf8Equals(readUnsignedShort(offset), SOURCE_FILE)) {
+        return readUtf8(readUnsignedShort(offset + 6));
+      }
+      offset += 6 + data.getInt(offset + 2);
+    }
+    return null;
+  }
+
+  private Nest nest() {
+    String sourceFile = null;
+    Set<String> members = new TreeSet<>();
+    int offset = skipMembers();
+    int attributeCount = readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < attributeCount; ++i) {
+      int name = readUnsignedShort(offset);
+      if (utf8Equals(name, SOURCE_FILE)) {
+        sourceFile = readUtf8(readUnsignedShort(offset + 6));
+      } else if (utf8Equals(name, INNER_CLASSES)) {
+        int classCount = readUnsignedShort(offset + 6);
+        for (int j = 0; j < classCount; ++j) {
+          // each entry has inner_class_info_index, outer_class_info_index, inner_name_index and
+          // inner_class_access_flags
+          members.add(readClassName(readUnsignedShort(offset + 8 + j * 8)));
+        }
+      } else if (utf8Equals(name, NEST_MEMBERS)) {
+        int classCount = readUnsignedShort(offset + 6);
+        for (int j = 0; j < classCount; ++j) {
+          members.add(readClassName(readUnsignedShort(offset + 8 + j * 2)));
+        }
+      }
+      offset += 6 + data.getInt(offset + 2);
+    }
+    return new Nest(sourceFile, members);
+  }
+
+  /**
+   * Collect classes in {@code CONSTANT_Class} entries, which cover super class, interfaces, and
+   * owners of referred fields and methods.
+   */
+  private References references() {
+    String className = readClassName(readUnsignedShort(headerEnd + 2));
+    Set<String> referredClasses = new TreeSet<>();
+    for (int i = 1; i < constantPoolCount; ++i) {
+      int tag = data.get(offsets[i] - 1);
+      if (tag == 5 || tag == 6) {
+        ++i; // the next entry is unusable, and its offset is not updated
+      } else if (tag == 7) {
+        String name = readUtf8(readUnsignedShort(offsets[i]));
+        if (name.startsWith("[")) {
+          // array class such as "[Ljava/lang/String;", or "[I" which has no class to refer
+          int start = name.lastIndexOf('[') + 1;
+          if (name.charAt(start) != 'L') {
+            continue;
+          }
+          name = name.substring(start + 1, name.length() - 1);
+        }
+        if (!name.equals(className)) {
+          referredClasses.add(name);
+        }
+      }
+    }
+    return new References(className, referredClasses);
+  }
+
+  /**
+   * Collect classes in {@code CONSTANT_Class} entries, and classes in {@code CONSTANT_Utf8} entries
+   * which look like descriptor or signature. Other strings may be parsed by mistake, then this
+   * method returns some names of class which does not exist.
+   */
+  private References allReferences() {
+    References references = references();
+    Set<String> referredClasses = new TreeSet<>(references.getReferredClasses());
+    for (int i = 1; i < constantPoolCount; ++i) {
+      int tag = data.get(offsets[i] - 1);
+      if (tag == 5 || tag == 6) {
+        ++i; // the next entry is unusable, and its offset is not updated
+      } else if (tag == 1) {
+        addClassesInDescriptor(readUtf8(i), referredClasses);
+      }
+    }
+    referredClasses.remove(references.getClassName());
+    return new References(references.getClassName(), referredClasses);
+  }
+
+  /**
+   * @param descriptor A descriptor or signature such as {@code "(Ljava/lang/String;)V"} and {@code
+   *     "Ljava/util/List<Ljava/lang/String;>;"}.
+   * @param classes A non-null set to add internal name of classes in given descriptor.
+   */
+  private static void addClassesInDescriptor(String descriptor, Set<String> classes) {
+    if (descriptor.isEmpty() || "(L[<".indexOf(descriptor.charAt(0)) < 0) {
+      return;
+    }
+    int start = descriptor.indexOf('L');
+    while (start >= 0) {
+      int end = start + 1;
+      while (end < descriptor.length() && ";<".indexOf(descriptor.charAt(end)) < 0) {
+        ++end;
+      }
+      if (end == descriptor.length()) {
+        return;
+      }
+      String name = descriptor.substring(start + 1, end);
+      // class in the default package cannot be distinguished from type variable like "TLIST;"
+      if (name.indexOf('/') > 0) {
+        classes.add(name);
+      }
+      start = descriptor.indexOf('L', end);
+    }
+  }
+
+  /** @return offset of {@code attributes_count} in class level. */
+  private int skipMembers() {
+    // skip access_flags, this_class and super_class
+    int offset = headerEnd + 6;
+    // skip interfaces
+    offset += 2 + readUnsignedShort(offset) * 2;
+    // skip fields and methods
+    for (int i = 0; i < 2; ++i) {
+      int memberCount = readUnsignedShort(offset);
+      offset += 2;
+      for (int member = 0; member < memberCount; ++member) {
+        // skip access_flags, name_index and descriptor_index
+        offset = skipAttributes(offset + 6);
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * @param offset offset of {@code attributes_count}
+   * @return offset of the first byte after attributes
+   */
+  private int skipAttributes(int offset) {
+    int attributeCount = readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < attributeCount; ++i) {
+      offset += 6 + data.getInt(offset + 2);
+    }
+    return offset;
+  }
+
+  private boolean utf8Equals(int index, byte[] expected) {
+    int offset = offsets[index];
+    int length = readUnsignedShort(offset);
+    if (length != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (data.get(offset + 2 + i) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return internal name of class in the constant pool, such as {@code "java/lang/Object"}. */
+  private String readClassName(int index) {
+    return readUtf8(readUnsignedShort(offsets[index]));
+  }
+
+  /** Decode modified UTF-8 string in the constant pool. */
+  private String readUtf8(int index) {
+    int offset = offsets[index];
+    int length = readUnsignedShort(offset);
+    char[] chars = new char[length];
+    int charLength = 0;
+    int end = offset + 2 + length;
+    for (int i = offset + 2; i < end; ) {
+      int b = data.get(i++) & 0xFF;
+      if ((b & 0x80) == 0) {
+        chars[charLength++] = (char) b;
+      } else if ((b & 0xE0) == 0xC0) {
+        chars[charLength++] = (char) (((b & 0x1F) << 6) | (data.get(i++) & 0x3F));
+      } else {
+        chars[charLength++] =
+            (char) (((b & 0x0F) << 12) | ((data.get(i++) & 0x3F) << 6) | (data.get(i++) & 0x3F));
+      }
+    }
+    return new String(chars, 0, charLength);
+  }
+
+  private int readUnsignedShort(int offset) {
+    return data.getShort(offset) & 0xFFFF;
+  }
+
+  /** Source file and nested classes of a class, loaded from its class file. */
+  static final class Nest {
+    private final String sourceFile;
+    private final Set<String> members;
+
+    Nest(String sourceFile, Set<String> members) {
+      this.sourceFile = sourceFile;
+      this.members = Collections.unmodifiableSet(members);
+    }
+
+    /**
+     * @return A name of source file such as {@code "ClassName.java"}, or {@code null} if class file
+     *     has no information.
+     */
+    String getSourceFile() {
+      return sourceFile;
+    }
+
+    /**
+     * @return A non-null set of internal name of classes listed in {@code InnerClasses} and {@code
+     *     NestMembers} attributes. Note that it may contain enclosing classes and inner classes of
+     *     other classes referred from this class.
+     */
+    Set<String> getMembers() {
+      return members;
+    }
+  }
+
+  /** Classes referred from a class, loaded from its class file. */
+  static final class References {
+    private final String className;
+    private final Set<String> referredClasses;
+
+    References(String className, Set<String> referredClasses) {
+      this.className = className;
+      this.referredClasses = Collections.unmodifiableSet(referredClasses);
+    }
+
+    /** @return A non-null internal name of the class, such as {@code "com/worksap/ClassName"}. */
+    String getClassName() {
+      return className;
+    }
+
+    /**
+     * @return A non-null set of internal name of classes referred from the class, excluding the
+     *     class itself.
+     */
+    Set<String> getReferredClasses() {
+      return referredClasses;
+    }
+  }
+}
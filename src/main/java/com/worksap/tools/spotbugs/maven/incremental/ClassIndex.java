@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index which maps class file to its source file name. Each entry is valid while size and last
+ * modified time of the class file are not changed, so we can skip parsing class files which were
+ * not recompiled since the last build.
+ *
+ * <p>This class is thread-safe.
+ */
+class ClassIndex {
+  private static final int MAGIC = 0x49414349; // "IACI"
+  private static final int VERSION = 2;
+
+  /** File to persist this index, or {@code null} if this index is in-memory only. */
+  private final Path file;
+
+  /**
+   * Key: path of class file relative to output directory, such as {@code
+   * "com/worksap/tools/ClassName.class"}
+   */
+  private final ConcurrentMap<String, Entry> entries;
+
+  /**
+   * Key: path of package directory relative to output directory with trailing slash, such as {@code
+   * "com/worksap/tools/"}
+   */
+  private final ConcurrentMap<String, PackageEntry> packages;
+
+  private volatile boolean updated;
+
+  private ClassIndex(
+      Path file,
+      ConcurrentMap<String, Entry> entries,
+      ConcurrentMap<String, PackageEntry> packages) {
+    this.file = file;
+    this.entries = entries;
+    this.packages = packages;
+  }
+
+  /** @return A non-null index which is not persisted. */
+  static ClassIndex inMemory() {
+    return new ClassIndex(null, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Load index from given file. If the file does not exist or is broken, this method returns an
+   * empty index which will be saved to the file.
+   *
+   * @param file A non-null path of index file.
+   * @return A non-null index.
+   */
+  static ClassIndex load(Path file) {
+    Objects.requireNonNull(file);
+    ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    ConcurrentMap<String, PackageEntry> packages = new ConcurrentHashMap<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+        int size = input.readInt();
+        for (int i = 0; i < size; ++i) {
+          String classFile = input.readUTF();
+          long length = input.readLong();
+          long lastModified = input.readLong();
+          String source = input.readUTF();
+          entries.put(classFile, new Entry(length, lastModified, source.isEmpty() ? null : source));
+        }
+        int packageSize = input.readInt();
+        for (int i = 0; i < packageSize; ++i) {
+          String packagePath = input.readUTF();
+          long lastModified = input.readLong();
+          boolean mayDeclareOtherClass = input.readBoolean();
+          packages.put(packagePath, new PackageEntry(lastModified, mayDeclareOtherClass));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // this is the first build, or output directory has been cleaned
+    } catch (IOException e) {
+      // broken index is same with no index, we just need to rebuild it
+      entries.clear();
+      packages.clear();
+    }
+    return new ClassIndex(file, entries, packages);
+  }
+
+  /**
+   * @param classFile A relative path of class file from output directory.
+   * @param attributes A non-null attributes of the class file.
+   * @return The cached entry, or empty if no valid entry found.
+   */
+  Optional<Entry> get(String classFile, BasicFileAttributes attributes) {
+    Entry entry = entries.get(classFile);
+    if (entry == null
+        || entry.length != attributes.size()
+        || entry.lastModified != attributes.lastModifiedTime().toMillis()) {
+      return Optional.empty();
+    }
+    return Optional.of(entry);
+  }
+
+  /**
+   * @param classFile A relative path of class file from output directory.
+   * @param attributes A non-null attributes of the class file.
+   * @param source A name of source file such as {@code "ClassName.java"}, or {@code null} if class
+   *     file has no information.
+   */
+  void put(String classFile, BasicFileAttributes attributes, String source) {
+    entries.put(
+        classFile, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), source));
+    updated = true;
+  }
+
+  /**
+   * @param packagePath A relative path of package directory with trailing slash.
+   * @param lastModified Last modified time of the package directory in output directory.
+   * @return The cached flag which represents that some source file in the package may declare class
+   *     with other name, or empty if no valid flag found.
+   */
+  Optional<Boolean> mayDeclareOtherClass(String packagePath, long lastModified) {
+    PackageEntry entry = packages.get(packagePath);
+    if (entry == null || entry.lastModified != lastModified) {
+      return Optional.empty();
+    }
+    return Optional.of(entry.mayDeclareOtherClass);
+  }
+
+  /**
+   * @param packagePath A relative path of package directory with trailing slash.
+   * @param lastModified Last modified time of the package directory in output directory.
+   * @param mayDeclareOtherClass true if some source file in the package may declare class with
+   *     other name
+   */
+  void putMayDeclareOtherClass(
+      String packagePath, long lastModified, boolean mayDeclareOtherClass) {
+    packages.put(packagePath, new PackageEntry(lastModified, mayDeclareOtherClass));
+    updated = true;
+  }
+
+  /**
+   * Remove entries in given package which are not listed, to forget class files deleted by
+   * recompilation.
+   *
+   * @param packagePath A relative path of package directory with trailing slash, such as {@code
+   *     "com/worksap/tools/"}. Empty string represents the default package.
+   * @param existing A non-null set of class files which exist in the package.
+   */
+  void retain(String packagePath, Set<String> existing) {
+    updated |=
+        entries
+            .keySet()
+            .removeIf(
+                classFile ->
+                    classFile.startsWith(packagePath)
+                        && classFile.indexOf('/', packagePath.length()) < 0
+                        && !existing.contains(classFile));
+  }
+
+  /**
+   * Save this index to file, if it has been updated.
+   *
+   * @throws IOException when failed to write the file
+   */
+  void save() throws IOException {
+    if (file == null || !updated) {
+      return;
+    }
+    Files.createDirectories(file.getParent());
+    Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        Map<String, Entry> snapshot = new TreeMap<>(entries);
+        output.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue().length);
+          output.writeLong(entry.getValue().lastModified);
+          output.writeUTF(entry.getValue().source == null ? "" : entry.getValue().source);
+        }
+        Map<String, PackageEntry> packageSnapshot = new TreeMap<>(packages);
+        output.writeInt(packageSnapshot.size());
+        for (Map.Entry<String, PackageEntry> entry : packageSnapshot.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue().lastModified);
+          output.writeBoolean(entry.getValue().mayDeclareOtherClass);
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      updated = false;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  static final class Entry {
+    private final long length;
+    private final long lastModified;
+    private final String source;
+
+    private Entry(long length, long lastModified, String source) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.source = source;
+    }
+
+    /**
+     * @return A name of source file such as {@code "ClassName.java"}, or {@code null} if class file
+     *     has no information.
+     */
+    String getSource() {
+      return source;
+    }
+  }
+
+  private static final class PackageEntry {
+    private final long lastModified;
+    private final boolean mayDeclareOtherClass;
+
+    private PackageEntry(long lastModified, boolean mayDeclareOtherClass) {
+      this.lastModified = lastModified;
+      this.mayDeclareOtherClass = mayDeclareOtherClass;
+    }
+  }
+}
@@ -16,23 +16,32 @@
 package com.worksap.tools.spotbugs.maven.incremental;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.io.PatternFilenameFilter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.commons.io.FilenameUtils;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.Opcodes;
 
 /**
  * A class which is responsible to search class files compiled from given .java files.
@@ -43,18 +52,98 @@ class ClassSearcher {
   private static final FilenameFilter CLASS_FILE_FILTER = new PatternFilenameFilter("^.*\\.class$");
   private final Path outputDir;
   private final String separator;
+  private final ClassIndex index;
+  private final int parallelism;
+
+  /**
+   * Source directories to check that each package may have classes declared in other source file.
+   * Empty means that nest-aware discovery is disabled.
+   */
+  private final Collection<Path> sourceRoots;
+
+  private final Metrics metrics;
 
   ClassSearcher(Path outputDir) {
+    this(outputDir, ClassIndex.inMemory());
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @param index A non-null index to reuse source file name loaded in previous build.
+   */
+  ClassSearcher(Path outputDir, ClassIndex index) {
+    this(outputDir, index, 1);
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @param index A non-null index to reuse source file name loaded in previous build.
+   * @param parallelism A number of threads to scan class files. Use {@code 1} to scan in caller
+   *     thread.
+   */
+  ClassSearcher(Path outputDir, ClassIndex index, int parallelism) {
+    this(outputDir, index, parallelism, Collections.emptySet());
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @param index A non-null index to reuse source file name loaded in previous build.
+   * @param parallelism A number of threads to scan class files. Use {@code 1} to scan in caller
+   *     thread.
+   * @param sourceRoots A non-null collection of source directories compiled into the output
+   *     directory. If it is not empty, this searcher finds nested classes from class file which has
+   *     the same name with updated source, instead of parsing all class files in the package.
+   */
+  ClassSearcher(Path outputDir, ClassIndex index, int parallelism, Collection<Path> sourceRoots) {
+    this(outputDir, index, parallelism, sourceRoots, new Metrics());
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @param index A non-null index to reuse source file name loaded in previous build.
+   * @param parallelism A number of threads to scan class files. Use {@code 1} to scan in caller
+   *     thread.
+   * @param sourceRoots A non-null collection of source directories compiled into the output
+   *     directory. If it is not empty, this searcher finds nested classes from class file which has
+   *     the same name with updated source, instead of parsing all class files in the package.
+   * @param metrics A non-null {@link Metrics} to record listed packages and parsed class files.
+   */
+  ClassSearcher(
+      Path outputDir,
+      ClassIndex index,
+      int parallelism,
+      Collection<Path> sourceRoots,
+      Metrics metrics) {
     Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(index);
+    Objects.requireNonNull(sourceRoots);
+    Objects.requireNonNull(metrics);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism should be positive but it is " + parallelism);
+    }
     this.outputDir = outputDir;
     this.separator = outputDir.getFileSystem().getSeparator();
+    this.index = index;
+    this.parallelism = parallelism;
+    this.sourceRoots = sourceRoots;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return A path of index file for given output directory, such as {@code
+   *     "target/incremental-analysis/classes.idx"} for {@code "target/classes"}.
+   */
+  static Path indexFileFor(Path outputDir) {
+    return outputDir
+        .resolveSibling("incremental-analysis")
+        .resolve(outputDir.getFileName() + ".idx");
   }
 
   /**
    * @param sourceStream A stream of relative .java file path such as {@code
    *     "com/worksap/tools/ClassName.java"}, {@code "com\worksap\tools\ClassName.java"}
    * @return A stream of class names such as {@code "com.worksap.tools.ClassName",
-   *     "com.worksap.tools.ClassName$0"}
+   *     "com.worksap.tools.ClassName$0"}, sorted by package and class file name.
    */
   Stream<String> search(Stream<String> sourceStream) {
     Objects.requireNonNull(sourceStream);
@@ -64,60 +153,265 @@ class ClassSearcher {
      * Value: list of .java file path such as "com/worksap/tools/ClassName.java"
      */
     Map<String, List<String>> group =
-        sourceStream.collect(Collectors.groupingBy(FilenameUtils::getPath));
+        sourceStream.collect(
+            Collectors.groupingBy(FilenameUtils::getPath, TreeMap::new, Collectors.toList()));
 
-    return group.entrySet().stream()
-        .flatMap(
-            entry -> {
-              String relativePackagePath = entry.getKey();
+    List<Candidate> candidates;
+    try (Metrics.Timer timer = metrics.time("listPackages")) {
+      candidates =
+          group.entrySet().stream()
+              .flatMap(
+                  entry -> {
+                    String relativePackagePath = entry.getKey();
 
-              final Path packageDir;
-              if (relativePackagePath.isEmpty()) {
-                packageDir = outputDir;
-              } else {
-                packageDir = outputDir.resolve(relativePackagePath);
-              }
+                    final Path packageDir;
+                    if (relativePackagePath.isEmpty()) {
+                      packageDir = outputDir;
+                    } else {
+                      packageDir = outputDir.resolve(relativePackagePath);
+                    }
 
-              /*
-               * Package name with trailing dot, such as "com.worksap.tools."
-               */
-              final String packageStr = relativePackagePath.replace(separator, ".");
+                    /*
+                     * Set of updated file name such as "ClassName.java", to match with "Compiled from" value in class files.
+                     * https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.7.10
+                     */
+                    Set<String> updatedSourceFiles =
+                        entry.getValue().stream()
+                            .map(FilenameUtils::getName)
+                            .collect(Collectors.toSet());
 
-              /*
-               * Set of updated file name such as "ClassName.java", to match with "Compiled from" value in class files.
-               * https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.7.10
-               */
-              Set<String> updatedSourceFiles =
-                  entry.getValue().stream().map(FilenameUtils::getName).collect(Collectors.toSet());
+                    return list(packageDir, relativePackagePath, updatedSourceFiles);
+                  })
+              .collect(Collectors.toList());
+    }
 
-              return search(packageDir, updatedSourceFiles).map(packageStr::concat);
-            })
-        .map(FilenameUtils::removeExtension);
+    try (Metrics.Timer timer = metrics.time("parseClassFiles")) {
+      return scan(candidates).stream();
+    }
   }
 
   /**
    * @param packageDir A directory for target package, such as {@code
    *     "/path/to/target/classes/com/worksap/tools"}
+   * @param relativePackagePath A relative path of package directory with trailing separator, such
+   *     as {@code "com/worksap/tools/"}
    * @param updatedSourceNames A set of name of updated source which belongs to given package, such
    *     as {@code "ClassName.java"}
-   * @return Stream of name of updated class files such as {@code "ClassName.class"}, {@code
-   *     "ClassName$InnerClass.class"}
+   * @return Stream of class files in the package which may be compiled from updated source, sorted
+   *     by file name.
    */
-  private Stream<String> search(Path packageDir, Set<String> updatedSourceNames) {
+  private Stream<Candidate> list(
+      Path packageDir, String relativePackagePath, Set<String> updatedSourceNames) {
     assert packageDir != null;
+    assert relativePackagePath != null;
     assert updatedSourceNames != null;
 
+    metrics.increment(Metrics.Counter.PACKAGES_SCANNED);
     String[] classFiles = packageDir.toFile().list(CLASS_FILE_FILTER);
+    if (classFiles == null) {
+      // no class compiled from this package, e.g. package-info.java only
+      return Stream.empty();
+    }
+    Arrays.sort(classFiles);
+
+    /*
+     * Package name with trailing dot, such as "com.worksap.tools."
+     */
+    String packageStr = relativePackagePath.replace(separator, ".");
+    String indexPrefix = relativePackagePath.replace(separator, "/");
+    index.retain(
+        indexPrefix,
+        Arrays.stream(classFiles).map(indexPrefix::concat).collect(Collectors.toSet()));
+
+    if (!sourceRoots.isEmpty()
+        && !mayDeclareOtherClass(packageDir, relativePackagePath, indexPrefix, classFiles)) {
+      Set<String> classFileNames = new HashSet<>(Arrays.asList(classFiles));
+      return updatedSourceNames.stream()
+          .flatMap(sourceName -> discover(packageDir, indexPrefix, classFileNames, sourceName))
+          // same order with class file names, e.g. "ClassName$1.class" precedes "ClassName.class"
+          .sorted(Comparator.comparing(simpleName -> simpleName + ".class"))
+          .map(simpleName -> Candidate.discovered(packageStr + simpleName));
+    }
+
     return Arrays.stream(classFiles)
-        .filter(
-            classFile -> {
-              String compiledFrom = loadCompiledFrom(packageDir.resolve(classFile));
-              return compiledFrom != null && updatedSourceNames.contains(compiledFrom);
-            });
+        .map(
+            classFile ->
+                new Candidate(
+                    packageDir.resolve(classFile),
+                    indexPrefix + classFile,
+                    packageStr + FilenameUtils.removeExtension(classFile),
+                    updatedSourceNames));
+  }
+
+  /**
+   * Parse candidate class files, to find classes compiled from updated source. If parallelism is
+   * greater than one, class files are parsed in a dedicated {@link ForkJoinPool}. In both cases the
+   * result keeps order of given candidates.
+   *
+   * @param candidates A non-null list of class files to check.
+   * @return A non-null list of class names compiled from updated source.
+   */
+  private List<String> scan(List<Candidate> candidates) {
+    if (parallelism == 1 || candidates.size() < 2) {
+      return candidates.stream()
+          .filter(this::isCompiledFromUpdatedSource)
+          .map(candidate -> candidate.className)
+          .collect(Collectors.toList());
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.submit(
+              () ->
+                  candidates
+                      .parallelStream()
+                      .filter(this::isCompiledFromUpdatedSource)
+                      .map(candidate -> candidate.className)
+                      .collect(Collectors.toList()))
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning class files", e);
+    } catch (ExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Failed to scan class files", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private boolean isCompiledFromUpdatedSource(Candidate candidate) {
+    if (candidate.classFile == null) {
+      // already found by nest-aware discovery
+      return true;
+    }
+    String compiledFrom = compiledFrom(candidate.classFile, candidate.indexKey);
+    return compiledFrom != null && candidate.updatedSourceNames.contains(compiledFrom);
+  }
+
+  /**
+   * Check that some source file in the package may declare class whose name differs from the source
+   * file, such as non-public top level class. We detect it by class files which have no source file
+   * with the same name, so we do not need to parse class files.
+   *
+   * @param classFiles A non-null array of class file names in the package.
+   * @return true if we need to parse all class files in the package to find updated class
+   */
+  private boolean mayDeclareOtherClass(
+      Path packageDir, String relativePackagePath, String indexPrefix, String[] classFiles) {
+    long lastModified;
+    try {
+      lastModified = Files.getLastModifiedTime(packageDir).toMillis();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Optional<Boolean> cached = index.mayDeclareOtherClass(indexPrefix, lastModified);
+    if (cached.isPresent()) {
+      return cached.get();
+    }
+
+    Set<String> sourceFiles = new HashSet<>();
+    for (Path sourceRoot : sourceRoots) {
+      String[] names = sourceRoot.resolve(relativePackagePath).toFile().list();
+      if (names != null) {
+        sourceFiles.addAll(Arrays.asList(names));
+      }
+    }
+    boolean result =
+        Arrays.stream(classFiles)
+            .map(FilenameUtils::removeExtension)
+            .map(name -> name.indexOf('$') < 0 ? name : name.substring(0, name.indexOf('$')))
+            .distinct()
+            .anyMatch(topLevelName -> !sourceFiles.contains(topLevelName + ".java"));
+    index.putMayDeclareOtherClass(indexPrefix, lastModified, result);
+    return result;
+  }
+
+  /**
+   * Find classes compiled from given source, by following {@code InnerClasses} and {@code
+   * NestMembers} attributes from the top level class which has the same name with the source.
+   *
+   * @param indexPrefix A relative path of package directory separated by slash, which is also the
+   *     prefix of internal name of classes in the package.
+   * @param classFileNames A non-null set of class file names in the package.
+   * @param sourceName A name of updated source such as {@code "ClassName.java"}
+   * @return Stream of simple binary name of classes such as {@code "ClassName$1"}
+   */
+  private Stream<String> discover(
+      Path packageDir, String indexPrefix, Set<String> classFileNames, String sourceName) {
+    String topLevelName = FilenameUtils.removeExtension(sourceName);
+    String nestedPrefix = indexPrefix + topLevelName + "$";
+    Set<String> found = new HashSet<>();
+    Deque<String> queue = new ArrayDeque<>();
+    queue.add(topLevelName);
+
+    while (!queue.isEmpty()) {
+      String simpleName = queue.poll();
+      if (found.contains(simpleName) || !classFileNames.contains(simpleName + ".class")) {
+        // e.g. package-info.java has no class file
+        continue;
+      }
+      ClassFileReader.Nest nest = loadNest(packageDir.resolve(simpleName + ".class"));
+      metrics.increment(Metrics.Counter.CLASS_FILES_READ);
+      metrics.add(Metrics.Counter.BYTES_READ, ClassFileReader.lastReadSize());
+      if (!sourceName.equals(nest.getSourceFile())) {
+        continue;
+      }
+      found.add(simpleName);
+      nest.getMembers().stream()
+          .filter(member -> member.startsWith(nestedPrefix))
+          .map(member -> member.substring(indexPrefix.length()))
+          .forEach(queue::add);
+    }
+    return found.stream();
+  }
+
+  /**
+   * Parse .class file to load its source file name and nested classes.
+   *
+   * @param classFilePath A non-null {@link Path} which identifies target .class file.
+   * @return A non-null {@link ClassFileReader.Nest} loaded from the class file.
+   */
+  @VisibleForTesting
+  ClassFileReader.Nest loadNest(Path classFilePath) {
+    assert classFilePath != null;
+
+    try {
+      return ClassFileReader.readNest(classFilePath);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Find source file name of given class file from index, or load it from the class file.
+   *
+   * @param classFilePath A non-null {@link Path} which identifies target .class file.
+   * @param indexKey A relative path of class file from output directory, separated by slash.
+   * @return A name of source file such as {@code "ClassName.java"}, or {@code null} if .class file
+   *     has no information.
+   */
+  private String compiledFrom(Path classFilePath, String indexKey) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(classFilePath, BasicFileAttributes.class);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Optional<ClassIndex.Entry> entry = index.get(indexKey, attributes);
+    if (entry.isPresent()) {
+      return entry.get().getSource();
+    }
+    String compiledFrom = loadCompiledFrom(classFilePath);
+    metrics.increment(Metrics.Counter.CLASS_FILES_READ);
+    metrics.add(Metrics.Counter.BYTES_READ, attributes.size());
+    index.put(indexKey, attributes, compiledFrom);
+    return compiledFrom;
   }
 
   /**
-   * Parse .class file by ASM, to load registered source file name.
+   * Parse .class file to load registered source file name. It reads only the constant pool and
+   * class level attributes, because we do not need methods and their code.
    *
    * @param classFilePath A non-null {@link Path} which identifies target .class file.
    * @return A name of source file such as {@code "ClassName.java"}, or {@code null} if .class file
@@ -127,32 +421,38 @@ class ClassSearcher {
   String loadCompiledFrom(Path classFilePath) {
     assert classFilePath != null;
 
-    byte[] data;
     try {
-      // Most of class files are smaller than 8KiB,
-      // so it's better to load in batch instead of load with BufferedInputStream which consumes
-      // 8KiB memory constantly
-      data = Files.readAllBytes(classFilePath);
+      return ClassFileReader.readSourceFile(classFilePath);
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
-
-    ClassReader classReader = new ClassReader(data);
-    SourceFileNameVisitor visitor = new SourceFileNameVisitor();
-    classReader.accept(visitor, 0);
-    return visitor.source;
   }
 
-  private static class SourceFileNameVisitor extends ClassVisitor {
-    private String source;
+  /** A class file which may be compiled from updated source. */
+  private static final class Candidate {
+    /**
+     * Path of the class file, or {@code null} if it is known to be compiled from updated source.
+     */
+    private final Path classFile;
+
+    /** A relative path of class file from output directory, separated by slash. */
+    private final String indexKey;
+
+    /** A name of class such as {@code "com.worksap.tools.ClassName$1"}. */
+    private final String className;
+
+    private final Set<String> updatedSourceNames;
 
-    SourceFileNameVisitor() {
-      super(Opcodes.ASM7);
+    Candidate(Path classFile, String indexKey, String className, Set<String> updatedSourceNames) {
+      this.classFile = classFile;
+      this.indexKey = indexKey;
+      this.className = className;
+      this.updatedSourceNames = updatedSourceNames;
     }
 
-    @Override
-    public void visitSource(String source, String debug) {
-      this.source = source;
+    /** @return A candidate which is known to be compiled from updated source. */
+    static Candidate discovered(String className) {
+      return new Candidate(null, null, className, Collections.emptySet());
     }
   }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Historical timing of SpotBugs in a module, to estimate analysis time of classes from size of
+ * their class files. It keeps two values as moving average of earlier runs: fixed overhead of each
+ * run such as building classpath, and rate of the analysis phase in milliseconds per kilobyte of
+ * bytecode. The overhead is kept apart from the rate, so a run which analyzes only a few classes
+ * does not inflate the rate.
+ *
+ * <p>A history file is a UTF-8 text file which has two lines such as {@code "millisPerKilobyte
+ * 12.5"} and {@code "overheadMillis 3000.0"}.
+ */
+final class CostHistory {
+  /** Rate used until the first run is recorded. */
+  static final double DEFAULT_MILLIS_PER_KILOBYTE = 10.0;
+
+  private static final String MILLIS_PER_KILOBYTE = "millisPerKilobyte ";
+  private static final String OVERHEAD_MILLIS = "overheadMillis ";
+
+  /** Weight of the latest run in moving average. */
+  private static final double WEIGHT = 0.5;
+
+  private final double millisPerKilobyte;
+  private final double overheadMillis;
+  private final boolean recorded;
+
+  private CostHistory(double millisPerKilobyte, double overheadMillis, boolean recorded) {
+    this.millisPerKilobyte = millisPerKilobyte;
+    this.overheadMillis = overheadMillis;
+    this.recorded = recorded;
+  }
+
+  /** @return A non-null history which has no run recorded. */
+  static CostHistory empty() {
+    return new CostHistory(DEFAULT_MILLIS_PER_KILOBYTE, 0, false);
+  }
+
+  /**
+   * @param file A non-null path of history file.
+   * @return A non-null loaded history, or empty history if the file does not exist or is broken.
+   * @throws IOException when failed to read the file
+   */
+  static CostHistory load(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      double rate = parse(reader.readLine(), MILLIS_PER_KILOBYTE);
+      double overhead = parse(reader.readLine(), OVERHEAD_MILLIS);
+      if (Double.isNaN(rate) || Double.isNaN(overhead)) {
+        return empty();
+      }
+      return new CostHistory(rate, overhead, true);
+    } catch (NoSuchFileException e) {
+      // SpotBugs has never run in this module, or build directory has been cleaned
+      return empty();
+    }
+  }
+
+  /**
+   * @return A non-negative value in given line, or {@code NaN} if the line is missing or broken.
+   */
+  private static double parse(String line, String prefix) {
+    if (line == null || !line.startsWith(prefix)) {
+      return Double.NaN;
+    }
+    try {
+      double value = Double.parseDouble(line.substring(prefix.length()).trim());
+      return Double.isInfinite(value) || value < 0 ? Double.NaN : value;
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  double getMillisPerKilobyte() {
+    return millisPerKilobyte;
+  }
+
+  /** @return Estimated overhead of each run in milliseconds, regardless of analyzed classes. */
+  long getOverheadMillis() {
+    return (long) Math.ceil(overheadMillis);
+  }
+
+  /**
+   * @param bytes Total size of analyzed class files.
+   * @param analysisMillis Time spent by the analysis phase of classes.
+   * @param totalMillis Time spent by the whole run, including its overhead.
+   * @return A non-null history which reflects given run.
+   */
+  CostHistory record(long bytes, long analysisMillis, long totalMillis) {
+    if (bytes <= 0 || analysisMillis < 0 || totalMillis < analysisMillis) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Invalid run: %d bytes in %d of %d milliseconds",
+              bytes, analysisMillis, totalMillis));
+    }
+    double rate = analysisMillis * 1024.0 / bytes;
+    double overhead = totalMillis - analysisMillis;
+    if (!recorded) {
+      return new CostHistory(rate, overhead, true);
+    }
+    return new CostHistory(
+        WEIGHT * rate + (1 - WEIGHT) * millisPerKilobyte,
+        WEIGHT * overhead + (1 - WEIGHT) * overheadMillis,
+        true);
+  }
+
+  /**
+   * @param bytes Size of class files to analyze.
+   * @return Estimated time to analyze given class files in milliseconds, except the overhead.
+   */
+  long estimateMillis(long bytes) {
+    return (long) Math.ceil(bytes * millisPerKilobyte / 1024);
+  }
+
+  /**
+   * @param file A non-null path of history file to write.
+   * @throws IOException when failed to write the file
+   */
+  void save(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        writer.write(MILLIS_PER_KILOBYTE + String.format(Locale.ROOT, "%.3f", millisPerKilobyte));
+        writer.newLine();
+        writer.write(OVERHEAD_MILLIS + String.format(Locale.ROOT, "%.3f", overheadMillis));
+        writer.newLine();
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
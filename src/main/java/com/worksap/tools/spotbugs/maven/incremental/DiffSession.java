@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A session-scoped cache of {@link ChangeSet}, shared by every module in one reactor build. Each
+ * change set is computed only once even if several modules ask it at the same time in parallel
+ * build.
+ */
+final class DiffSession {
+  /**
+   * A change set is immutable when both sides are commits, so a long-lived JVM such as Maven daemon
+   * can share them across builds.
+   */
+  private static final DiffSession RESIDENT = new DiffSession(new Memoizer<>(32));
+
+  private final Memoizer<Key, ChangeSet> changeSets;
+
+  DiffSession() {
+    this(new Memoizer<>());
+  }
+
+  private DiffSession(Memoizer<Key, ChangeSet> changeSets) {
+    this.changeSets = changeSets;
+  }
+
+  /**
+   * @param session A non-null {@link MavenSession} which identifies current build.
+   * @return A non-null {@link DiffSession} shared in given Maven session.
+   */
+  static DiffSession of(MavenSession session) {
+    return Memoizer.sessionScoped(session, DiffSession.class, DiffSession::new);
+  }
+
+  /**
+   * @return A non-null {@link DiffSession} shared in this class loader, which outlives Maven
+   *     session. Caller should use it only for change sets between two commits.
+   */
+  static DiffSession resident() {
+    return RESIDENT;
+  }
+
+  /**
+   * Get cached {@link ChangeSet}, or compute it if no other thread has computed it yet.
+   *
+   * @param key A non-null key which identifies the change set.
+   * @param loader A non-null {@link Callable} to compute the change set.
+   * @return A non-null {@link ChangeSet}.
+   * @throws IOException when loader failed to compute the change set.
+   */
+  ChangeSet changeSet(Key key, Callable<ChangeSet> loader) throws IOException {
+    return changeSets.get(key, loader, "Failed to compute difference");
+  }
+
+  /**
+   * A key of {@link ChangeSet}, which consists of Git root directory, resolved commit IDs,
+   * uncommitted changes to compare and directories to compute difference.
+   */
+  static final class Key {
+    private final Path gitRoot;
+    private final ObjectId target;
+    private final ObjectId source;
+    private final UncommittedChanges uncommitted;
+    private final List<String> scope;
+
+    Key(Path gitRoot, ObjectId target, ObjectId source, List<String> scope) {
+      this(gitRoot, target, source, UncommittedChanges.IGNORE, scope);
+    }
+
+    Key(
+        Path gitRoot,
+        ObjectId target,
+        ObjectId source,
+        UncommittedChanges uncommitted,
+        List<String> scope) {
+      this.gitRoot = Objects.requireNonNull(gitRoot);
+      this.target = Objects.requireNonNull(target).copy();
+      this.source = Objects.requireNonNull(source).copy();
+      this.uncommitted = Objects.requireNonNull(uncommitted);
+      this.scope = Collections.unmodifiableList(new ArrayList<>(scope));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return gitRoot.equals(other.gitRoot)
+          && target.equals(other.target)
+          && source.equals(other.source)
+          && uncommitted == other.uncommitted
+          && scope.equals(other.scope);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(gitRoot, target, source, uncommitted, scope);
+    }
+
+    @Override
+    public String toString() {
+      if (uncommitted != UncommittedChanges.IGNORE) {
+        return String.format("%s (%s...%s) %s", gitRoot, target.name(), uncommitted, scope);
+      }
+      return String.format("%s (%s...%s) %s", gitRoot, target.name(), source.name(), scope);
+    }
+  }
+}
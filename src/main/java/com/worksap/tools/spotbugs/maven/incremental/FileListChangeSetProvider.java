@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * A {@link ChangeSetProvider} which reads updated files from a newline-delimited list, such as one
+ * generated by CI. Each line is a path relative to Git root or an absolute path. Files which do not
+ * exist in the working tree are treated as deleted.
+ */
+final class FileListChangeSetProvider implements ChangeSetProvider {
+  private final Path fileList;
+
+  /** @param fileList A non-null path of the file list. */
+  FileListChangeSetProvider(Path fileList) {
+    this.fileList = Objects.requireNonNull(fileList);
+  }
+
+  @Override
+  public ChangeSet diff(
+      Repository repository, Path gitRoot, ObjectId target, ObjectId source, List<String> paths)
+      throws IOException {
+    List<String> updatedPaths = new ArrayList<>();
+    for (String line : Files.readAllLines(fileList, StandardCharsets.UTF_8)) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || !trimmed.endsWith(".java")) {
+        continue;
+      }
+      Path file = gitRoot.resolve(trimmed).normalize();
+      if (!file.startsWith(gitRoot) || !Files.isRegularFile(file)) {
+        continue;
+      }
+      String path =
+          gitRoot.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+      if (paths.contains("") || paths.stream().anyMatch(dir -> path.startsWith(dir + "/"))) {
+        updatedPaths.add(path);
+      }
+    }
+    return new ChangeSet(gitRoot, updatedPaths);
+  }
+
+  @Override
+  public boolean comparesCommits() {
+    return false;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.w3c.dom.Element;
+
+/**
+ * A content-addressed cache of SpotBugs findings. Each entry holds {@code BugInstance} elements of
+ * one class, and its key is a hash of the class file and the analysis configuration. Entries are
+ * never updated, so one cache directory can be shared by several builds.
+ *
+ * <p>Note that findings are reused even if classes referred from the class have been changed.
+ */
+final class FindingsCache {
+  /**
+   * Key of {@link MavenProject#getContextValue(String)} to share classes whose findings are cached.
+   */
+  static final String CACHED_CLASSES = FindingsCache.class.getName() + ".cachedClasses";
+
+  /** Format of entries, to ignore entries written by older version of this plugin. */
+  private static final String FORMAT = "entries with definitions";
+
+  private final Path directory;
+  private final String configuration;
+
+  /**
+   * @param directory A non-null cache directory.
+   * @param configuration A non-null string which represents analysis configuration.
+   */
+  FindingsCache(Path directory, String configuration) {
+    this.directory = Objects.requireNonNull(directory);
+    this.configuration = Objects.requireNonNull(configuration);
+  }
+
+  /**
+   * @param session A non-null current session.
+   * @param project A non-null project to analyze.
+   * @return A non-null string which represents effective configuration of spotbugs-maven-plugin in
+   *     given project, including content of filter files and SpotBugs plugins.
+   * @throws IOException when failed to read files referred by the configuration
+   */
+  static String configurationOf(MavenSession session, MavenProject project) throws IOException {
+    return FORMAT + '\n' + SpotBugsConfiguration.of(session, project).fingerprint();
+  }
+
+  /**
+   * @param classFile A non-null path of class file.
+   * @return A non-null key of given class file in this cache.
+   * @throws IOException when failed to read the class file
+   */
+  String keyOf(Path classFile) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(configuration, StandardCharsets.UTF_8);
+    hasher.putBytes(Files.readAllBytes(classFile));
+    return hasher.hash().toString();
+  }
+
+  /**
+   * @param key A non-null key computed by {@link #keyOf(Path)}.
+   * @return Cached entry which has {@code BugInstance} elements and their definitions, or empty if
+   *     no entry found. Entry without {@code BugInstance} means that the class has no finding.
+   * @throws IOException when failed to read the entry
+   */
+  Optional<BugCollectionXml> load(String key) throws IOException {
+    try {
+      return Optional.of(BugCollectionXml.load(entry(key)));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @param key A non-null key computed by {@link #keyOf(Path)}.
+   * @param bugInstances A non-null collection of {@code BugInstance} elements of the class.
+   * @param definitions A non-null report which has definitions of given {@code BugInstance}
+   *     elements, such as {@code BugPattern}.
+   * @throws IOException when failed to write the entry
+   */
+  void store(String key, Collection<Element> bugInstances, BugCollectionXml definitions)
+      throws IOException {
+    BugCollectionXml entry = BugCollectionXml.empty();
+    entry.addAll(bugInstances, definitions);
+    entry.save(entry(key));
+  }
+
+  /** @return A path of entry, such as {@code "ab/abcdef...xml"} in the cache directory. */
+  private Path entry(String key) {
+    return directory.resolve(key.substring(0, 2)).resolve(key + ".xml");
+  }
+}
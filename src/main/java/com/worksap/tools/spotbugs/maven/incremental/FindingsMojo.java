@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.w3c.dom.Element;
+
+/**
+ * A mojo to store findings of analyzed classes to the findings cache, and to merge cached findings
+ * into the XML report. Execute this mojo after spotbugs-maven-plugin generates XML report, and
+ * before it checks the report.
+ */
+@Mojo(
+    name = "findings",
+    threadSafe = true,
+    requiresProject = true,
+    defaultPhase = LifecyclePhase.VERIFY)
+public class FindingsMojo extends AbstractMojo {
+  @Parameter(property = "project")
+  private MavenProject project;
+
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
+  /** Directory to store findings of each class. Same with the {@code spotbugs} goal. */
+  @Parameter(property = "incremental.spotbugs.findingsCache")
+  private File findingsCache;
+
+  /** XML report generated by spotbugs-maven-plugin. */
+  @Parameter(
+      defaultValue = "${project.build.directory}/spotbugsXml.xml",
+      property = "spotbugs.xmlOutputFile")
+  private File xmlOutputFile;
+
+  /** Name of the property which has {@code -onlyAnalyze} option given to SpotBugs. */
+  @Parameter(defaultValue = "spotbugs.onlyAnalyze")
+  private String propertyToAnalyze;
+
+  /** Name of the property to decide that spotbugs-maven-plugin skipped analysis or not. */
+  @Parameter(defaultValue = "spotbugs.skip")
+  private String propertyToSkip;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    Log log = getLog();
+    if (findingsCache == null) {
+      log.debug("No findings cache is specified.");
+      return;
+    }
+    FindingsCache cache;
+    try {
+      cache =
+          new FindingsCache(
+              findingsCache.toPath(), FindingsCache.configurationOf(session, project));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to read configuration of SpotBugs", e);
+    }
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    Path report = xmlOutputFile.toPath();
+    boolean analyzed =
+        !Boolean.parseBoolean(project.getProperties().getProperty(propertyToSkip))
+            && Files.isRegularFile(report);
+
+    try {
+      BugCollectionXml bugCollection;
+      if (analyzed) {
+        bugCollection = BugCollectionXml.load(report);
+        store(cache, outputDirectory, bugCollection);
+      } else {
+        bugCollection = BugCollectionXml.empty();
+      }
+
+      @SuppressWarnings("unchecked")
+      List<String> cachedClasses =
+          (List<String>) project.getContextValue(FindingsCache.CACHED_CLASSES);
+      if (cachedClasses == null || cachedClasses.isEmpty()) {
+        return;
+      }
+      int cachedFindings = 0;
+      for (String className : cachedClasses) {
+        Optional<BugCollectionXml> entry =
+            cache.load(cache.keyOf(classFileOf(outputDirectory, className)));
+        if (entry.isPresent() && !entry.get().bugInstances().isEmpty()) {
+          bugCollection.addAll(entry.get().bugInstances(), entry.get());
+          cachedFindings += entry.get().bugInstances().size();
+        }
+      }
+      if (cachedFindings > 0) {
+        bugCollection.save(report);
+      }
+      log.info(
+          String.format(
+              "Merged %d cached findings of %d classes into %s",
+              cachedFindings, cachedClasses.size(), report));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to merge findings cache into " + report, e);
+    }
+  }
+
+  /** Store findings of each analyzed class, including classes which have no finding. */
+  private void store(FindingsCache cache, Path outputDirectory, BugCollectionXml bugCollection)
+      throws IOException {
+    List<String> analyzedClasses = getAnalyzedClasses();
+    if (analyzedClasses.isEmpty()) {
+      return;
+    }
+    Map<String, List<Element>> findings = bugCollection.bugInstancesByClass();
+    int stored = 0;
+    for (String className : analyzedClasses) {
+      Path classFile = classFileOf(outputDirectory, className);
+      if (Files.isRegularFile(classFile)) {
+        cache.store(
+            cache.keyOf(classFile),
+            findings.getOrDefault(className, Collections.emptyList()),
+            bugCollection);
+        ++stored;
+      }
+    }
+    getLog().debug(String.format("Stored findings of %d classes to cache", stored));
+  }
+
+  /**
+   * @return A non-null list of analyzed classes. Package wildcards and option file in the property
+   *     are ignored, because we cannot tell which class files they cover.
+   */
+  private List<String> getAnalyzedClasses() {
+    @SuppressWarnings("unchecked")
+    List<String> shared = (List<String>) project.getContextValue(SpotBugsMojo.TARGET_CLASSES);
+    if (shared != null) {
+      return shared;
+    }
+    String onlyAnalyze = project.getProperties().getProperty(propertyToAnalyze, "");
+    return Arrays.stream(onlyAnalyze.split(","))
+        .filter(className -> !className.isEmpty())
+        .filter(className -> !className.startsWith("@"))
+        .filter(className -> !className.endsWith(".*") && !className.endsWith(".-"))
+        .collect(Collectors.toList());
+  }
+
+  private static Path classFileOf(Path outputDirectory, String className) {
+    return outputDirectory.resolve(className.replace('.', File.separatorChar) + ".class");
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * A mojo to generate manifest of class file fingerprints. Run it in the build of target branch,
+ * then give the manifest to the {@code spotbugs} goal as {@code fingerprintBaseline}, to skip
+ * analysis of classes whose bytecode is not changed.
+ */
+@Mojo(
+    name = "fingerprint",
+    threadSafe = true,
+    requiresProject = true,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES)
+public class FingerprintMojo extends AbstractMojo {
+  @Parameter(property = "project")
+  private MavenProject project;
+
+  /** File to write fingerprints of class files in the output directory. */
+  @Parameter(
+      defaultValue = "${project.build.directory}/incremental-analysis/fingerprints.txt",
+      property = "incremental.fingerprint.outputFile")
+  private File outputFile;
+
+  /** Flag to skip execution of this goal. */
+  @Parameter(defaultValue = "false", property = "incremental.fingerprint.skip")
+  private boolean skip;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (skip) {
+      getLog().info("Skip generating fingerprints of class files.");
+      return;
+    }
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    if (!Files.isDirectory(outputDirectory)) {
+      getLog().info("No class file found, fingerprints will not be generated.");
+      return;
+    }
+    try {
+      Map<String, String> fingerprints = Fingerprints.scan(outputDirectory);
+      Fingerprints.save(outputFile.toPath(), fingerprints);
+      getLog()
+          .info(
+              String.format(
+                  "Generated fingerprints of %d classes at %s", fingerprints.size(), outputFile));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to generate fingerprints of class files", e);
+    }
+  }
+}
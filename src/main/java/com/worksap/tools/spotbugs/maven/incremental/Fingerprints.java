@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FilenameUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Fingerprints of class files, to find classes whose bytecode is not changed even though their
+ * source has been updated, e.g. by formatting or Javadoc. Debug information such as {@code
+ * SourceFile}, {@code LineNumberTable} and {@code LocalVariableTable} is removed before hashing.
+ *
+ * <p>A manifest is a UTF-8 text file, and each line has class name and its fingerprint separated by
+ * a space, such as {@code "com.worksap.ClassName$1 0123...cdef"}.
+ */
+final class Fingerprints {
+  private Fingerprints() {}
+
+  /**
+   * @param classFile A non-null path of class file.
+   * @return A non-null fingerprint of given class file, in hexadecimal.
+   * @throws IOException when failed to read the file
+   */
+  static String of(Path classFile) throws IOException {
+    Objects.requireNonNull(classFile);
+    ClassWriter writer = new ClassWriter(0);
+    try {
+      new ClassReader(Files.readAllBytes(classFile)).accept(writer, ClassReader.SKIP_DEBUG);
+    } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Invalid class file: " + classFile, e);
+    }
+    return Hashing.sha256().hashBytes(writer.toByteArray()).toString();
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @return A non-null map from class name such as {@code "com.worksap.ClassName"} to fingerprint.
+   * @throws IOException when failed to read class files
+   */
+  static Map<String, String> scan(Path outputDir) throws IOException {
+    Objects.requireNonNull(outputDir);
+    List<Path> classFiles;
+    try (Stream<Path> stream = Files.walk(outputDir)) {
+      classFiles =
+          stream.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+    }
+    Map<String, String> fingerprints = new TreeMap<>();
+    for (Path classFile : classFiles) {
+      String relativePath =
+          FilenameUtils.removeExtension(outputDir.relativize(classFile).toString());
+      String className = relativePath.replace(classFile.getFileSystem().getSeparator(), ".");
+      fingerprints.put(className, of(classFile));
+    }
+    return fingerprints;
+  }
+
+  /**
+   * @param manifest A non-null path of manifest file.
+   * @return A non-null map from class name to fingerprint.
+   * @throws IOException when failed to read the file
+   */
+  static Map<String, String> load(Path manifest) throws IOException {
+    Objects.requireNonNull(manifest);
+    Map<String, String> fingerprints = new TreeMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int separator = line.indexOf(' ');
+        if (separator > 0) {
+          fingerprints.put(line.substring(0, separator), line.substring(separator + 1).trim());
+        }
+      }
+    }
+    return fingerprints;
+  }
+
+  /**
+   * @param manifest A non-null path of manifest file to write.
+   * @param fingerprints A non-null map from class name to fingerprint.
+   * @throws IOException when failed to write the file
+   */
+  static void save(Path manifest, Map<String, String> fingerprints) throws IOException {
+    Objects.requireNonNull(manifest);
+    Objects.requireNonNull(fingerprints);
+    Path parent = manifest.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, manifest.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        for (Map.Entry<String, String> entry : new TreeMap<>(fingerprints).entrySet()) {
+          writer.write(entry.getKey());
+          writer.write(' ');
+          writer.write(entry.getValue());
+          writer.newLine();
+        }
+      }
+      Files.move(
+          temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
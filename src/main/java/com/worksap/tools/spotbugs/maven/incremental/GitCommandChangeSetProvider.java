@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * A {@link ChangeSetProvider} which runs native {@code git diff --name-status}. It is useful when
+ * native Git is faster than JGit, e.g. on very large packfiles.
+ */
+final class GitCommandChangeSetProvider implements ChangeSetProvider {
+  private final String executable;
+
+  /** @param executable A non-null name or path of {@code git} command. */
+  GitCommandChangeSetProvider(String executable) {
+    this.executable = Objects.requireNonNull(executable);
+  }
+
+  @Override
+  public ChangeSet diff(
+      Repository repository, Path gitRoot, ObjectId target, ObjectId source, List<String> paths)
+      throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(executable);
+    command.add("-c");
+    command.add("core.quotePath=false");
+    command.add("diff");
+    command.add("--name-status");
+    command.add("--no-renames");
+    command.add("--no-ext-diff");
+    command.add("-z");
+    command.add(target.name());
+    command.add(source.name());
+    command.add("--");
+    if (paths.contains("")) {
+      command.add(":(glob)**/*.java");
+    } else {
+      paths.forEach(path -> command.add(":(glob)" + path + "/**/*.java"));
+    }
+
+    Process process =
+        new ProcessBuilder(command)
+            .directory(gitRoot.toFile())
+            .redirectInput(ProcessBuilder.Redirect.PIPE)
+            .start();
+    process.getOutputStream().close();
+    CompletableFuture<byte[]> error =
+        CompletableFuture.supplyAsync(() -> readFully(process.getErrorStream()));
+    byte[] output;
+    try {
+      output = readFully(process.getInputStream());
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        throw new IOException(
+            String.format(
+                "%s exited with %d: %s",
+                String.join(" ", command),
+                exitCode,
+                new String(error.get(), StandardCharsets.UTF_8).trim()));
+      }
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while running git command", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to read error output of git command", e.getCause());
+    } catch (UncheckedIOException e) {
+      process.destroy();
+      throw e.getCause();
+    }
+    return new ChangeSet(gitRoot, parse(output));
+  }
+
+  /**
+   * @param output Output of {@code git diff --name-status -z}, which consists of NUL-terminated
+   *     status and path pairs.
+   * @return A non-null list of updated paths, excluding deleted files.
+   */
+  static List<String> parse(byte[] output) {
+    List<String> updatedPaths = new ArrayList<>();
+    List<String> fields =
+        Splitter.on('\0')
+            .omitEmptyStrings()
+            .splitToList(new String(output, StandardCharsets.UTF_8));
+    for (int i = 0; i + 1 < fields.size(); i += 2) {
+      String status = fields.get(i);
+      String path = fields.get(i + 1);
+      if (!status.startsWith("D") && path.endsWith(".java")) {
+        updatedPaths.add(path);
+      }
+    }
+    return updatedPaths;
+  }
+
+  private static byte[] readFully(InputStream input) {
+    try (InputStream stream = input) {
+      return ByteStreams.toByteArray(stream);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
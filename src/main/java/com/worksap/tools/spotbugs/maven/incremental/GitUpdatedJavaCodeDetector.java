@@ -17,102 +17,484 @@ package com.worksap.tools.spotbugs.maven.incremental;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FS;
 
 class GitUpdatedJavaCodeDetector {
+  private final Metrics metrics;
+  private final ChangeSetProvider provider;
+
+  GitUpdatedJavaCodeDetector() {
+    this(new Metrics());
+  }
+
+  /** @param metrics A non-null {@link Metrics} to record time to open repository and diff. */
+  GitUpdatedJavaCodeDetector(Metrics metrics) {
+    this(metrics, new JGitChangeSetProvider());
+  }
+
+  /**
+   * @param metrics A non-null {@link Metrics} to record time to open repository and diff.
+   * @param provider A non-null {@link ChangeSetProvider} to compute difference between commits.
+   */
+  GitUpdatedJavaCodeDetector(Metrics metrics, ChangeSetProvider provider) {
+    this.metrics = Objects.requireNonNull(metrics);
+    this.provider = Objects.requireNonNull(provider);
+  }
+
+  /**
+   * Check that something under given project directory differs between two commits. This method
+   * compares only object IDs of the subtree, so it finishes without walking whole trees.
+   *
+   * @param projectRoot A non-null directory of the project, or a file in the repository.
+   * @return true if some file under the project directory, or given file has been updated
+   */
   boolean detectDifference(Path projectRoot, String target, String source) throws IOException {
-    Optional<Path> optionalGitRoot = findGitRoot(projectRoot);
-    if (!optionalGitRoot.isPresent()) {
-      throw new IllegalArgumentException("Git repository not found at " + projectRoot);
-    }
-    Path gitRoot = optionalGitRoot.get();
-    try (Git git = Git.open(gitRoot.toFile())) {
-      Repository repository = git.getRepository();
-      Ref targetRef = repository.exactRef(target);
-      if (targetRef == null) {
-        throw new IllegalArgumentException(target + " does not exist in this Git repo");
+    if (!provider.comparesCommits()) {
+      // updated files are given regardless of commits
+      return true;
+    }
+    Path gitRoot = findGitRoot(projectRoot);
+    try (Repository repository = openRepository(gitRoot)) {
+      ObjectId targetId = resolve(repository, target);
+      ObjectId sourceId = resolve(repository, source);
+      if (sourceId.equals(targetId)) {
+        return false;
       }
-      Ref sourceRef = repository.exactRef(source);
-      if (sourceRef == null) {
-        throw new IllegalArgumentException(source + " does not exist in this Git repo");
+      String path = toGitPath(gitRoot, projectRoot);
+      try (Metrics.Timer timer = metrics.time("detectDifference");
+          RevWalk walk = new RevWalk(repository)) {
+        ObjectId targetTree = findObject(repository, walk.parseCommit(targetId), path);
+        ObjectId sourceTree = findObject(repository, walk.parseCommit(sourceId), path);
+        return !Objects.equals(targetTree, sourceTree);
       }
-      return !sourceRef.equals(targetRef);
     }
   }
 
-  Stream<Path> detectUpdatedCode(Path projectRoot, String target, String source)
+  /**
+   * Find the best common ancestor of two commits, like {@code git merge-base}. To bound its cost on
+   * deep history, this method gives up if the source has too many commits which are not reachable
+   * from the target.
+   *
+   * @param projectRoot A non-null directory of the project.
+   * @param maxCommits A maximum number of commits only reachable from the source, to walk.
+   * @return ID of the merge base, or empty if it is not found within given commits or beyond the
+   *     boundary of shallow clone.
+   */
+  Optional<ObjectId> findMergeBase(Path projectRoot, String target, String source, int maxCommits)
       throws IOException {
-    Optional<Path> optionalGitRoot = findGitRoot(projectRoot);
-    if (!optionalGitRoot.isPresent()) {
-      throw new IllegalArgumentException("Git repository not found at " + projectRoot);
-    }
-
-    Path gitRoot = optionalGitRoot.get();
-    try (Git git = Git.open(gitRoot.toFile())) {
-      Repository repository = git.getRepository();
-      List<DiffEntry> updated =
-          git.diff()
-              .setOldTree(prepareTreeParser(repository, target))
-              .setNewTree(prepareTreeParser(repository, source))
-              .setShowNameAndStatusOnly(true)
-              .call();
-      return updated.stream()
-          .filter(
-              diff -> {
-                return diff.getChangeType() != DiffEntry.ChangeType.DELETE;
-              })
-          .map(DiffEntry::getNewPath)
-          .filter(path -> path.endsWith(".java")) // TODO support other languages like Scala
-          .map(gitRoot::resolve);
+    Path gitRoot = findGitRoot(projectRoot);
+    try (Repository repository = openRepository(gitRoot);
+        Metrics.Timer timer = metrics.time("mergeBase");
+        RevWalk walk = new RevWalk(repository)) {
+      RevCommit targetCommit = walk.parseCommit(resolve(repository, target));
+      RevCommit sourceCommit = walk.parseCommit(resolve(repository, source));
+
+      walk.markStart(sourceCommit);
+      walk.markUninteresting(targetCommit);
+      int count = 0;
+      while (walk.next() != null) {
+        if (++count > maxCommits) {
+          return Optional.empty();
+        }
+      }
+
+      walk.reset();
+      walk.setRevFilter(RevFilter.MERGE_BASE);
+      walk.markStart(targetCommit);
+      walk.markStart(sourceCommit);
+      RevCommit mergeBase = walk.next();
+      return Optional.ofNullable(mergeBase).map(RevCommit::copy);
+    } catch (MissingObjectException e) {
+      // history is incomplete, e.g. shallow clone without shallow file
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @param projectRoot A non-null directory of the project.
+   * @param ref A non-null Git ref such as {@code "refs/heads/master"}, or ID of commit.
+   * @return A non-null ID of the commit.
+   */
+  ObjectId resolveCommit(Path projectRoot, String ref) throws IOException {
+    try (Repository repository = openRepository(findGitRoot(projectRoot));
+        RevWalk walk = new RevWalk(repository)) {
+      return walk.parseCommit(resolve(repository, ref)).copy();
+    }
+  }
+
+  /**
+   * @param projectRoot A non-null directory of the project.
+   * @return true if the ancestor is reachable from the descendant. False if the ancestor does not
+   *     exist any more, e.g. after force-push.
+   */
+  boolean isAncestor(Path projectRoot, String ancestor, String descendant) throws IOException {
+    try (Repository repository = openRepository(findGitRoot(projectRoot));
+        RevWalk walk = new RevWalk(repository)) {
+      return walk.isMergedInto(
+          walk.parseCommit(resolve(repository, ancestor)),
+          walk.parseCommit(resolve(repository, descendant)));
+    } catch (MissingObjectException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param path A non-null directory or file in the repository.
+   * @return true if the working tree has uncommitted changes under given path, including untracked
+   *     files which are not ignored.
+   */
+  boolean hasUncommittedChanges(Path path) throws IOException {
+    Path gitRoot = findGitRoot(path);
+    try (Repository repository = openRepository(gitRoot);
+        Metrics.Timer timer = metrics.time("status");
+        Git git = Git.wrap(repository)) {
+      StatusCommand status = git.status();
+      String gitPath = toGitPath(gitRoot, path);
+      if (!gitPath.isEmpty()) {
+        status.addPath(gitPath);
+      }
+      return !status.call().isClean();
     } catch (GitAPIException e) {
-      throw new IOException("Failed to execute Git API", e);
+      throw new IOException("Failed to get status of " + path, e);
+    }
+  }
+
+  /**
+   * Count changed lines of each file, as sum of deleted and inserted lines like {@code git diff
+   * --numstat}. Contents are compared only for given files, so caller should give files which have
+   * been detected as updated.
+   *
+   * @param projectRoot A non-null directory of the project.
+   * @param files A non-null collection of files in the repository.
+   * @param uncommitted A non-null {@link UncommittedChanges} to compare with target. Source is
+   *     ignored unless it is {@link UncommittedChanges#IGNORE}.
+   * @return A non-null map from given file to number of changed lines. It is empty when updated
+   *     files are given regardless of commits.
+   */
+  Map<Path, Integer> countChangedLines(
+      Path projectRoot,
+      Collection<Path> files,
+      String target,
+      String source,
+      UncommittedChanges uncommitted)
+      throws IOException {
+    if (!provider.comparesCommits() || files.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Path gitRoot = findGitRoot(projectRoot);
+    Map<Path, Integer> result = new HashMap<>();
+    try (Repository repository = openRepository(gitRoot);
+        Metrics.Timer timer = metrics.time("changedLines");
+        RevWalk walk = new RevWalk(repository)) {
+      RevCommit targetCommit = walk.parseCommit(resolve(repository, target));
+      RevCommit sourceCommit =
+          uncommitted == UncommittedChanges.IGNORE
+              ? walk.parseCommit(resolve(repository, source))
+              : null;
+      DirCache index = uncommitted == UncommittedChanges.STAGED ? repository.readDirCache() : null;
+      for (Path file : files) {
+        String path = toGitPath(gitRoot, file);
+        byte[] before = readBlob(repository, findObject(repository, targetCommit, path));
+        byte[] after;
+        if (uncommitted == UncommittedChanges.ALL) {
+          after = Files.exists(file) ? Files.readAllBytes(file) : new byte[0];
+        } else if (uncommitted == UncommittedChanges.STAGED) {
+          DirCacheEntry entry = index.getEntry(path);
+          after = readBlob(repository, entry == null ? null : entry.getObjectId());
+        } else {
+          after = readBlob(repository, findObject(repository, sourceCommit, path));
+        }
+        int changedLines = 0;
+        for (Edit edit :
+            DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, new RawText(before), new RawText(after))) {
+          changedLines += edit.getLengthA() + edit.getLengthB();
+        }
+        result.put(file, changedLines);
+      }
+    }
+    return result;
+  }
+
+  /** @return Content of the blob, or empty array if {@code id} is {@code null}. */
+  private byte[] readBlob(Repository repository, ObjectId id) throws IOException {
+    if (id == null) {
+      return new byte[0];
+    }
+    return repository.open(id, Constants.OBJ_BLOB).getBytes();
+  }
+
+  /**
+   * @param session A non-null {@link DiffSession} to share computed difference.
+   * @param projectRoot A non-null directory of the project.
+   * @param scope A non-null collection of directories to compute difference. To share computed
+   *     difference in the reactor, caller should give the same scope from every module.
+   * @param sourceRoots A non-null collection of source directories which belong to the project.
+   *     Each directory should be included in the scope.
+   * @return A non-null stream of updated .java files in given source directories.
+   */
+  Stream<Path> detectUpdatedCode(
+      DiffSession session,
+      Path projectRoot,
+      Collection<Path> scope,
+      Collection<Path> sourceRoots,
+      String target,
+      String source)
+      throws IOException {
+    return detectUpdatedCode(
+        session, projectRoot, scope, sourceRoots, target, source, UncommittedChanges.IGNORE);
+  }
+
+  /**
+   * @param session A non-null {@link DiffSession} to share computed difference.
+   * @param projectRoot A non-null directory of the project.
+   * @param scope A non-null collection of directories to compute difference. To share computed
+   *     difference in the reactor, caller should give the same scope from every module.
+   * @param sourceRoots A non-null collection of source directories which belong to the project.
+   *     Each directory should be included in the scope.
+   * @param uncommitted A non-null {@link UncommittedChanges} to compare with target. Source is
+   *     ignored unless it is {@link UncommittedChanges#IGNORE}.
+   * @return A non-null stream of updated .java files in given source directories.
+   */
+  Stream<Path> detectUpdatedCode(
+      DiffSession session,
+      Path projectRoot,
+      Collection<Path> scope,
+      Collection<Path> sourceRoots,
+      String target,
+      String source,
+      UncommittedChanges uncommitted)
+      throws IOException {
+    Path gitRoot = findGitRoot(projectRoot);
+    List<String> paths =
+        scope.stream()
+            .filter(dir -> dir.startsWith(gitRoot))
+            .map(dir -> toGitPath(gitRoot, dir))
+            .distinct()
+            .sorted()
+            .collect(Collectors.toList());
+    try (Repository repository = openRepository(gitRoot)) {
+      ObjectId targetId = resolve(repository, target);
+      ChangeSet changeSet;
+      if (uncommitted == UncommittedChanges.IGNORE) {
+        ObjectId sourceId = resolve(repository, source);
+        changeSet =
+            session.changeSet(
+                new DiffSession.Key(gitRoot, targetId, sourceId, paths),
+                timed(() -> diff(repository, gitRoot, targetId, sourceId, paths)));
+      } else {
+        changeSet =
+            session.changeSet(
+                new DiffSession.Key(gitRoot, targetId, ObjectId.zeroId(), uncommitted, paths),
+                timed(() -> diffUncommitted(repository, gitRoot, targetId, paths, uncommitted)));
+      }
+      return sourceRoots.stream().flatMap(changeSet::under).distinct();
     }
   }
 
-  private Optional<Path> findGitRoot(Path projectRoot) {
+  /**
+   * @param loader A non-null loader which computes difference.
+   * @return A non-null loader which records time to compute difference and its size.
+   */
+  private Callable<ChangeSet> timed(Callable<ChangeSet> loader) {
+    return () -> {
+      try (Metrics.Timer timer = metrics.time("diff")) {
+        ChangeSet changeSet = loader.call();
+        metrics.add(Metrics.Counter.DIFF_ENTRIES, changeSet.size());
+        return changeSet;
+      }
+    };
+  }
+
+  /**
+   * Compute updated .java files in given directories. This is the heaviest operation in this class,
+   * so caller should share its result in the reactor.
+   *
+   * @param paths A non-null list of directories relative to Git root, to limit trees to walk.
+   */
+  private ChangeSet diff(
+      Repository repository, Path gitRoot, ObjectId target, ObjectId source, List<String> paths)
+      throws IOException {
+    if (paths.isEmpty()) {
+      return new ChangeSet(gitRoot, Collections.emptyList());
+    }
+    return provider.diff(repository, gitRoot, target, source, paths);
+  }
+
+  /**
+   * Compute .java files in given directories which differ between target commit and the Git index
+   * or the working tree. Like {@code git status}, working tree files are compared with the index by
+   * their stat data first, so only files modified since they were staged are hashed.
+   *
+   * @param paths A non-null list of directories relative to Git root, to limit trees to walk.
+   * @param uncommitted {@link UncommittedChanges#STAGED} or {@link UncommittedChanges#ALL}
+   */
+  private ChangeSet diffUncommitted(
+      Repository repository,
+      Path gitRoot,
+      ObjectId target,
+      List<String> paths,
+      UncommittedChanges uncommitted)
+      throws IOException {
+    if (paths.isEmpty()) {
+      return new ChangeSet(gitRoot, Collections.emptyList());
+    }
+
+    List<String> updatedPaths = new ArrayList<>();
+    try (RevWalk revWalk = new RevWalk(repository);
+        TreeWalk walk = new TreeWalk(repository)) {
+      walk.setRecursive(true);
+      int targetTree = walk.addTree(revWalk.parseCommit(target).getTree());
+      int indexTree = walk.addTree(new DirCacheIterator(repository.readDirCache()));
+      int newTree = indexTree;
+      if (uncommitted == UncommittedChanges.ALL) {
+        FileTreeIterator workingTree = new FileTreeIterator(repository);
+        newTree = walk.addTree(workingTree);
+        // reuse object ID in the index for files whose stat data matches
+        workingTree.setDirCacheIterator(walk, indexTree);
+      }
+      walk.setFilter(AndTreeFilter.create(createFilter(paths), TreeFilter.ANY_DIFF));
+
+      while (walk.next()) {
+        if (walk.getRawMode(newTree) == 0) {
+          // deleted
+          continue;
+        }
+        if (uncommitted == UncommittedChanges.ALL
+            && walk.getTree(newTree, WorkingTreeIterator.class).isEntryIgnored()) {
+          continue;
+        }
+        if (walk.getRawMode(targetTree) == 0 || !walk.idEqual(targetTree, newTree)) {
+          updatedPaths.add(walk.getPathString());
+        }
+      }
+    }
+    return new ChangeSet(gitRoot, updatedPaths);
+  }
+
+  /**
+   * @param paths A non-null and non-empty list of directories relative to Git root.
+   * @return A filter to walk .java files in given directories.
+   */
+  static TreeFilter createFilter(List<String> paths) {
+    TreeFilter filter = PathSuffixFilter.create(".java"); // TODO support other languages like Scala
+    if (!paths.contains("")) {
+      filter = AndTreeFilter.create(PathFilterGroup.createFromStrings(paths), filter);
+    }
+    return filter;
+  }
+
+  /**
+   * @param path A path relative to Git root, or empty string to represent Git root itself.
+   * @return ID of the tree or the blob at given path, or {@code null} if no such object exists in
+   *     given commit.
+   */
+  private ObjectId findObject(Repository repository, RevCommit commit, String path)
+      throws IOException {
+    if (path.isEmpty()) {
+      return commit.getTree().getId();
+    }
+    try (TreeWalk walk = TreeWalk.forPath(repository, path, commit.getTree())) {
+      if (walk == null) {
+        return null;
+      }
+      return walk.getObjectId(0);
+    }
+  }
+
+  /**
+   * @return A path relative to Git root separated by slash, such as {@code "module/src/main/java"}.
+   *     Empty string represents Git root itself.
+   */
+  private String toGitPath(Path gitRoot, Path path) {
+    StringJoiner joiner = new StringJoiner("/");
+    for (Path name : gitRoot.relativize(path)) {
+      if (!name.toString().isEmpty()) {
+        joiner.add(name.toString());
+      }
+    }
+    return joiner.toString();
+  }
+
+  private Path findGitRoot(Path projectRoot) {
     Path path = projectRoot;
     do {
       File gitDir = new File(path.toFile(), ".git");
       if (gitDir.isDirectory()) {
-        return Optional.of(path);
+        return path;
       }
       path = path.getParent();
     } while (path != null);
-    return Optional.empty();
+    throw new IllegalArgumentException("Git repository not found at " + projectRoot);
   }
 
-  private AbstractTreeIterator prepareTreeParser(Repository repository, String ref)
-      throws IOException {
-    // from the commit we can build the tree which allows us to construct the TreeParser
-    Ref head = repository.exactRef(ref);
-    if (head == null) {
-      throw new IllegalArgumentException(ref + " does not exist in this Git repo");
+  /**
+   * Open repository via {@link RepositoryCache}, so modules in the same reactor can share opened
+   * repository and its pack files. Caller should close returned repository to release it.
+   */
+  private Repository openRepository(Path gitRoot) throws IOException {
+    File gitDir = new File(gitRoot.toFile(), Constants.DOT_GIT);
+    try (Metrics.Timer timer = metrics.time("gitOpen")) {
+      return RepositoryCache.open(RepositoryCache.FileKey.exact(gitDir, FS.DETECTED), true);
     }
-    try (RevWalk walk = new RevWalk(repository)) {
-      RevCommit commit = walk.parseCommit(head.getObjectId());
-      RevTree tree = walk.parseTree(commit.getTree().getId());
-
-      CanonicalTreeParser treeParser = new CanonicalTreeParser();
-      try (ObjectReader reader = repository.newObjectReader()) {
-        treeParser.reset(reader, tree.getId());
-      }
+  }
 
-      walk.dispose();
-      return treeParser;
+  /**
+   * @param ref A non-null Git ref such as {@code "refs/heads/master"}, or ID of commit.
+   * @return A non-null ID of the commit.
+   */
+  private ObjectId resolve(Repository repository, String ref) throws IOException {
+    if (ObjectId.isId(ref)) {
+      return ObjectId.fromString(ref);
+    }
+    metrics.increment(Metrics.Counter.REFS_RESOLVED);
+    Ref resolved;
+    try (Metrics.Timer timer = metrics.time("resolveRefs")) {
+      resolved = repository.exactRef(ref);
+    }
+    if (resolved == null || resolved.getObjectId() == null) {
+      throw new IllegalArgumentException(ref + " does not exist in this Git repo");
     }
+    return resolved.getObjectId();
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/** A {@link ChangeSetProvider} which compares trees of two commits by JGit. */
+final class JGitChangeSetProvider implements ChangeSetProvider {
+  @Override
+  public ChangeSet diff(
+      Repository repository, Path gitRoot, ObjectId target, ObjectId source, List<String> paths)
+      throws IOException {
+    try (Git git = Git.wrap(repository)) {
+      List<DiffEntry> updated =
+          git.diff()
+              .setOldTree(prepareTreeParser(repository, target))
+              .setNewTree(prepareTreeParser(repository, source))
+              .setPathFilter(GitUpdatedJavaCodeDetector.createFilter(paths))
+              .setShowNameAndStatusOnly(true)
+              .call();
+      List<String> updatedPaths =
+          updated.stream()
+              .filter(
+                  diff -> {
+                    return diff.getChangeType() != DiffEntry.ChangeType.DELETE;
+                  })
+              .map(DiffEntry::getNewPath)
+              .collect(Collectors.toList());
+      return new ChangeSet(gitRoot, updatedPaths);
+    } catch (GitAPIException e) {
+      throw new IOException("Failed to execute Git API", e);
+    }
+  }
+
+  private AbstractTreeIterator prepareTreeParser(Repository repository, ObjectId commitId)
+      throws IOException {
+    // from the commit we can build the tree which allows us to construct the TreeParser
+    try (RevWalk walk = new RevWalk(repository)) {
+      RevCommit commit = walk.parseCommit(commitId);
+      RevTree tree = walk.parseTree(commit.getTree().getId());
+
+      CanonicalTreeParser treeParser = new CanonicalTreeParser();
+      try (ObjectReader reader = repository.newObjectReader()) {
+        treeParser.reset(reader, tree.getId());
+      }
+
+      walk.dispose();
+      return treeParser;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.SessionData;
+
+/**
+ * A thread-safe cache which computes each value only once, even if several modules ask it at the
+ * same time in parallel build. Failure is not cached, so other modules can retry.
+ *
+ * @param <K> Type of key, which should be immutable.
+ * @param <V> Type of cached value.
+ */
+final class Memoizer<K, V> {
+  private final ConcurrentMap<K, Future<V>> values = new ConcurrentHashMap<>();
+
+  /** Maximum number of values to keep, to bound memory usage of long-lived instance. */
+  private final int capacity;
+
+  Memoizer() {
+    this(Integer.MAX_VALUE);
+  }
+
+  Memoizer(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Get an instance shared by every module in given Maven session, or create it if no module has
+   * created it yet. We use {@link Class} instance as key in {@link SessionData} instead of its
+   * name, to avoid sharing instance between different class loaders.
+   *
+   * @param session A non-null {@link MavenSession} which identifies current build.
+   * @param type A non-null type of the instance, which identifies it in the session.
+   * @param factory A non-null {@link Supplier} to create the instance.
+   * @return A non-null instance shared in given Maven session.
+   */
+  static <T> T sessionScoped(MavenSession session, Class<T> type, Supplier<T> factory) {
+    Objects.requireNonNull(session);
+    Objects.requireNonNull(type);
+    SessionData data = session.getRepositorySession().getData();
+    T created = factory.get();
+    if (data.set(type, null, created)) {
+      return created;
+    }
+    return type.cast(data.get(type));
+  }
+
+  /**
+   * Get cached value, or compute it if no other thread has computed it yet.
+   *
+   * @param key A non-null key which identifies the value.
+   * @param loader A non-null {@link Callable} to compute the value.
+   * @param failure A non-null message of {@link IOException} thrown when loader failed with checked
+   *     exception other than {@link IOException}.
+   * @return A value returned by loader.
+   * @throws IOException when loader failed to compute the value.
+   */
+  V get(K key, Callable<V> loader, String failure) throws IOException {
+    Objects.requireNonNull(key);
+    Objects.requireNonNull(loader);
+
+    if (values.size() >= capacity && !values.containsKey(key)) {
+      values.clear();
+    }
+    FutureTask<V> task = new FutureTask<>(loader);
+    Future<V> future = values.putIfAbsent(key, task);
+    if (future == null) {
+      future = task;
+      task.run();
+    }
+
+    try {
+      return Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      // let other modules retry, instead of sharing the failure in whole reactor
+      values.remove(key, future);
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) cause).getCause();
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(failure, cause);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * A mojo to merge XML reports generated by each shard, when the {@code spotbugs} goal splits target
+ * classes by {@code shardCount}. The first report is kept as it is, and {@code BugInstance}
+ * elements in other reports are copied into it, so {@code spotbugs:check} can read the merged
+ * report.
+ */
+@Mojo(
+    name = "merge-reports",
+    threadSafe = true,
+    requiresProject = true,
+    defaultPhase = LifecyclePhase.VERIFY)
+public class MergeReportsMojo extends AbstractMojo {
+  /**
+   * Directory which contains XML reports of each shard. Reports in sub directories are also merged.
+   */
+  @Parameter(
+      defaultValue = "${project.build.directory}/spotbugs-shards",
+      property = "incremental.merge.inputDirectory")
+  private File inputDirectory;
+
+  /** Glob pattern of file name of XML reports to merge. */
+  @Parameter(defaultValue = "spotbugsXml*.xml", property = "incremental.merge.fileName")
+  private String fileName;
+
+  /** XML report to write. */
+  @Parameter(
+      defaultValue = "${project.build.directory}/spotbugsXml.xml",
+      property = "spotbugs.xmlOutputFile")
+  private File xmlOutputFile;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    Log log = getLog();
+    Path input = inputDirectory.toPath();
+    if (!Files.isDirectory(input)) {
+      log.info("No report of shards found, reports will not be merged.");
+      return;
+    }
+    Path output = xmlOutputFile.toPath().toAbsolutePath();
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + fileName);
+    try {
+      List<Path> reports;
+      try (Stream<Path> stream = Files.walk(input)) {
+        reports =
+            stream
+                .filter(Files::isRegularFile)
+                .filter(path -> matcher.matches(path.getFileName()))
+                .filter(path -> !path.toAbsolutePath().equals(output))
+                .sorted()
+                .collect(Collectors.toList());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      if (reports.isEmpty()) {
+        log.info("No report of shards found, reports will not be merged.");
+        return;
+      }
+
+      BugCollectionXml merged = BugCollectionXml.load(reports.get(0));
+      for (Path report : reports.subList(1, reports.size())) {
+        merged.merge(BugCollectionXml.load(report));
+      }
+      merged.save(output);
+      log.info(
+          String.format(
+              "Merged %d findings of %d reports into %s",
+              merged.bugInstances().size(), reports.size(), output));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to merge reports of shards into " + output, e);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.base.Stopwatch;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of each phase and counters of one execution, to find which phase dominates execution
+ * time. Phases with the same name are accumulated, e.g. diff computed for several projects.
+ *
+ * <p>This class is thread-safe.
+ */
+final class Metrics {
+  /** Counters to explain execution time of each phase. */
+  enum Counter {
+    /** Number of Git refs resolved to commit. */
+    REFS_RESOLVED("refsResolved"),
+    /** Number of updated files found by computing difference, excluding shared result. */
+    DIFF_ENTRIES("diffEntries"),
+    /** Number of package directories listed to find class files. */
+    PACKAGES_SCANNED("packagesScanned"),
+    /** Number of class files parsed, excluding ones found in the index. */
+    CLASS_FILES_READ("classFilesRead"),
+    /** Total size of parsed class files. */
+    BYTES_READ("bytesRead"),
+    /** Number of classes in the generated list of target classes. */
+    CLASSES_EMITTED("classesEmitted");
+
+    private final String key;
+
+    Counter(String key) {
+      this.key = key;
+    }
+  }
+
+  private final Map<String, Long> phases = new LinkedHashMap<>();
+  private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+
+  Metrics() {
+    for (Counter counter : Counter.values()) {
+      counters.put(counter, new LongAdder());
+    }
+  }
+
+  /**
+   * Start measuring given phase. Caller should close returned timer when the phase finishes.
+   *
+   * @param phase A non-null name of phase such as {@code "diff"}.
+   * @return A non-null timer which records elapsed time when it is closed.
+   */
+  Timer time(String phase) {
+    return new Timer(Objects.requireNonNull(phase));
+  }
+
+  void increment(Counter counter) {
+    counters.get(counter).increment();
+  }
+
+  void add(Counter counter, long value) {
+    counters.get(counter).add(value);
+  }
+
+  long get(Counter counter) {
+    return counters.get(counter).sum();
+  }
+
+  /** @return Elapsed milliseconds of given phase, or {@code 0} if it has not been measured. */
+  synchronized long elapsedMillis(String phase) {
+    return TimeUnit.NANOSECONDS.toMillis(phases.getOrDefault(phase, 0L));
+  }
+
+  private synchronized void record(String phase, long nanos) {
+    phases.merge(phase, nanos, Long::sum);
+  }
+
+  /** @return A non-null one line summary for build log. */
+  synchronized String summary() {
+    StringJoiner joiner = new StringJoiner(", ");
+    phases.keySet().forEach(phase -> joiner.add(phase + " " + elapsedMillis(phase) + " ms"));
+    counters.forEach((counter, value) -> joiner.add(counter.key + " " + value.sum()));
+    return joiner.toString();
+  }
+
+  /**
+   * @param project A non-null identifier of the project such as {@code "groupId:artifactId"}.
+   * @return A non-null JSON object which contains elapsed milliseconds and counters.
+   */
+  synchronized String toJson(String project) {
+    StringJoiner phaseJson = new StringJoiner(",\n", "{\n", "\n  }");
+    phases
+        .keySet()
+        .forEach(phase -> phaseJson.add("    " + quote(phase) + ": " + elapsedMillis(phase)));
+    StringJoiner counterJson = new StringJoiner(",\n", "{\n", "\n  }");
+    counters.forEach(
+        (counter, value) -> counterJson.add("    " + quote(counter.key) + ": " + value.sum()));
+    return "{\n"
+        + "  \"project\": "
+        + quote(project)
+        + ",\n  \"phases\": "
+        + phaseJson
+        + ",\n  \"counters\": "
+        + counterJson
+        + "\n}\n";
+  }
+
+  /**
+   * Write metrics as JSON to given file, replacing the result of the previous build.
+   *
+   * @param file A non-null path of JSON file.
+   * @param project A non-null identifier of the project such as {@code "groupId:artifactId"}.
+   * @throws IOException when failed to write the file
+   */
+  void save(Path file, String project) throws IOException {
+    Path absolutePath = file.toAbsolutePath();
+    Files.createDirectories(absolutePath.getParent());
+    Path temp =
+        Files.createTempFile(
+            absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temp, toJson(project).getBytes(StandardCharsets.UTF_8));
+      Files.move(
+          temp, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static String quote(String value) {
+    StringBuilder builder = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.append('"').toString();
+  }
+
+  /** A timer of one phase, which should be closed by try-with-resources statement. */
+  final class Timer implements AutoCloseable {
+    private final String phase;
+    private final Stopwatch stopwatch = Stopwatch.createStarted();
+
+    private Timer(String phase) {
+      this.phase = phase;
+    }
+
+    @Override
+    public void close() {
+      if (stopwatch.isRunning()) {
+        record(phase, stopwatch.stop().elapsed(TimeUnit.NANOSECONDS));
+      }
+    }
+  }
+}
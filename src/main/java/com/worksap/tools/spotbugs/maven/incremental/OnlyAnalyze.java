@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Utilities to encode target classes as value of {@code -onlyAnalyze} option of SpotBugs. SpotBugs
+ * accepts package wildcard such as {@code "com.worksap.*"}, and option file such as {@code
+ * "@/path/to/file"} which contains option value.
+ */
+final class OnlyAnalyze {
+  private OnlyAnalyze() {}
+
+  /**
+   * Replace classes with package wildcard, if every class in the package is a target.
+   *
+   * @param outputDir A non-null output directory which contains class files.
+   * @param targetClasses A non-null collection of class names such as {@code
+   *     "com.worksap.ClassName$1"}.
+   * @return A non-null list of class names and package wildcards, keeping order of given classes.
+   */
+  static List<String> collapse(Path outputDir, Collection<String> targetClasses) {
+    Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(targetClasses);
+
+    // Key: package name such as "com.worksap", Value: target classes in the package
+    Map<String, Set<String>> packages = new LinkedHashMap<>();
+    for (String className : targetClasses) {
+      int lastDot = className.lastIndexOf('.');
+      String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+      packages.computeIfAbsent(packageName, key -> new LinkedHashSet<>()).add(className);
+    }
+
+    List<String> result = new ArrayList<>();
+    packages.forEach(
+        (packageName, classes) -> {
+          // default package has no wildcard representation
+          if (!packageName.isEmpty() && classes.size() == countClassFiles(outputDir, packageName)) {
+            result.add(packageName + ".*");
+          } else {
+            result.addAll(classes);
+          }
+        });
+    return result;
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @return A number of class files in the output directory, including sub directories.
+   * @throws IOException when failed to list class files
+   */
+  static long countClassFiles(Path outputDir) throws IOException {
+    if (!Files.isDirectory(outputDir)) {
+      return 0;
+    }
+    try (Stream<Path> stream = Files.walk(outputDir)) {
+      return stream.filter(path -> path.toString().endsWith(".class")).count();
+    }
+  }
+
+  /**
+   * Write given value to option file, which is expanded by SpotBugs command line.
+   *
+   * @param file A non-null path of option file.
+   * @param value A non-null value of {@code -onlyAnalyze} option.
+   * @return A non-null argument which refers the option file, such as {@code "@/path/to/file"}.
+   * @throws IOException when failed to write the file
+   */
+  static String writeOptionFile(Path file, String value) throws IOException {
+    Path absolutePath = file.toAbsolutePath();
+    Files.createDirectories(absolutePath.getParent());
+    Files.write(absolutePath, (value + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    return "@" + absolutePath;
+  }
+
+  private static int countClassFiles(Path outputDir, String packageName) {
+    File packageDir = outputDir.resolve(packageName.replace('.', File.separatorChar)).toFile();
+    String[] classFiles = packageDir.list((dir, name) -> name.endsWith(".class"));
+    return classFiles == null ? 0 : classFiles.length;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/**
+ * A mojo to start computing difference between target and source in background, at the beginning of
+ * the build. Then JGit works in parallel with compilation and tests, and the {@code spotbugs} goal
+ * just waits for the computed difference. It accepts the same parameters with the {@code spotbugs}
+ * goal, and they should have the same value.
+ */
+@Mojo(
+    name = "prepare",
+    threadSafe = true,
+    requiresProject = true,
+    defaultPhase = LifecyclePhase.INITIALIZE)
+public class PrepareMojo extends SpotBugsMojo {
+  @Override
+  public void execute() throws MojoExecutionException {
+    prepare();
+  }
+}
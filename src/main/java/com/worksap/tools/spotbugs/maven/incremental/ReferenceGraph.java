@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable graph which maps each class to classes referring it, such as callers, implementers
+ * and subclasses. Each class is identified by an int, and dependents are stored in one int array
+ * sorted by the referred class, so the graph stays compact even if it has many classes.
+ *
+ * <p>Classes are identified by internal name such as {@code "com/worksap/ClassName"}.
+ */
+final class ReferenceGraph {
+  private final String[] names;
+  private final Map<String, Integer> ids;
+
+  /** Dependents of class {@code i} are stored in {@code dependents[offsets[i]]} and following. */
+  private final int[] offsets;
+
+  private final int[] dependents;
+
+  private ReferenceGraph(
+      String[] names, Map<String, Integer> ids, int[] offsets, int[] dependents) {
+    this.names = names;
+    this.ids = ids;
+    this.offsets = offsets;
+    this.dependents = dependents;
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /** @return A number of classes in this graph, including classes which are only referred. */
+  int size() {
+    return names.length;
+  }
+
+  /**
+   * @param classNames A non-null collection of internal name of classes.
+   * @param depth A number of steps to follow references. {@code 1} means direct dependents only.
+   * @return A non-null set of internal name of classes which refer given classes directly or
+   *     indirectly within given depth, excluding given classes.
+   */
+  Set<String> dependentsOf(Collection<String> classNames, int depth) {
+    Objects.requireNonNull(classNames);
+    if (depth < 0) {
+      throw new IllegalArgumentException("depth should not be negative but it is " + depth);
+    }
+
+    BitSet visited = new BitSet(names.length);
+    int[] queue = new int[names.length];
+    int tail = 0;
+    for (String className : classNames) {
+      Integer id = ids.get(className);
+      if (id != null && !visited.get(id)) {
+        visited.set(id);
+        queue[tail++] = id;
+      }
+    }
+
+    int head = 0;
+    int seeds = tail;
+    for (int step = 0; step < depth && head < tail; ++step) {
+      int end = tail;
+      for (; head < end; ++head) {
+        int id = queue[head];
+        for (int i = offsets[id]; i < offsets[id + 1]; ++i) {
+          int dependent = dependents[i];
+          if (!visited.get(dependent)) {
+            visited.set(dependent);
+            queue[tail++] = dependent;
+          }
+        }
+      }
+    }
+
+    Set<String> result = new TreeSet<>();
+    for (int i = seeds; i < tail; ++i) {
+      result.add(names[queue[i]]);
+    }
+    return result;
+  }
+
+  /**
+   * Find dependents in the union of given graphs, such as graphs of modules which depend on each
+   * other. Classes are matched by name across graphs.
+   *
+   * @param graphs A non-null collection of graphs.
+   * @param classNames A non-null collection of internal name of classes.
+   * @param depth A number of steps to follow references. {@code 1} means direct dependents only.
+   * @return A non-null set of internal name of classes which refer given classes directly or
+   *     indirectly within given depth, excluding given classes.
+   */
+  static Set<String> dependentsOf(
+      Collection<ReferenceGraph> graphs, Collection<String> classNames, int depth) {
+    Objects.requireNonNull(graphs);
+    Objects.requireNonNull(classNames);
+    if (graphs.size() == 1) {
+      return graphs.iterator().next().dependentsOf(classNames, depth);
+    }
+    if (depth < 0) {
+      throw new IllegalArgumentException("depth should not be negative but it is " + depth);
+    }
+
+    Set<String> visited = new HashSet<>(classNames);
+    List<String> queue = new ArrayList<>(visited);
+    Set<String> result = new TreeSet<>();
+    for (int step = 0; step < depth && !queue.isEmpty(); ++step) {
+      List<String> next = new ArrayList<>();
+      for (String className : queue) {
+        for (ReferenceGraph graph : graphs) {
+          Integer id = graph.ids.get(className);
+          if (id == null) {
+            continue;
+          }
+          for (int i = graph.offsets[id]; i < graph.offsets[id + 1]; ++i) {
+            String dependent = graph.names[graph.dependents[i]];
+            if (visited.add(dependent)) {
+              next.add(dependent);
+              result.add(dependent);
+            }
+          }
+        }
+      }
+      queue = next;
+    }
+    return result;
+  }
+
+  /** A builder which collects references from each class. This class is not thread-safe. */
+  static final class Builder {
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    /** Pairs of referring class and referred class. */
+    private int[] from = new int[1024];
+
+    private int[] to = new int[1024];
+    private int edges;
+
+    private Builder() {}
+
+    /**
+     * @param className A non-null internal name of class.
+     * @return An id of given class in the graph to build.
+     */
+    int id(String className) {
+      Objects.requireNonNull(className);
+      return ids.computeIfAbsent(
+          className,
+          name -> {
+            names.add(name);
+            return names.size() - 1;
+          });
+    }
+
+    /**
+     * @param dependent An id of referring class.
+     * @param referred An id of referred class.
+     * @return this builder
+     */
+    Builder addReference(int dependent, int referred) {
+      if (edges == from.length) {
+        from = Arrays.copyOf(from, edges * 2);
+        to = Arrays.copyOf(to, edges * 2);
+      }
+      from[edges] = dependent;
+      to[edges] = referred;
+      ++edges;
+      return this;
+    }
+
+    ReferenceGraph build() {
+      int size = names.size();
+      int[] offsets = new int[size + 1];
+      for (int i = 0; i < edges; ++i) {
+        ++offsets[to[i] + 1];
+      }
+      for (int i = 0; i < size; ++i) {
+        offsets[i + 1] += offsets[i];
+      }
+      int[] next = Arrays.copyOf(offsets, size);
+      int[] dependents = new int[edges];
+      for (int i = 0; i < edges; ++i) {
+        dependents[next[to[i]]++] = from[i];
+      }
+      return new ReferenceGraph(
+          names.toArray(new String[size]), new HashMap<>(ids), offsets, dependents);
+    }
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An index which maps each class file in an output directory to classes referred from it. Like
+ * {@link ClassIndex}, each entry is valid while size and last modified time of the class file are
+ * not changed, so following builds parse only recompiled class files. Class names are stored in a
+ * symbol table, and each entry holds ids in the table.
+ *
+ * <p>This class is not thread-safe.
+ */
+class ReferenceIndex {
+  private static final int MAGIC = 0x49415249; // "IARI"
+  private static final int VERSION = 1;
+
+  /** File to persist this index, or {@code null} if this index is in-memory only. */
+  private final Path file;
+
+  private final List<String> symbols;
+  private final Map<String, Integer> symbolIds;
+
+  /**
+   * Key: path of class file relative to output directory, such as {@code
+   * "com/worksap/tools/ClassName.class"}
+   */
+  private final Map<String, Entry> entries;
+
+  private boolean updated;
+
+  private ReferenceIndex(Path file, List<String> symbols, Map<String, Entry> entries) {
+    this.file = file;
+    this.symbols = symbols;
+    this.symbolIds = new HashMap<>();
+    for (int i = 0; i < symbols.size(); ++i) {
+      symbolIds.put(symbols.get(i), i);
+    }
+    this.entries = entries;
+  }
+
+  /** @return A non-null index which is not persisted. */
+  static ReferenceIndex inMemory() {
+    return new ReferenceIndex(null, new ArrayList<>(), new HashMap<>());
+  }
+
+  /**
+   * @return A path of index file for given output directory, such as {@code
+   *     "target/incremental-analysis/classes.refs"} for {@code "target/classes"}.
+   */
+  static Path indexFileFor(Path outputDir) {
+    return outputDir
+        .resolveSibling("incremental-analysis")
+        .resolve(outputDir.getFileName() + ".refs");
+  }
+
+  /**
+   * Load index from given file. If the file does not exist or is broken, this method returns an
+   * empty index which will be saved to the file.
+   *
+   * @param file A non-null path of index file.
+   * @return A non-null index.
+   */
+  static ReferenceIndex load(Path file) {
+    Objects.requireNonNull(file);
+    List<String> symbols = new ArrayList<>();
+    Map<String, Entry> entries = new HashMap<>();
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+        int symbolSize = input.readInt();
+        for (int i = 0; i < symbolSize; ++i) {
+          symbols.add(input.readUTF());
+        }
+        int size = input.readInt();
+        for (int i = 0; i < size; ++i) {
+          String classFile = input.readUTF();
+          long length = input.readLong();
+          long lastModified = input.readLong();
+          int className = input.readInt();
+          int[] referredClasses = new int[input.readInt()];
+          for (int j = 0; j < referredClasses.length; ++j) {
+            referredClasses[j] = input.readInt();
+          }
+          entries.put(classFile, new Entry(length, lastModified, className, referredClasses));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // this is the first build, or output directory has been cleaned
+    } catch (IOException e) {
+      // broken index is same with no index, we just need to rebuild it
+      symbols.clear();
+      entries.clear();
+    }
+    return new ReferenceIndex(file, symbols, entries);
+  }
+
+  /**
+   * Synchronize this index with class files in given directory. Class files which are not changed
+   * since the last build are not parsed.
+   *
+   * @param outputDir A non-null output directory which contains class files.
+   * @throws IOException when failed to list class files
+   */
+  void update(Path outputDir) throws IOException {
+    update(outputDir, new Metrics());
+  }
+
+  /**
+   * Synchronize this index with class files in given directory. Class files which are not changed
+   * since the last build are not parsed.
+   *
+   * @param outputDir A non-null output directory which contains class files.
+   * @param metrics A non-null {@link Metrics} to record parsed class files.
+   * @throws IOException when failed to list class files
+   */
+  void update(Path outputDir, Metrics metrics) throws IOException {
+    Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(metrics);
+    Set<String> existing = new HashSet<>();
+    try (Stream<Path> stream = Files.walk(outputDir)) {
+      List<Path> classFiles =
+          stream.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+      for (Path classFile : classFiles) {
+        String key = toKey(outputDir.relativize(classFile));
+        existing.add(key);
+        BasicFileAttributes attributes = Files.readAttributes(classFile, BasicFileAttributes.class);
+        Entry entry = entries.get(key);
+        if (entry != null
+            && entry.length == attributes.size()
+            && entry.lastModified == attributes.lastModifiedTime().toMillis()) {
+          continue;
+        }
+        ClassFileReader.References references = loadReferences(classFile);
+        metrics.increment(Metrics.Counter.CLASS_FILES_READ);
+        metrics.add(Metrics.Counter.BYTES_READ, attributes.size());
+        int[] referredClasses =
+            references.getReferredClasses().stream().mapToInt(this::symbol).toArray();
+        entries.put(
+            key,
+            new Entry(
+                attributes.size(),
+                attributes.lastModifiedTime().toMillis(),
+                symbol(references.getClassName()),
+                referredClasses));
+        updated = true;
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    updated |= entries.keySet().retainAll(existing);
+  }
+
+  /**
+   * Parse .class file to load classes referred from it.
+   *
+   * @param classFile A non-null {@link Path} which identifies target .class file.
+   * @return A non-null {@link ClassFileReader.References} loaded from the class file.
+   */
+  @VisibleForTesting
+  ClassFileReader.References loadReferences(Path classFile) throws IOException {
+    return ClassFileReader.readReferences(classFile);
+  }
+
+  /**
+   * Add references from each class in this index to given builder.
+   *
+   * @param builder A non-null builder of {@link ReferenceGraph}.
+   */
+  void addTo(ReferenceGraph.Builder builder) {
+    Objects.requireNonNull(builder);
+    int[] ids = new int[symbols.size()];
+    Arrays.fill(ids, -1);
+    for (Entry entry : entries.values()) {
+      int dependent = translate(ids, entry.className, builder);
+      for (int referred : entry.referredClasses) {
+        builder.addReference(dependent, translate(ids, referred, builder));
+      }
+    }
+  }
+
+  /** @return A non-null set of internal name of classes in the output directory. */
+  Set<String> classNames() {
+    return entries.values().stream()
+        .map(entry -> symbols.get(entry.className))
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Save this index to file, if it has been updated. Symbols which are no longer referred are
+   * dropped.
+   *
+   * @throws IOException when failed to write the file
+   */
+  void save() throws IOException {
+    if (file == null || !updated) {
+      return;
+    }
+    int[] ids = new int[symbols.size()];
+    Arrays.fill(ids, -1);
+    List<String> used = new ArrayList<>();
+    Map<String, Entry> snapshot = new TreeMap<>(entries);
+    for (Entry entry : snapshot.values()) {
+      compact(ids, entry.className, used);
+      for (int referred : entry.referredClasses) {
+        compact(ids, referred, used);
+      }
+    }
+
+    Files.createDirectories(file.getParent());
+    Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(used.size());
+        for (String symbol : used) {
+          output.writeUTF(symbol);
+        }
+        output.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue().length);
+          output.writeLong(entry.getValue().lastModified);
+          output.writeInt(ids[entry.getValue().className]);
+          output.writeInt(entry.getValue().referredClasses.length);
+          for (int referred : entry.getValue().referredClasses) {
+            output.writeInt(ids[referred]);
+          }
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      updated = false;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private int symbol(String name) {
+    return symbolIds.computeIfAbsent(
+        name,
+        key -> {
+          symbols.add(key);
+          return symbols.size() - 1;
+        });
+  }
+
+  private int translate(int[] ids, int symbol, ReferenceGraph.Builder builder) {
+    if (ids[symbol] < 0) {
+      ids[symbol] = builder.id(symbols.get(symbol));
+    }
+    return ids[symbol];
+  }
+
+  private void compact(int[] ids, int symbol, List<String> used) {
+    if (ids[symbol] < 0) {
+      ids[symbol] = used.size();
+      used.add(symbols.get(symbol));
+    }
+  }
+
+  private static String toKey(Path relativePath) {
+    return relativePath.toString().replace(relativePath.getFileSystem().getSeparator(), "/");
+  }
+
+  private static final class Entry {
+    private final long length;
+    private final long lastModified;
+    private final int className;
+    private final int[] referredClasses;
+
+    private Entry(long length, long lastModified, int className, int[] referredClasses) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.className = className;
+      this.referredClasses = referredClasses;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * A session-scoped cache of class references in each output directory, shared by every module in
+ * one reactor build like {@link DiffSession}. Each output directory is scanned and its {@link
+ * ReferenceGraph} is built only once per build, so a module reuses graphs of its upstream modules
+ * instead of scanning them again.
+ *
+ * <p>Caller should ask an output directory only after its module has been compiled, because the
+ * graph is not updated in the same build.
+ */
+final class ReferenceSession {
+  /** Key: absolute path of output directory. */
+  private final Memoizer<Path, Module> modules = new Memoizer<>();
+
+  ReferenceSession() {}
+
+  /**
+   * @param session A non-null {@link MavenSession} which identifies current build.
+   * @return A non-null {@link ReferenceSession} shared in given Maven session.
+   */
+  static ReferenceSession of(MavenSession session) {
+    return Memoizer.sessionScoped(session, ReferenceSession.class, ReferenceSession::new);
+  }
+
+  /**
+   * Get cached references in given output directory, or build them if no other thread has built
+   * them yet.
+   *
+   * @param outputDir A non-null absolute path of output directory.
+   * @param loader A non-null {@link Callable} which returns {@link ReferenceIndex} synchronized
+   *     with the output directory.
+   * @return A non-null {@link Module}.
+   * @throws IOException when loader failed to load the index.
+   */
+  Module module(Path outputDir, Callable<ReferenceIndex> loader) throws IOException {
+    Objects.requireNonNull(loader);
+    return modules.get(
+        outputDir,
+        () -> {
+          ReferenceIndex index = loader.call();
+          ReferenceGraph.Builder builder = ReferenceGraph.builder();
+          index.addTo(builder);
+          return new Module(builder.build(), index.classNames());
+        },
+        "Failed to load index of class references");
+  }
+
+  /** References from classes in one output directory. */
+  static final class Module {
+    private final ReferenceGraph graph;
+    private final Set<String> classNames;
+
+    private Module(ReferenceGraph graph, Set<String> classNames) {
+      this.graph = graph;
+      this.classNames = Collections.unmodifiableSet(classNames);
+    }
+
+    /** @return A non-null graph of references from classes in the output directory. */
+    ReferenceGraph getGraph() {
+      return graph;
+    }
+
+    /** @return A non-null set of internal name of classes in the output directory. */
+    Set<String> getClassNames() {
+      return classNames;
+    }
+  }
+}
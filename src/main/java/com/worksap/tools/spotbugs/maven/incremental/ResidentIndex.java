@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * An in-memory {@link ClassIndex} and result of {@link ClassSearcher} for an output directory,
+ * which lives as long as the class loader of this plugin. It is useful in long-lived JVM such as
+ * Maven daemon, which runs builds repeatedly with the same plugin realm.
+ *
+ * <p>Changes in the output directory are tracked by {@link WatchService}, and cached result of each
+ * package is dropped when its directory is changed. Last modified time of package directory is also
+ * checked, because events are delivered asynchronously. Polling based watch service is not used,
+ * because it may miss changes for several seconds.
+ *
+ * <p>This class is thread-safe.
+ */
+final class ResidentIndex {
+  private static final ConcurrentMap<Path, ResidentIndex> INSTANCES = new ConcurrentHashMap<>();
+
+  private final Path outputDir;
+  private final String separator;
+  private final ClassIndex index;
+  private final WatchService watcher;
+
+  /** Watched directories, including the output directory itself. */
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+
+  /** Key: relative package path with trailing separator, such as {@code "com/worksap/tools/"} */
+  private final Map<String, PackageResult> results = new HashMap<>();
+
+  private boolean valid = true;
+
+  private ResidentIndex(Path outputDir, ClassIndex index) throws IOException {
+    this.outputDir = outputDir;
+    this.separator = outputDir.getFileSystem().getSeparator();
+    this.index = index;
+    this.watcher = outputDir.getFileSystem().newWatchService();
+    try {
+      if (watcher.getClass().getSimpleName().startsWith("Polling")) {
+        throw new IOException("Native watch service is not available");
+      }
+      registerAll(outputDir);
+    } catch (IOException | RuntimeException e) {
+      watcher.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Get resident index for given output directory, or create it if it does not exist yet.
+   *
+   * @param outputDir A non-null output directory which contains class files.
+   * @param indexLoader A non-null supplier of {@link ClassIndex} to start with, such as one
+   *     persisted by the previous build.
+   * @return A resident index, or empty if the directory cannot be watched.
+   */
+  static Optional<ResidentIndex> of(Path outputDir, Supplier<ClassIndex> indexLoader) {
+    Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(indexLoader);
+    Path key = outputDir.toAbsolutePath().normalize();
+    ResidentIndex resident = INSTANCES.get(key);
+    if (resident != null) {
+      if (resident.refresh()) {
+        return Optional.of(resident);
+      }
+      // output directory has been cleaned
+      INSTANCES.remove(key, resident);
+      resident.close();
+    }
+    if (!Files.isDirectory(key)) {
+      return Optional.empty();
+    }
+
+    ResidentIndex created;
+    try {
+      created = new ResidentIndex(key, indexLoader.get());
+    } catch (IOException | UnsupportedOperationException e) {
+      return Optional.empty();
+    }
+    ResidentIndex existing = INSTANCES.putIfAbsent(key, created);
+    if (existing != null) {
+      created.close();
+      return Optional.of(existing);
+    }
+    return Optional.of(created);
+  }
+
+  /** @return A non-null index which is shared by builds in this JVM. */
+  ClassIndex index() {
+    return index;
+  }
+
+  /**
+   * Find classes compiled from given sources. Packages whose result is cached and not changed since
+   * then are not searched again.
+   *
+   * @param relativeSources A non-null collection of relative .java file path such as {@code
+   *     "com/worksap/tools/ClassName.java"}
+   * @param searcher A non-null function which searches classes compiled from given sources, like
+   *     {@link ClassSearcher#search(Stream)}.
+   * @return A non-null list of class names, in the same order with {@link
+   *     ClassSearcher#search(Stream)}.
+   */
+  synchronized List<String> search(
+      Collection<String> relativeSources, Function<Stream<String>, Stream<String>> searcher) {
+    Objects.requireNonNull(relativeSources);
+    Objects.requireNonNull(searcher);
+    refresh();
+
+    Map<String, Set<String>> sourcesByPackage = new TreeMap<>();
+    for (String source : relativeSources) {
+      sourcesByPackage
+          .computeIfAbsent(FilenameUtils.getPath(source), key -> new TreeSet<>())
+          .add(source);
+    }
+
+    List<String> missed = new ArrayList<>();
+    Map<String, Long> lastModified = new HashMap<>();
+    sourcesByPackage.forEach(
+        (packagePath, sources) -> {
+          long modified = lastModifiedOf(packagePath);
+          PackageResult cached = results.get(packagePath);
+          if (cached == null || !cached.matches(sources, modified)) {
+            missed.addAll(sources);
+            lastModified.put(packagePath, modified);
+          }
+        });
+
+    if (!missed.isEmpty()) {
+      Map<String, List<String>> found =
+          searcher
+              .apply(missed.stream())
+              .collect(Collectors.groupingBy(this::packagePathOf, Collectors.toList()));
+      lastModified.forEach(
+          (packagePath, modified) ->
+              results.put(
+                  packagePath,
+                  new PackageResult(
+                      sourcesByPackage.get(packagePath),
+                      modified,
+                      found.getOrDefault(packagePath, new ArrayList<>()))));
+    }
+
+    return sourcesByPackage.keySet().stream()
+        .flatMap(packagePath -> results.get(packagePath).classes.stream())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Apply events delivered since the last call.
+   *
+   * @return false if the output directory is no longer watched
+   */
+  private synchronized boolean refresh() {
+    if (!valid) {
+      return false;
+    }
+    WatchKey key;
+    while ((key = watcher.poll()) != null) {
+      Path dir = directories.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          results.clear();
+          continue;
+        }
+        Path child = dir.resolve((Path) event.context());
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+          try {
+            registerAll(child);
+          } catch (IOException e) {
+            valid = false;
+          }
+        }
+        invalidate(dir, false);
+      }
+      if (!key.reset()) {
+        directories.remove(key);
+        if (dir.equals(outputDir)) {
+          valid = false;
+        } else {
+          invalidate(dir, true);
+        }
+      }
+    }
+    return valid;
+  }
+
+  private void registerAll(Path start) throws IOException {
+    Files.walkFileTree(
+        start,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            WatchKey key =
+                dir.register(
+                    watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            directories.put(key, dir);
+            // files created before registration have no event
+            invalidate(dir, false);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  /**
+   * @param dir A non-null directory in the output directory.
+   * @param recursive true to drop result of sub packages too
+   */
+  private void invalidate(Path dir, boolean recursive) {
+    String packagePath = outputDir.equals(dir) ? "" : outputDir.relativize(dir) + separator;
+    if (recursive) {
+      results.keySet().removeIf(key -> key.startsWith(packagePath));
+    } else {
+      results.remove(packagePath);
+    }
+  }
+
+  private long lastModifiedOf(String packagePath) {
+    try {
+      return Files.getLastModifiedTime(outputDir.resolve(packagePath)).to(TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      return -1L;
+    }
+  }
+
+  /** @return A relative package path of given class such as {@code "com/worksap/tools/"} */
+  private String packagePathOf(String className) {
+    int lastDot = className.lastIndexOf('.');
+    return lastDot < 0 ? "" : className.substring(0, lastDot + 1).replace(".", separator);
+  }
+
+  private synchronized void close() {
+    valid = false;
+    try {
+      watcher.close();
+    } catch (IOException e) {
+      // nothing to do, we just stop watching
+    }
+  }
+
+  /** Forget all resident indexes, mainly for test. */
+  static void clear() {
+    INSTANCES.values().forEach(ResidentIndex::close);
+    INSTANCES.clear();
+  }
+
+  /** Classes found in a package, and the condition to reuse them. */
+  private static final class PackageResult {
+    private final Set<String> sources;
+    private final long lastModified;
+    private final List<String> classes;
+
+    private PackageResult(Set<String> sources, long lastModified, List<String> classes) {
+      this.sources = sources;
+      this.lastModified = lastModified;
+      this.classes = classes;
+    }
+
+    private boolean matches(Set<String> sources, long lastModified) {
+      return this.sources.equals(sources) && this.lastModified == lastModified;
+    }
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A mojo to select tests affected by updated code, and set them to the {@code test} property of
+ * maven-surefire-plugin. Selected tests are updated test classes, and test classes which refer
+ * updated classes in this project or in its upstream projects in the reactor directly or
+ * indirectly. References are read from class files, so execute this mojo after test classes are
+ * compiled.
+ *
+ * <p>If the selection is uncertain, e.g. resources or {@code pom.xml} have been updated, or nothing
+ * is compared because source is the same commit with target, this mojo sets no property so every
+ * test runs.
+ */
+@Mojo(
+    name = "select-tests",
+    threadSafe = true,
+    requiresProject = true,
+    defaultPhase = LifecyclePhase.PROCESS_TEST_CLASSES)
+public class SelectTestsMojo extends AbstractMojo {
+  /**
+   * Test pattern which matches no test class, because it is not a valid Java class name. We avoid
+   * properties like {@code skipTests} which also skip integration tests run by failsafe.
+   */
+  private static final String NO_TEST = "no-test-affected-by-updated-code";
+
+  @Parameter(property = "project")
+  private MavenProject project;
+
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
+  /** Name of the property to set selected test classes. */
+  @Parameter(defaultValue = "test")
+  private String propertyToTest;
+
+  /** Git ref which has updated code. Same with the {@code spotbugs} goal. */
+  @Parameter(defaultValue = Constants.HEAD, property = "incremental.spotbugs.source")
+  private String source;
+
+  /** Git ref to compare with source. Same with the {@code spotbugs} goal. */
+  @Parameter(defaultValue = "refs/heads/master", property = "incremental.spotbugs.target")
+  private String target;
+
+  /**
+   * Flag to compare source with the merge base of target and source. Same with the {@code spotbugs}
+   * goal.
+   */
+  @Parameter(defaultValue = "false", property = "incremental.spotbugs.mergeBase")
+  private boolean mergeBase;
+
+  /**
+   * Maximum number of commits only reachable from source, to walk when this plugin finds the merge
+   * base. Same with the {@code spotbugs} goal.
+   */
+  @Parameter(defaultValue = "10000", property = "incremental.spotbugs.mergeBaseMaxCommits")
+  private int mergeBaseMaxCommits;
+
+  /**
+   * Uncommitted changes to select tests for. Tests run against the working tree, so only {@code
+   * ALL} selects tests when the working tree has uncommitted changes. Otherwise every test runs.
+   */
+  @Parameter(defaultValue = "IGNORE", property = "incremental.spotbugs.uncommitted")
+  private UncommittedChanges uncommitted;
+
+  /** Flag to skip execution of this goal. */
+  @Parameter(defaultValue = "false", property = "incremental.tests.skip")
+  private boolean skip;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    Log log = getLog();
+    if (skip) {
+      log.info("Skip selecting tests affected by updated code.");
+      return;
+    }
+    Path testOutputDirectory =
+        Paths.get(project.getBuild().getTestOutputDirectory()).toAbsolutePath();
+    if (!Files.isDirectory(testOutputDirectory)) {
+      log.info("No test class found, tests will not be selected.");
+      return;
+    }
+
+    Optional<Set<String>> selected;
+    try {
+      selected = selectTests(log, new GitUpdatedJavaCodeDetector(), testOutputDirectory);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to select tests affected by updated code", e);
+    }
+    if (!selected.isPresent()) {
+      log.info("Every test will run.");
+    } else if (selected.get().isEmpty()) {
+      project.getModel().addProperty(propertyToTest, NO_TEST);
+      project.getModel().addProperty("surefire.failIfNoSpecifiedTests", "false");
+      log.info("No test is affected by updated code, no unit test will run.");
+    } else {
+      project.getModel().addProperty(propertyToTest, String.join(",", selected.get()));
+      // selected class may be excluded from tests, e.g. abstract class
+      project.getModel().addProperty("surefire.failIfNoSpecifiedTests", "false");
+      selected.get().forEach(testClass -> log.debug("Selected test: " + testClass));
+      log.info(String.format("Selected %d tests affected by updated code.", selected.get().size()));
+    }
+  }
+
+  /**
+   * @param testOutputDirectory A non-null directory which contains test classes of this project.
+   * @return A non-null set of name of selected test classes, or empty if the selection is
+   *     uncertain.
+   */
+  private Optional<Set<String>> selectTests(
+      Log log, GitUpdatedJavaCodeDetector detector, Path testOutputDirectory) throws IOException {
+    Path basedir = project.getBasedir().toPath();
+    boolean dirty = detector.hasUncommittedChanges(basedir);
+    if (dirty && uncommitted != UncommittedChanges.ALL) {
+      log.info("Working tree has uncommitted changes, which may affect any test.");
+      return Optional.empty();
+    }
+    // uncommitted changes are compared with target or the merge base of target and HEAD
+    String head = uncommitted == UncommittedChanges.ALL ? Constants.HEAD : source;
+    String base = target;
+    if (mergeBase) {
+      Optional<ObjectId> found = detector.findMergeBase(basedir, target, head, mergeBaseMaxCommits);
+      if (!found.isPresent()) {
+        log.warn(String.format("Merge base of %s and %s is not found.", target, head));
+        return Optional.empty();
+      }
+      base = found.get().name();
+    }
+    if (!dirty
+        && detector.resolveCommit(basedir, base).equals(detector.resolveCommit(basedir, head))) {
+      log.info(String.format("%s and %s are the same commit, nothing to compare.", base, head));
+      return Optional.empty();
+    }
+
+    List<MavenProject> projects =
+        new ArrayList<>(session.getProjectDependencyGraph().getUpstreamProjects(project, true));
+    projects.add(project);
+    for (MavenProject reactorProject : projects) {
+      for (Path input : nonJavaInputsOf(reactorProject)) {
+        if (detector.detectDifference(input, base, head)
+            || (dirty && detector.hasUncommittedChanges(input))) {
+          log.info(String.format("%s has been updated, it may affect any test.", input));
+          return Optional.empty();
+        }
+      }
+    }
+
+    Set<Path> scope = getDiffScope();
+    DiffSession diffSession = DiffSession.of(session);
+    ReferenceGraph.Builder builder = ReferenceGraph.builder();
+    Set<String> updatedClasses = new HashSet<>();
+    for (MavenProject reactorProject : projects) {
+      String sourceDirectory = reactorProject.getBuild().getSourceDirectory();
+      if (sourceDirectory == null || !Files.isDirectory(Paths.get(sourceDirectory))) {
+        continue;
+      }
+      Path outputDirectory =
+          Paths.get(reactorProject.getBuild().getOutputDirectory()).toAbsolutePath();
+      if (!Files.isDirectory(outputDirectory)) {
+        log.info(String.format("%s is not compiled, it may affect any test.", reactorProject));
+        return Optional.empty();
+      }
+      Path sourceRoot = Paths.get(sourceDirectory).toAbsolutePath();
+      updatedClasses.addAll(
+          updatedClasses(
+              detector.detectUpdatedCode(
+                  diffSession,
+                  basedir,
+                  scope,
+                  Collections.singleton(sourceRoot),
+                  base,
+                  head,
+                  uncommitted),
+              sourceRoot,
+              outputDirectory));
+      addReferences(builder, outputDirectory);
+    }
+
+    Path testSourceRoot = Paths.get(project.getBuild().getTestSourceDirectory()).toAbsolutePath();
+    Set<String> updatedTests =
+        updatedClasses(
+            detector.detectUpdatedCode(
+                diffSession,
+                basedir,
+                scope,
+                Collections.singleton(testSourceRoot),
+                base,
+                head,
+                uncommitted),
+            testSourceRoot,
+            testOutputDirectory);
+    Set<String> testClasses = addReferences(builder, testOutputDirectory);
+    return Optional.of(select(builder.build(), updatedClasses, updatedTests, testClasses));
+  }
+
+  /**
+   * @param graph A non-null graph of references in this project and its upstream projects.
+   * @param updatedClasses A non-null collection of internal name of updated classes.
+   * @param updatedTests A non-null collection of internal name of updated test classes.
+   * @param testClasses A non-null set of internal name of test classes in this project.
+   * @return A non-null set of name of top level test classes to run, such as {@code
+   *     "com.worksap.ClassNameTest"}.
+   */
+  @VisibleForTesting
+  static Set<String> select(
+      ReferenceGraph graph,
+      Collection<String> updatedClasses,
+      Collection<String> updatedTests,
+      Set<String> testClasses) {
+    Objects.requireNonNull(testClasses);
+    Set<String> seeds = new HashSet<>(updatedClasses);
+    seeds.addAll(updatedTests);
+    // follow every reference, a test skipped by depth limit could hide regression
+    return Stream.concat(
+            updatedTests.stream(),
+            graph.dependentsOf(seeds, Integer.MAX_VALUE).stream().filter(testClasses::contains))
+        .map(
+            className -> {
+              // surefire runs nested classes with their top level class
+              int index = className.indexOf('$');
+              return index < 0 ? className : className.substring(0, index);
+            })
+        .map(className -> className.replace('/', '.'))
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  /**
+   * @return A non-null set of internal name of classes in given output directory, compiled from
+   *     updated source.
+   */
+  private Set<String> updatedClasses(
+      Stream<Path> updatedJavaCodes, Path sourceRoot, Path outputDirectory) {
+    // index is read only, the spotbugs goal updates the index file
+    return new ClassSearcher(
+            outputDirectory, ClassIndex.load(ClassSearcher.indexFileFor(outputDirectory)))
+        .search(updatedJavaCodes.map(sourceRoot::relativize).map(Path::toString))
+        .map(className -> className.replace('.', '/'))
+        .collect(Collectors.toSet());
+  }
+
+  /** @return A non-null set of internal name of classes in given output directory. */
+  private Set<String> addReferences(ReferenceGraph.Builder builder, Path outputDirectory)
+      throws IOException {
+    ReferenceIndex index = ReferenceIndex.load(ReferenceIndex.indexFileFor(outputDirectory));
+    index.update(outputDirectory);
+    index.addTo(builder);
+    try {
+      index.save();
+    } catch (IOException e) {
+      getLog()
+          .warn("Failed to save index of class references, next build will parse them again", e);
+    }
+    return index.classNames();
+  }
+
+  /**
+   * @return A non-null list of {@code pom.xml} and resource directories, which may affect tests in
+   *     the way we cannot know from class files.
+   */
+  private List<Path> nonJavaInputsOf(MavenProject reactorProject) {
+    List<Resource> resources = new ArrayList<>(reactorProject.getBuild().getResources());
+    if (reactorProject.equals(project)) {
+      resources.addAll(reactorProject.getBuild().getTestResources());
+    }
+    List<Path> inputs = new ArrayList<>();
+    if (reactorProject.getFile() != null) {
+      inputs.add(reactorProject.getFile().toPath().toAbsolutePath());
+    }
+    resources.stream()
+        .map(Resource::getDirectory)
+        .filter(Objects::nonNull)
+        .map(directory -> Paths.get(directory).toAbsolutePath())
+        .forEach(inputs::add);
+    return inputs;
+  }
+
+  /**
+   * @return A non-null set of source and test source directories of every project in the reactor,
+   *     so all modules can share one computed difference.
+   */
+  private Set<Path> getDiffScope() {
+    return session.getProjects().stream()
+        .flatMap(
+            reactorProject ->
+                Stream.of(
+                    reactorProject.getBuild().getSourceDirectory(),
+                    reactorProject.getBuild().getTestSourceDirectory()))
+        .filter(Objects::nonNull)
+        .map(Paths::get)
+        .map(Path::toAbsolutePath)
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Utilities to split target classes into shards, so several CI workers can analyze them in
+ * parallel. Split is deterministic, so each worker can compute its own shard without coordination.
+ */
+final class Shards {
+  private Shards() {}
+
+  /**
+   * Split classes by the longest processing time first rule: groups of class are sorted by size of
+   * their class files, and each group is assigned to the shard which has the smallest total size.
+   * Nested classes are kept with their outer class, because SpotBugs analyzes them together.
+   *
+   * @param outputDir A non-null output directory which contains class files.
+   * @param targetClasses A non-null collection of class names such as {@code
+   *     "com.worksap.ClassName$1"}.
+   * @param index An index of shard to return, from {@code 0} to {@code count - 1}.
+   * @param count A positive number of shards.
+   * @return A non-null list of class names in given shard, keeping order of given classes.
+   */
+  static List<String> select(
+      Path outputDir, Collection<String> targetClasses, int index, int count) {
+    Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(targetClasses);
+    if (count <= 0 || index < 0 || index >= count) {
+      throw new IllegalArgumentException(
+          String.format("Shard index %d is out of range of %d shards", index, count));
+    }
+
+    // Key: outer class name such as "com.worksap.ClassName", Value: size of its class files
+    Map<String, Long> groups = new LinkedHashMap<>();
+    for (String className : targetClasses) {
+      groups.merge(outerClassOf(className), sizeOf(outputDir, className), Long::sum);
+    }
+    List<Map.Entry<String, Long>> sorted = new ArrayList<>(groups.entrySet());
+    sorted.sort(
+        Map.Entry.<String, Long>comparingByValue()
+            .reversed()
+            .thenComparing(Map.Entry.comparingByKey()));
+
+    // each element is pair of total size and shard index
+    PriorityQueue<long[]> shards =
+        new PriorityQueue<>(
+            count,
+            Comparator.<long[]>comparingLong(shard -> shard[0])
+                .thenComparingLong(shard -> shard[1]));
+    for (int i = 0; i < count; ++i) {
+      shards.add(new long[] {0, i});
+    }
+    Map<String, Boolean> selected = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> group : sorted) {
+      long[] shard = shards.poll();
+      selected.put(group.getKey(), shard[1] == index);
+      shard[0] += group.getValue();
+      shards.add(shard);
+    }
+
+    List<String> result = new ArrayList<>();
+    for (String className : targetClasses) {
+      if (selected.get(outerClassOf(className))) {
+        result.add(className);
+      }
+    }
+    return result;
+  }
+
+  /** @return Name of the outermost class, such as {@code "com.worksap.ClassName"}. */
+  static String outerClassOf(String className) {
+    int index = className.indexOf('$');
+    return index < 0 ? className : className.substring(0, index);
+  }
+
+  /** @return Size of class file, or {@code 1} if it cannot be read so the class still counts. */
+  static long sizeOf(Path outputDir, String className) {
+    Path classFile = outputDir.resolve(className.replace('.', File.separatorChar) + ".class");
+    try {
+      return Math.max(1, Files.size(classFile));
+    } catch (IOException e) {
+      return 1;
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+
+/**
+ * Effective configuration of spotbugs-maven-plugin in a project. Like Maven, each parameter is
+ * resolved from the plugin configuration in POM first, then from user properties and project
+ * properties such as {@code -Dspotbugs.effort=Max}, then its default value.
+ */
+final class SpotBugsConfiguration {
+  static final String SPOTBUGS_PLUGIN = "com.github.spotbugs:spotbugs-maven-plugin";
+
+  /** Parameters which affect findings of each class, and their default values. */
+  private static final Map<String, String> PARAMETERS = new LinkedHashMap<>();
+
+  /** Parameters which have comma-separated list of files. */
+  private static final List<String> FILE_PARAMETERS =
+      Arrays.asList(
+          "includeFilterFile", "excludeFilterFile", "excludeBugsFile", "pluginList", "userPrefs");
+
+  static {
+    PARAMETERS.put("effort", "Default");
+    PARAMETERS.put("threshold", "Default");
+    PARAMETERS.put("maxRank", null);
+    PARAMETERS.put("visitors", null);
+    PARAMETERS.put("omitVisitors", null);
+    PARAMETERS.put("relaxed", "false");
+    PARAMETERS.put("nested", "false");
+    FILE_PARAMETERS.forEach(parameter -> PARAMETERS.put(parameter, null));
+  }
+
+  private final MavenSession session;
+  private final MavenProject project;
+  private final Plugin plugin;
+
+  private SpotBugsConfiguration(MavenSession session, MavenProject project, Plugin plugin) {
+    this.session = session;
+    this.project = project;
+    this.plugin = plugin;
+  }
+
+  /**
+   * @param session A non-null current session, to refer user properties and local repository.
+   * @param project A non-null project to analyze.
+   * @return A non-null configuration of spotbugs-maven-plugin in given project.
+   */
+  static SpotBugsConfiguration of(MavenSession session, MavenProject project) {
+    Objects.requireNonNull(session);
+    Objects.requireNonNull(project);
+    return new SpotBugsConfiguration(session, project, project.getPlugin(SPOTBUGS_PLUGIN));
+  }
+
+  /**
+   * @param parameter A non-null name of parameter such as {@code "effort"}.
+   * @return Effective value of given parameter, or empty if it has no value.
+   */
+  Optional<String> get(String parameter) {
+    Objects.requireNonNull(parameter);
+    for (Xpp3Dom configuration : configurations()) {
+      Xpp3Dom child = configuration.getChild(parameter);
+      if (child != null && child.getValue() != null && !child.getValue().trim().isEmpty()) {
+        return Optional.of(child.getValue().trim());
+      }
+    }
+    String property = "spotbugs." + parameter;
+    String value = session.getUserProperties().getProperty(property);
+    if (value == null) {
+      value = project.getProperties().getProperty(property);
+    }
+    if (value == null) {
+      value = session.getSystemProperties().getProperty(property);
+    }
+    if (value == null || value.trim().isEmpty()) {
+      return Optional.ofNullable(PARAMETERS.get(parameter));
+    }
+    return Optional.of(value.trim());
+  }
+
+  /**
+   * @param parameter A non-null name of parameter which has comma-separated list of files.
+   * @return A non-null list of files, resolved from base directory of the project. Note that
+   *     spotbugs-maven-plugin also accepts classpath resource and URL, which may not exist as file.
+   */
+  List<Path> files(String parameter) {
+    return get(parameter)
+        .map(
+            value ->
+                Arrays.stream(value.split(","))
+                    .map(String::trim)
+                    .filter(name -> !name.isEmpty())
+                    .map(name -> project.getBasedir().toPath().resolve(name))
+                    .collect(Collectors.toList()))
+        .orElse(Collections.emptyList());
+  }
+
+  /**
+   * @return A non-null list of SpotBugs plugins in the {@code plugins} parameter, such as
+   *     find-sec-bugs.
+   */
+  List<Artifact> pluginArtifacts() {
+    List<Artifact> result = new ArrayList<>();
+    for (Xpp3Dom configuration : configurations()) {
+      Xpp3Dom plugins = configuration.getChild("plugins");
+      if (plugins == null) {
+        continue;
+      }
+      for (Xpp3Dom pluginArtifact : plugins.getChildren()) {
+        result.add(
+            new DefaultArtifact(
+                valueOf(pluginArtifact, "groupId", ""),
+                valueOf(pluginArtifact, "artifactId", ""),
+                valueOf(pluginArtifact, "classifier", ""),
+                valueOf(pluginArtifact, "type", "jar"),
+                valueOf(pluginArtifact, "version", "")));
+      }
+      break;
+    }
+    return result;
+  }
+
+  /**
+   * @return Version of SpotBugs which is given to spotbugs-maven-plugin as its dependency, or empty
+   *     if the plugin uses its default version.
+   */
+  Optional<String> spotBugsVersion() {
+    if (plugin == null) {
+      return Optional.empty();
+    }
+    return plugin.getDependencies().stream()
+        .filter(
+            dependency ->
+                "com.github.spotbugs".equals(dependency.getGroupId())
+                    && "spotbugs".equals(dependency.getArtifactId()))
+        .map(Dependency::getVersion)
+        .findFirst();
+  }
+
+  /**
+   * @param artifact A non-null artifact.
+   * @return A non-null path of given artifact in the local repository, which may not exist.
+   */
+  Path localPathOf(Artifact artifact) {
+    RepositorySystemSession repositorySession = session.getRepositorySession();
+    return repositorySession
+        .getLocalRepository()
+        .getBasedir()
+        .toPath()
+        .resolve(repositorySession.getLocalRepositoryManager().getPathForLocalArtifact(artifact));
+  }
+
+  /**
+   * @return A non-null string which represents everything which affects findings: version,
+   *     configuration and dependencies of spotbugs-maven-plugin, effective value of parameters, and
+   *     content of filter files and SpotBugs plugins.
+   * @throws IOException when failed to read files referred by the configuration
+   */
+  String fingerprint() throws IOException {
+    StringBuilder builder = new StringBuilder(SPOTBUGS_PLUGIN);
+    if (plugin != null) {
+      builder.append(':').append(plugin.getVersion());
+      configurations().forEach(configuration -> builder.append('\n').append(configuration));
+      for (Dependency dependency : plugin.getDependencies()) {
+        builder
+            .append('\n')
+            .append(dependency.getManagementKey())
+            .append(':')
+            .append(dependency.getVersion());
+      }
+    }
+    for (String parameter : PARAMETERS.keySet()) {
+      builder.append('\n').append(parameter).append('=').append(get(parameter).orElse(""));
+    }
+    for (String parameter : FILE_PARAMETERS) {
+      for (Path file : files(parameter)) {
+        builder.append('\n').append(parameter).append(':').append(hashOf(file));
+      }
+    }
+    for (Artifact artifact : pluginArtifacts()) {
+      builder.append('\n').append(artifact).append(':').append(hashOf(localPathOf(artifact)));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @return A non-null list of configuration in POM. Configuration of executions precedes
+   *     configuration of the plugin, because it overrides the latter.
+   */
+  private List<Xpp3Dom> configurations() {
+    List<Xpp3Dom> result = new ArrayList<>();
+    if (plugin == null) {
+      return result;
+    }
+    for (PluginExecution execution : plugin.getExecutions()) {
+      if (execution.getConfiguration() instanceof Xpp3Dom) {
+        result.add((Xpp3Dom) execution.getConfiguration());
+      }
+    }
+    if (plugin.getConfiguration() instanceof Xpp3Dom) {
+      result.add((Xpp3Dom) plugin.getConfiguration());
+    }
+    return result;
+  }
+
+  private static String valueOf(Xpp3Dom parent, String name, String defaultValue) {
+    Xpp3Dom child = parent.getChild(name);
+    return child == null || child.getValue() == null ? defaultValue : child.getValue().trim();
+  }
+
+  /** @return Hash of given file, or {@code "missing"} if it is not a regular file. */
+  private static String hashOf(Path file) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return file.getFileName() + ":missing";
+    }
+    return Hashing.sha256().hashBytes(Files.readAllBytes(file)).toString();
+  }
+}
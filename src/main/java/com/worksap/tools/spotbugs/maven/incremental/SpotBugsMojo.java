@@ -16,16 +16,28 @@
 package com.worksap.tools.spotbugs.maven.incremental;
 
 import com.google.common.annotations.VisibleForTesting;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -34,6 +46,7 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 
 /**
  * A mojo to generate {@code -onlyAnalyze} parameter for spotbugs-maven-plugin. Generated parameter
@@ -50,11 +63,23 @@ import org.eclipse.jgit.lib.Constants;
     requiresProject = true,
     defaultPhase = LifecyclePhase.VERIFY)
 public class SpotBugsMojo extends AbstractMojo {
-  private final GitUpdatedJavaCodeDetector detector;
+  /** Key of {@link MavenProject#getContextValue(String)} to share list of target classes. */
+  static final String TARGET_CLASSES = SpotBugsMojo.class.getName() + ".targetClasses";
+
+  /** Key of {@link MavenProject#getContextValue(String)} to request analysis of every class. */
+  static final String FULL_ANALYSIS = SpotBugsMojo.class.getName() + ".fullAnalysis";
+
+  /** Detector given by unit test, or {@code null} to create it from parameters. */
+  private GitUpdatedJavaCodeDetector detector;
+
+  private final Metrics metrics;
 
   @Parameter(property = "project")
   private MavenProject project;
 
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
   /**
    * Name of the property to generate value by this plugin, to specify {@code -onlyAnalyze} option to SpotBugs.
    */
@@ -79,19 +104,176 @@ public class SpotBugsMojo extends AbstractMojo {
   @Parameter(defaultValue = "refs/heads/master", property = "incremental.spotbugs.target")
   private String target;
 
+  /**
+   * Flag to compute difference from the merge base of target and source, like {@code git diff target...source}. It excludes changes made in the target branch after the source branch was created.
+   * If the merge base cannot be found, e.g. in shallow clone, this plugin warns and compares with the target directly.
+   */
+  @Parameter(defaultValue = "false", property = "incremental.spotbugs.mergeBase")
+  private boolean mergeBase;
+
+  /**
+   * Maximum number of commits only reachable from source, to walk when this plugin finds the merge base. It bounds cost of the walk on deep history.
+   */
+  @Parameter(defaultValue = "10000", property = "incremental.spotbugs.mergeBaseMaxCommits")
+  private int mergeBaseMaxCommits;
+
+  /** Commit to compute difference from, which is {@link #target} or merge base of it. */
+  private String diffBase;
+
   /**
    * Flag to skip execution of this incremental-analysis plugin.
    */
   @Parameter(defaultValue = "false", property = "incremental.spotbugs.skip")
   private boolean skip;
 
+  /**
+   * Flag to store source file name of each class file, in the {@code incremental-analysis} directory next to the output directory.
+   * Following builds parse only class files which have been recompiled since the last build.
+   */
+  @Parameter(defaultValue = "true", property = "incremental.spotbugs.classIndex")
+  private boolean classIndex;
+
+  /**
+   * Number of threads to parse class files in parallel. Default value {@code 1} parses them in the build thread.
+   * Use {@code 0} to use all available processors.
+   */
+  @Parameter(defaultValue = "1", property = "incremental.spotbugs.scanParallelism")
+  private int scanParallelism;
+
+  /**
+   * Flag to find nested and anonymous classes by {@code InnerClasses} and {@code NestMembers} attributes of the class which has the same name with updated source.
+   * Packages which may have class declared in other source file, such as non-public top level class, are still scanned entirely.
+   */
+  @Parameter(defaultValue = "false", property = "incremental.spotbugs.discoverNestedClasses")
+  private boolean discoverNestedClasses;
+
+  /**
+   * Depth to add classes which refer updated classes, such as callers, implementers and subclasses. It helps to find potential bugs caused by updated method signature, e.g. added {@code @CheckForNull} annotation.
+   * References are collected from class files in output directories of this project and its upstream projects in the reactor.
+   * Default value {@code 0} analyzes updated classes only, and {@code 1} also analyzes their direct dependents.
+   */
+  @Parameter(defaultValue = "0", property = "incremental.spotbugs.dependentDepth")
+  private int dependentDepth;
+
+  /**
+   * Uncommitted changes to analyze, to run incremental analysis before you commit. Use {@code STAGED} to compare the Git index with target, or {@code ALL} to compare the working tree with target.
+   * Source is ignored in these modes. Default value {@code IGNORE} compares source with target.
+   */
+  @Parameter(defaultValue = "IGNORE", property = "incremental.spotbugs.uncommitted")
+  private UncommittedChanges uncommitted;
+
+  /**
+   * Manifest generated by the {@code fingerprint} goal in the build of target branch. If it is specified, classes whose bytecode except debug information is same with the manifest are not analyzed.
+   * It skips analysis when updates are formatting, comments or Javadoc only. In multi-module project, concatenated manifest of modules is also acceptable.
+   */
+  @Parameter(property = "incremental.spotbugs.fingerprintBaseline")
+  private File fingerprintBaseline;
+
+  /**
+   * Directory to cache findings of each class, keyed by hash of class file and configuration of spotbugs-maven-plugin. It can be shared by builds on several machines.
+   * Classes whose findings are cached are not analyzed, and the {@code findings} goal merges their findings into the XML report. Execute the {@code findings} goal after spotbugs-maven-plugin generates report.
+   */
+  @Parameter(property = "incremental.spotbugs.findingsCache")
+  private File findingsCache;
+
+  /**
+   * Flag to replace classes with package wildcard like {@code com.worksap.*}, when every class in the package is a target. It keeps the generated property short.
+   */
+  @Parameter(defaultValue = "true", property = "incremental.spotbugs.collapsePackages")
+  private boolean collapsePackages;
+
+  /**
+   * File to write list of target classes. If it is specified, generated property refers this file like {@code @/path/to/file}, and SpotBugs reads its content as {@code -onlyAnalyze} option.
+   * It avoids long command line when many classes are updated.
+   */
+  @Parameter(property = "incremental.spotbugs.onlyAnalyzeFile")
+  private File onlyAnalyzeFile;
+
+  /**
+   * Ratio of target classes to all classes in this project, to run full analysis instead of incremental analysis. When the ratio exceeds this value, this plugin does not generate {@code -onlyAnalyze} option so SpotBugs analyzes every class.
+   * Default value {@code 1.0} always runs incremental analysis.
+   */
+  @Parameter(defaultValue = "1.0", property = "incremental.spotbugs.fullAnalysisThreshold")
+  private double fullAnalysisThreshold;
+
+  /**
+   * JSON file to write elapsed time of each phase and counters such as number of parsed class files. Set empty value to disable.
+   */
+  @Parameter(
+      defaultValue = "${project.build.directory}/incremental-analysis/metrics.json",
+      property = "incremental.spotbugs.metricsFile")
+  private File metricsFile;
+
+  /**
+   * Flag to keep index of class files and computed difference in memory, and reuse them in following builds in the same JVM such as Maven daemon.
+   * Changes in output directory are tracked by file system events. If the output directory cannot be watched, this plugin works like non-resident mode.
+   */
+  @Parameter(defaultValue = "false", property = "incremental.spotbugs.resident")
+  private boolean resident;
+
+  /**
+   * Backend to compute updated files between target and source commits: {@code JGIT} (default) computes difference in the Maven JVM, {@code GIT} runs native {@code git} command, and {@code FILE_LIST} reads {@link #changedFileList} prepared by CI.
+   * Uncommitted changes are always computed by JGit.
+   */
+  @Parameter(defaultValue = "JGIT", property = "incremental.spotbugs.changeSetBackend")
+  private ChangeSetBackend changeSetBackend;
+
+  /** Name or path of native {@code git} command, used by {@code GIT} backend. */
+  @Parameter(defaultValue = "git", property = "incremental.spotbugs.gitExecutable")
+  private String gitExecutable;
+
+  /**
+   * Newline-delimited list of updated files, used by {@code FILE_LIST} backend. Each line is a path relative to Git root or an absolute path, like output of {@code git diff --name-only}.
+   */
+  @Parameter(property = "incremental.spotbugs.changedFileList")
+  private File changedFileList;
+
+  /**
+   * Directory to record the last analyzed source commit of each module. If it is specified, following build computes difference from the recorded commit instead of the target, and reuses findings of other classes in the {@link #findingsCache}. It falls back to difference from the target when the recorded commit is not an ancestor of the source, e.g. after force-push or rebase, or when the target has been updated.
+   */
+  @Parameter(property = "incremental.spotbugs.checkpointDirectory")
+  private File checkpointDirectory;
+
+  /**
+   * Index of the shard to analyze, from {@code 0} to {@code shardCount - 1}. Give different index to each CI worker, then merge their reports by the {@code merge-reports} goal.
+   */
+  @Parameter(defaultValue = "0", property = "incremental.spotbugs.shardIndex")
+  private int shardIndex;
+
+  /**
+   * Number of shards to split target classes. Classes are split deterministically and balanced by size of class files, and nested classes are kept with their outer class. Classes are split before checkpoint, findings cache and time budget are applied, because they depend on each worker.
+   */
+  @Parameter(defaultValue = "1", property = "incremental.spotbugs.shardCount")
+  private int shardCount;
+
+  /**
+   * Time budget of SpotBugs in seconds, or {@code 0} to analyze every target class. Target classes are ranked by changed lines of their source file and estimated cost, and classes which do not fit in the budget are listed in {@link #deferredClassesFile}. Cost is estimated from size of class files and {@link #costHistory}, with fixed overhead of each SpotBugs run. The budget applies to each module separately, so a reactor of several modules may spend the budget in each of them.
+   */
+  @Parameter(defaultValue = "0", property = "incremental.spotbugs.timeBudget")
+  private int timeBudget;
+
+  /**
+   * File which has historical timing of SpotBugs, recorded by the {@code analyze} goal. Keep it across builds, e.g. by CI cache, to estimate cost of classes precisely.
+   */
+  @Parameter(
+      defaultValue = "${project.build.directory}/incremental-analysis/cost-history.txt",
+      property = "incremental.spotbugs.costHistory")
+  private File costHistory;
+
+  /** Report to list classes deferred by {@link #timeBudget}, one class name per line. */
+  @Parameter(
+      defaultValue = "${project.build.directory}/incremental-analysis/deferred-classes.txt",
+      property = "incremental.spotbugs.deferredClassesFile")
+  private File deferredClassesFile;
+
   /** Constructor for production */
   public SpotBugsMojo() {
-    this.detector = new GitUpdatedJavaCodeDetector();
+    this.metrics = new Metrics();
   }
 
   /** Constructor for unit test */
   SpotBugsMojo(GitUpdatedJavaCodeDetector detector) {
+    this.metrics = new Metrics();
     this.detector = Objects.requireNonNull(detector);
   }
 
@@ -102,31 +284,172 @@ public class SpotBugsMojo extends AbstractMojo {
       log.info("Skip generating list of target classes for SpotBugs.");
       return;
     }
-    Stream<Path> updatedJavaCodes;
+    if (scanParallelism < 0) {
+      throw new MojoExecutionException(
+          "scanParallelism should not be negative but it is " + scanParallelism);
+    }
+    if (detector == null) {
+      detector = new GitUpdatedJavaCodeDetector(metrics, createChangeSetProvider());
+    }
+    try (Metrics.Timer timer = metrics.time("total")) {
+      generateTargetClasses(log);
+    } finally {
+      log.info("Metrics of incremental analysis: " + metrics.summary());
+      saveMetrics(log);
+    }
+  }
+
+  /**
+   * Start computing difference in background, so following {@link #execute()} in this build just
+   * waits for the computed difference. It runs only in the first module of the reactor, because
+   * every module shares one difference. It does nothing when each module uses its checkpoint
+   * instead of the shared difference.
+   */
+  void prepare() throws MojoExecutionException {
+    Log log = getLog();
+    if (skip) {
+      return;
+    }
+    if (!session.getProjects().get(0).equals(project)) {
+      log.debug("Difference is computed in background by the first module of the reactor.");
+      return;
+    }
+    // file list may be generated during the build
+    if (changeSetBackend == ChangeSetBackend.FILE_LIST) {
+      log.info("Difference is not prepared in background, because file list may not exist yet.");
+      return;
+    }
+    // each module compares with its own checkpoint, and needs difference from target or merge base
+    // only to split shards and to find updated classes in upstream projects
+    if (checkpointDirectory != null
+        && findingsCache != null
+        && uncommitted == UncommittedChanges.IGNORE
+        && shardCount == 1
+        && dependentDepth == 0) {
+      log.info(
+          "Difference is not prepared in background, because each module uses its checkpoint.");
+      return;
+    }
+    if (detector == null) {
+      detector = new GitUpdatedJavaCodeDetector(metrics, createChangeSetProvider());
+    }
+    DiffSession diffSession = diffSession();
+    Path basedir = project.getBasedir().toPath();
+    Set<Path> scope = getDiffScope();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                String base = mergeBase ? findMergeBase(log) : target;
+                detector.detectUpdatedCode(
+                    diffSession, basedir, scope, Collections.emptySet(), base, source, uncommitted);
+              } catch (IOException | MojoExecutionException | RuntimeException e) {
+                log.debug("Failed to compute difference in background", e);
+              }
+            },
+            "incremental-analysis-prepare");
+    thread.setDaemon(true);
+    thread.start();
+    log.info("Started computing difference in background.");
+  }
+
+  private void generateTargetClasses(Log log) throws MojoExecutionException {
+    diffBase = mergeBase ? findMergeBase(log) : target;
+    List<Path> updatedJavaCodes;
+    Optional<Checkpoint> checkpoint;
+    String base;
+    boolean useCheckpoint = checkpointDirectory != null && isCheckpointAvailable(log);
+    Set<Path> compileSourceRoots = getCompileSourceRoots();
 
     try {
-      if (!detector.detectDifference(project.getBasedir().toPath(), target, source)) {
-        log.info(
-            String.format(
-                "No commit found between %s and %s, so skip generating list of target classes for SpotBugs",
-                target, source));
+      // dependents of classes in other projects may exist even if this project has no change,
+      // and uncommitted changes cannot be detected by comparing commits
+      if (dependentDepth == 0
+          && uncommitted == UncommittedChanges.IGNORE
+          && !detector.detectDifference(project.getBasedir().toPath(), diffBase, source)) {
+        log.debug(
+            String.format("No change found in this project between %s and %s", diffBase, source));
+        project.getModel().addProperty(propertyToSkip, "true");
+        log.info("No updated Java class found, static analysis will be skipped.");
         return;
       }
       log.info("Start generating list of target classes for SpotBugs...");
-      updatedJavaCodes = detector.detectUpdatedCode(project.getBasedir().toPath(), target, source);
+      checkpoint = useCheckpoint ? loadCheckpoint(log) : Optional.empty();
+      base = checkpoint.map(Checkpoint::getSource).orElse(diffBase);
+      updatedJavaCodes = detectUpdatedCode(base, compileSourceRoots);
     } catch (IOException e) {
       throw new MojoExecutionException("Failed to list updated Java code", e);
     }
 
-    List<String> targetClasses =
-        codeToClass(getCompileSourceRoots(), updatedJavaCodes).collect(Collectors.toList());
-    String targetClassList = targetClasses.stream().collect(Collectors.joining(","));
-
-    if (targetClassList.isEmpty()) {
+    List<String> targetClasses = updatedClasses(compileSourceRoots, updatedJavaCodes, checkpoint);
+    if (shardCount > 1) {
+      // split must not depend on state of each worker such as checkpoint and findings cache,
+      // otherwise a class may belong to no shard or to several shards
+      List<String> allClasses = targetClasses;
+      if (checkpoint.isPresent()) {
+        try {
+          allClasses =
+              updatedClasses(
+                  compileSourceRoots,
+                  detectUpdatedCode(diffBase, compileSourceRoots),
+                  Optional.empty());
+        } catch (IOException e) {
+          throw new MojoExecutionException("Failed to list updated Java code", e);
+        }
+      }
+      List<String> shard = selectShard(log, allClasses);
+      if (checkpoint.isPresent()) {
+        shard.retainAll(new HashSet<>(targetClasses));
+      }
+      if (useCheckpoint) {
+        // other shards may be assigned to this worker in the next build
+        saveCheckpoint(allClasses);
+      }
+      targetClasses = shard;
+    } else {
+      if (fullAnalysisThreshold < 1.0 && exceedsFullAnalysisThreshold(targetClasses)) {
+        project.setContextValue(FULL_ANALYSIS, Boolean.TRUE);
+        log.info("Too many classes are updated, SpotBugs will analyze every class.");
+        return;
+      }
+      if (useCheckpoint) {
+        saveCheckpoint(targetClasses);
+      }
+    }
+    if (findingsCache != null) {
+      try (Metrics.Timer timer = metrics.time("findingsCache")) {
+        targetClasses = withoutCachedFindings(targetClasses);
+      } catch (IOException e) {
+        throw new MojoExecutionException("Failed to load findings cache", e);
+      }
+    }
+    if (timeBudget > 0) {
+      try (Metrics.Timer timer = metrics.time("timeBudget")) {
+        targetClasses =
+            withinTimeBudget(log, targetClasses, compileSourceRoots, updatedJavaCodes, base);
+      }
+    }
+    if (targetClasses.isEmpty()) {
       project.getModel().addProperty(propertyToSkip, "true");
       log.info("No updated Java class found, static analysis will be skipped.");
     } else {
+      Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+      String targetClassList =
+          String.join(
+              ",",
+              collapsePackages
+                  ? OnlyAnalyze.collapse(outputDirectory, targetClasses)
+                  : targetClasses);
+      if (onlyAnalyzeFile != null) {
+        try {
+          targetClassList = OnlyAnalyze.writeOptionFile(onlyAnalyzeFile.toPath(), targetClassList);
+        } catch (IOException e) {
+          throw new MojoExecutionException("Failed to write " + onlyAnalyzeFile, e);
+        }
+      }
       project.getModel().addProperty(propertyToAnalyze, targetClassList);
+      project.setContextValue(TARGET_CLASSES, targetClasses);
+      metrics.add(Metrics.Counter.CLASSES_EMITTED, targetClasses.size());
       if (log.isDebugEnabled()) {
         targetClasses.forEach(
             className -> {
@@ -137,13 +460,313 @@ public class SpotBugsMojo extends AbstractMojo {
     }
   }
 
+  /**
+   * @return A non-null list of updated Java codes in given source roots, since given commit. Source
+   *     roots out of the shared scope, such as roots added by other plugins, are compared apart.
+   */
+  private List<Path> detectUpdatedCode(String base, Set<Path> compileSourceRoots)
+      throws IOException {
+    Path basedir = project.getBasedir().toPath();
+    Set<Path> scope = getDiffScope();
+    List<Path> result =
+        detector
+            .detectUpdatedCode(
+                diffSession(), basedir, scope, compileSourceRoots, base, source, uncommitted)
+            .collect(Collectors.toList());
+
+    Path buildDirectory = Paths.get(project.getBuild().getDirectory()).toAbsolutePath();
+    Set<Path> otherRoots =
+        compileSourceRoots.stream()
+            .filter(root -> !root.startsWith(buildDirectory)) // generated sources are not in Git
+            .filter(root -> scope.stream().noneMatch(root::startsWith))
+            .collect(Collectors.toCollection(TreeSet::new));
+    if (!otherRoots.isEmpty()) {
+      detector
+          .detectUpdatedCode(
+              diffSession(), basedir, otherRoots, otherRoots, base, source, uncommitted)
+          .forEach(result::add);
+    }
+    return result;
+  }
+
+  /**
+   * @param updatedJavaCodes A non-null list of updated Java codes.
+   * @param checkpoint The checkpoint which updated Java codes have been compared with, or empty.
+   * @return A non-null list of name of classes compiled from updated Java codes, followed by
+   *     classes updated before the checkpoint and dependents of them.
+   */
+  private List<String> updatedClasses(
+      Set<Path> compileSourceRoots, List<Path> updatedJavaCodes, Optional<Checkpoint> checkpoint)
+      throws MojoExecutionException {
+    List<String> targetClasses = codeToClass(compileSourceRoots, updatedJavaCodes.stream());
+    if (checkpoint.isPresent()) {
+      targetClasses = withCheckpointClasses(targetClasses, checkpoint.get());
+    }
+    if (fingerprintBaseline != null) {
+      try (Metrics.Timer timer = metrics.time("fingerprints")) {
+        targetClasses = withoutUnchangedBytecode(targetClasses);
+      }
+    }
+    if (dependentDepth > 0) {
+      try (Metrics.Timer timer = metrics.time("dependents")) {
+        targetClasses = withDependents(compileSourceRoots, targetClasses);
+      } catch (IOException e) {
+        throw new MojoExecutionException("Failed to find dependents of updated classes", e);
+      }
+    }
+    return targetClasses;
+  }
+
+  /**
+   * @param allClasses A non-null list of name of classes updated since {@link #diffBase}, which
+   *     every worker computes in the same way.
+   * @return A non-null and modifiable list of name of classes in the shard of this worker.
+   */
+  private List<String> selectShard(Log log, List<String> allClasses)
+      throws MojoExecutionException {
+    List<String> shard;
+    try {
+      shard =
+          Shards.select(
+              Paths.get(project.getBuild().getOutputDirectory()),
+              allClasses,
+              shardIndex,
+              shardCount);
+    } catch (IllegalArgumentException e) {
+      throw new MojoExecutionException("Invalid shard parameters", e);
+    }
+    log.info(
+        String.format(
+            "Shard %d of %d has %d classes out of %d",
+            shardIndex, shardCount, shard.size(), allClasses.size()));
+    return shard;
+  }
+
+  /**
+   * Select classes which fit in {@link #timeBudget}, and list other classes in {@link
+   * #deferredClassesFile}.
+   *
+   * @param targetClasses A non-null list of name of classes to analyze.
+   * @param updatedJavaCodes A non-null list of updated Java codes, to rank classes by their changed
+   *     lines.
+   * @param base A non-null commit which updated Java codes have been compared with.
+   * @return A non-null list of name of classes to analyze in this build.
+   */
+  private List<String> withinTimeBudget(
+      Log log,
+      List<String> targetClasses,
+      Set<Path> compileSourceRoots,
+      List<Path> updatedJavaCodes,
+      String base)
+      throws MojoExecutionException {
+    // Key: outer class name such as "com.worksap.ClassName"
+    Map<String, Integer> changedLines = new HashMap<>();
+    try {
+      detector
+          .countChangedLines(
+              project.getBasedir().toPath(), updatedJavaCodes, base, source, uncommitted)
+          .forEach(
+              (javaCode, lines) ->
+                  compileSourceRoots.stream()
+                      .filter(javaCode::startsWith)
+                      .findFirst()
+                      .map(root -> root.relativize(javaCode).toString())
+                      .map(path -> path.substring(0, path.length() - ".java".length()))
+                      .ifPresent(
+                          path ->
+                              changedLines.put(path.replace(File.separatorChar, '.'), lines)));
+    } catch (IOException e) {
+      log.warn("Failed to count changed lines, target classes will be ranked by cost only", e);
+    }
+    CostHistory history;
+    try {
+      history = CostHistory.load(costHistory.toPath());
+    } catch (IOException e) {
+      log.warn("Failed to load cost history, cost of classes will be estimated by default", e);
+      history = CostHistory.empty();
+    }
+
+    TimeBudget schedule =
+        TimeBudget.schedule(
+            Paths.get(project.getBuild().getOutputDirectory()),
+            targetClasses,
+            changedLines,
+            history,
+            TimeUnit.SECONDS.toMillis(timeBudget));
+    try {
+      schedule.writeDeferred(deferredClassesFile.toPath());
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to write " + deferredClassesFile, e);
+    }
+    log.info(
+        String.format(
+            "Selected %d classes estimated to take %d ms in time budget of %d seconds",
+            schedule.getSelected().size(), schedule.getEstimatedMillis(), timeBudget));
+    if (!schedule.getDeferred().isEmpty()) {
+      log.warn(
+          String.format(
+              "%d classes are deferred to following build, see %s",
+              schedule.getDeferred().size(), deferredClassesFile));
+    }
+    return schedule.getSelected();
+  }
+
+  /**
+   * @return true if {@link #checkpointDirectory} can be used with other parameters
+   */
+  private boolean isCheckpointAvailable(Log log) {
+    if (uncommitted != UncommittedChanges.IGNORE
+        || changeSetBackend == ChangeSetBackend.FILE_LIST) {
+      log.warn("Checkpoint is available only when both target and source are commits.");
+      return false;
+    } else if (findingsCache == null) {
+      log.warn("Checkpoint is available only with findingsCache, to reuse findings of classes.");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return The checkpoint of this project, or empty if it does not exist or cannot be used to
+   *     compute difference from current target to source.
+   */
+  private Optional<Checkpoint> loadCheckpoint(Log log) {
+    Path basedir = project.getBasedir().toPath();
+    try {
+      Optional<Checkpoint> checkpoint = Checkpoint.load(checkpointFile());
+      if (!checkpoint.isPresent()) {
+        return Optional.empty();
+      }
+      String base = checkpoint.get().getBase();
+      String checkpointSource = checkpoint.get().getSource();
+      if (!base.equals(detector.resolveCommit(basedir, diffBase).name())) {
+        log.info(
+            String.format(
+                "%s has been updated since checkpoint, difference from it will be analyzed.",
+                diffBase));
+        return Optional.empty();
+      }
+      if (!detector.isAncestor(basedir, checkpointSource, source)) {
+        log.info(
+            String.format(
+                "Checkpoint %s is not an ancestor of %s, difference from %s will be analyzed.",
+                checkpointSource, source, diffBase));
+        return Optional.empty();
+      }
+      log.info(String.format("Difference from checkpoint %s will be analyzed.", checkpointSource));
+      return checkpoint;
+    } catch (IOException e) {
+      log.warn("Failed to load checkpoint, difference from " + diffBase + " will be analyzed", e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Record the source commit and target classes, so the next build can start from them. Findings of
+   * target classes are stored by the {@code findings} goal, and a class whose findings are not
+   * stored will be analyzed again in the next build.
+   *
+   * @param targetClasses A non-null list of name of classes updated since the base commit.
+   */
+  private void saveCheckpoint(List<String> targetClasses) {
+    Path basedir = project.getBasedir().toPath();
+    try {
+      new Checkpoint(
+              detector.resolveCommit(basedir, diffBase).name(),
+              detector.resolveCommit(basedir, source).name(),
+              targetClasses)
+          .save(checkpointFile());
+    } catch (IOException e) {
+      getLog().warn("Failed to save checkpoint, next build will analyze whole difference", e);
+    }
+  }
+
+  /** @return A non-null path of checkpoint file for this project. */
+  private Path checkpointFile() {
+    return checkpointDirectory
+        .toPath()
+        .resolve(project.getGroupId() + "." + project.getArtifactId() + ".txt");
+  }
+
+  /**
+   * @param updatedClasses A non-null list of name of classes updated since the checkpoint.
+   * @param checkpoint A non-null checkpoint of this project.
+   * @return A non-null list of name of updated classes followed by classes updated before the
+   *     checkpoint, which still exist.
+   */
+  private List<String> withCheckpointClasses(List<String> updatedClasses, Checkpoint checkpoint) {
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    Set<String> result = new LinkedHashSet<>(updatedClasses);
+    checkpoint.getClasses().stream()
+        .filter(
+            className ->
+                Files.isRegularFile(
+                    outputDirectory.resolve(className.replace('.', File.separatorChar) + ".class")))
+        .forEach(result::add);
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * @return ID of the merge base of target and source, or {@link #target} if it is not found.
+   *     Uncommitted changes are compared with the merge base of target and {@code HEAD}.
+   */
+  private String findMergeBase(Log log) throws MojoExecutionException {
+    String head = uncommitted == UncommittedChanges.IGNORE ? source : Constants.HEAD;
+    Optional<ObjectId> found;
+    try {
+      found =
+          detector.findMergeBase(project.getBasedir().toPath(), target, head, mergeBaseMaxCommits);
+    } catch (IOException e) {
+      throw new MojoExecutionException(
+          String.format("Failed to find merge base of %s and %s", target, head), e);
+    }
+    if (found.isPresent()) {
+      log.debug(String.format("Merge base of %s and %s is %s", target, head, found.get().name()));
+      return found.get().name();
+    }
+    log.warn(
+        String.format(
+            "Merge base of %s and %s is not found within %d commits, or history is shallow. "
+                + "Comparing with %s directly, fetch more history (e.g. git fetch --deepen) "
+                + "to use merge base.",
+            target, head, mergeBaseMaxCommits, target));
+    return target;
+  }
+
+  private ChangeSetProvider createChangeSetProvider() throws MojoExecutionException {
+    switch (changeSetBackend) {
+      case GIT:
+        return new GitCommandChangeSetProvider(gitExecutable);
+      case FILE_LIST:
+        if (changedFileList == null) {
+          throw new MojoExecutionException(
+              "changedFileList parameter is required to use FILE_LIST backend");
+        }
+        return new FileListChangeSetProvider(changedFileList.toPath());
+      case JGIT:
+      default:
+        return new JGitChangeSetProvider();
+    }
+  }
+
+  private void saveMetrics(Log log) {
+    if (metricsFile == null || metricsFile.getPath().isEmpty()) {
+      return;
+    }
+    try {
+      metrics.save(metricsFile.toPath(), project.getGroupId() + ":" + project.getArtifactId());
+    } catch (IOException e) {
+      log.warn("Failed to save metrics to " + metricsFile, e);
+    }
+  }
+
   /**
    * @param compileSourceRoots A non-null collection of compile source root.
    * @param updatedJavaCodes A non-null stream of updated Java codes.
-   * @return {@code Stream} of name of updated classes, such as {@literal com.worksap.ClassName}
+   * @return {@code List} of name of updated classes, such as {@literal com.worksap.ClassName}
    */
   @VisibleForTesting
-  Stream<String> codeToClass(Collection<Path> compileSourceRoots, Stream<Path> updatedJavaCodes) {
+  List<String> codeToClass(Collection<Path> compileSourceRoots, Stream<Path> updatedJavaCodes) {
     assert compileSourceRoots != null;
     assert updatedJavaCodes != null;
 
@@ -158,8 +781,254 @@ public class SpotBugsMojo extends AbstractMojo {
             .flatMap(this::streamFrom)
             .map(Path::toString);
 
-    ClassSearcher searcher = new ClassSearcher(Paths.get(project.getBuild().getOutputDirectory()));
-    return searcher.search(relativeJavaCodePaths);
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    Supplier<ClassIndex> indexLoader =
+        () ->
+            classIndex
+                ? ClassIndex.load(ClassSearcher.indexFileFor(outputDirectory))
+                : ClassIndex.inMemory();
+    Optional<ResidentIndex> residentIndex =
+        resident ? ResidentIndex.of(outputDirectory, indexLoader) : Optional.empty();
+    ClassIndex index = residentIndex.map(ResidentIndex::index).orElseGet(indexLoader);
+    int parallelism =
+        scanParallelism == 0 ? Runtime.getRuntime().availableProcessors() : scanParallelism;
+    ClassSearcher searcher =
+        new ClassSearcher(
+            outputDirectory,
+            index,
+            parallelism,
+            discoverNestedClasses ? compileSourceRoots : Collections.emptySet(),
+            metrics);
+    List<String> targetClasses =
+        residentIndex.isPresent()
+            ? residentIndex
+                .get()
+                .search(relativeJavaCodePaths.collect(Collectors.toList()), searcher::search)
+            : searcher.search(relativeJavaCodePaths).collect(Collectors.toList());
+    try {
+      index.save();
+    } catch (IOException e) {
+      getLog().warn("Failed to save index of class files, next build will parse them again", e);
+    }
+    return targetClasses;
+  }
+
+  /**
+   * @param targetClasses A non-null list of name of classes to analyze.
+   * @return true if ratio of target classes to all classes exceeds {@link #fullAnalysisThreshold}
+   */
+  private boolean exceedsFullAnalysisThreshold(List<String> targetClasses)
+      throws MojoExecutionException {
+    long total;
+    try {
+      total = OnlyAnalyze.countClassFiles(Paths.get(project.getBuild().getOutputDirectory()));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Failed to count class files", e);
+    }
+    return total > 0 && (double) targetClasses.size() / total > fullAnalysisThreshold;
+  }
+
+  /**
+   * Remove classes whose fingerprint is same with {@link #fingerprintBaseline}.
+   *
+   * @param updatedClasses A non-null list of name of updated classes in this project.
+   * @return A non-null list of name of updated classes whose bytecode has been changed.
+   */
+  private List<String> withoutUnchangedBytecode(List<String> updatedClasses) {
+    Map<String, String> baseline;
+    try {
+      baseline = Fingerprints.load(fingerprintBaseline.toPath());
+    } catch (IOException e) {
+      getLog()
+          .warn(
+              "Failed to load fingerprints of class files, every updated class will be analyzed",
+              e);
+      return updatedClasses;
+    }
+
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    List<String> result = new ArrayList<>();
+    for (String className : updatedClasses) {
+      String expected = baseline.get(className);
+      if (expected != null) {
+        Path classFile =
+            outputDirectory.resolve(className.replace('.', File.separatorChar) + ".class");
+        try {
+          if (expected.equals(Fingerprints.of(classFile))) {
+            getLog().debug("Bytecode is not changed: " + className);
+            continue;
+          }
+        } catch (IOException e) {
+          getLog().debug("Failed to compute fingerprint of " + classFile, e);
+        }
+      }
+      result.add(className);
+    }
+    return result;
+  }
+
+  /**
+   * Remove classes whose findings are cached in {@link #findingsCache}, and share them with the
+   * {@code findings} goal. If no class needs analysis but some cached class has findings, such
+   * classes are analyzed again so spotbugs-maven-plugin can report them.
+   *
+   * @param targetClasses A non-null list of name of classes to analyze.
+   * @return A non-null list of name of classes which need analysis.
+   */
+  private List<String> withoutCachedFindings(List<String> targetClasses) throws IOException {
+    FindingsCache cache =
+        new FindingsCache(
+            findingsCache.toPath(), FindingsCache.configurationOf(session, project));
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory());
+    List<String> result = new ArrayList<>();
+    List<String> cached = new ArrayList<>();
+    List<String> cachedWithFindings = new ArrayList<>();
+    for (String className : targetClasses) {
+      Path classFile =
+          outputDirectory.resolve(className.replace('.', File.separatorChar) + ".class");
+      Optional<BugCollectionXml> findings =
+          Files.isRegularFile(classFile) ? cache.load(cache.keyOf(classFile)) : Optional.empty();
+      if (!findings.isPresent()) {
+        result.add(className);
+      } else {
+        cached.add(className);
+        if (!findings.get().bugInstances().isEmpty()) {
+          cachedWithFindings.add(className);
+        }
+      }
+    }
+    if (result.isEmpty() && !cachedWithFindings.isEmpty()) {
+      cached.removeAll(cachedWithFindings);
+      result.addAll(cachedWithFindings);
+    }
+
+    project.setContextValue(FindingsCache.CACHED_CLASSES, cached);
+    getLog().info(String.format("Found cached findings of %d classes", cached.size()));
+    return result;
+  }
+
+  /**
+   * Add classes in this project which refer updated classes in this project and its upstream
+   * projects, within {@link #dependentDepth}. Other projects in the reactor cannot be referred from
+   * this project, so they are not scanned. References in each output directory are scanned only
+   * once per build, and shared with other modules via {@link ReferenceSession}.
+   *
+   * @param compileSourceRoots A non-null set of compile source roots of this project.
+   * @param updatedClasses A non-null list of name of updated classes in this project.
+   * @return A non-null list of name of updated classes followed by name of their dependents.
+   */
+  private List<String> withDependents(Set<Path> compileSourceRoots, List<String> updatedClasses)
+      throws IOException {
+    Path outputDirectory = Paths.get(project.getBuild().getOutputDirectory()).toAbsolutePath();
+    Set<String> seeds =
+        updatedClasses.stream()
+            .map(className -> className.replace('.', '/'))
+            .collect(Collectors.toCollection(HashSet::new));
+    ReferenceSession referenceSession = ReferenceSession.of(session);
+    List<ReferenceGraph> graphs = new ArrayList<>();
+
+    for (MavenProject upstreamProject :
+        session.getProjectDependencyGraph().getUpstreamProjects(project, true)) {
+      Path upstreamOutputDirectory =
+          Paths.get(upstreamProject.getBuild().getOutputDirectory()).toAbsolutePath();
+      if (!Files.isDirectory(upstreamOutputDirectory)) {
+        // no class file, so nothing in it can be referred from this project
+        continue;
+      }
+      seeds.addAll(updatedClassesIn(upstreamProject, upstreamOutputDirectory, compileSourceRoots));
+      graphs.add(
+          referenceSession
+              .module(upstreamOutputDirectory, () -> loadReferenceIndex(upstreamOutputDirectory))
+              .getGraph());
+    }
+    if (!Files.isDirectory(outputDirectory)) {
+      return updatedClasses;
+    }
+    ReferenceSession.Module thisProject =
+        referenceSession.module(outputDirectory, () -> loadReferenceIndex(outputDirectory));
+    graphs.add(thisProject.getGraph());
+
+    List<String> result = new ArrayList<>(updatedClasses);
+    ReferenceGraph.dependentsOf(graphs, seeds, dependentDepth).stream()
+        .filter(thisProject.getClassNames()::contains)
+        .map(className -> className.replace('/', '.'))
+        .forEach(
+            className -> {
+              getLog().debug("Dependent class: " + className);
+              result.add(className);
+            });
+    return result;
+  }
+
+  /**
+   * @param outputDirectory A non-null output directory of a project in the reactor.
+   * @return A non-null index of class references synchronized with given output directory.
+   */
+  private ReferenceIndex loadReferenceIndex(Path outputDirectory) throws IOException {
+    ReferenceIndex index =
+        classIndex
+            ? ReferenceIndex.load(ReferenceIndex.indexFileFor(outputDirectory))
+            : ReferenceIndex.inMemory();
+    index.update(outputDirectory, metrics);
+    try {
+      index.save();
+    } catch (IOException e) {
+      getLog()
+          .warn("Failed to save index of class references, next build will parse them again", e);
+    }
+    return index;
+  }
+
+  /**
+   * @param reactorProject A non-null project in the reactor, which is not the current project.
+   * @param reactorOutputDirectory A non-null output directory of given project.
+   * @param compileSourceRoots A non-null set of compile source roots of this project.
+   * @return A non-null set of internal name of classes in given project compiled from updated
+   *     source.
+   */
+  private Set<String> updatedClassesIn(
+      MavenProject reactorProject, Path reactorOutputDirectory, Set<Path> compileSourceRoots)
+      throws IOException {
+    String sourceDirectory = reactorProject.getBuild().getSourceDirectory();
+    if (sourceDirectory == null) {
+      return Collections.emptySet();
+    }
+    Path sourceRoot = Paths.get(sourceDirectory).toAbsolutePath();
+    Stream<String> updatedJavaCodes =
+        detector
+            .detectUpdatedCode(
+                diffSession(),
+                project.getBasedir().toPath(),
+                getDiffScope(),
+                Collections.singleton(sourceRoot),
+                diffBase,
+                source,
+                uncommitted)
+            .map(sourceRoot::relativize)
+            .map(Path::toString);
+    // index of other project is read only, its owner updates the index file
+    ClassIndex index =
+        classIndex
+            ? ClassIndex.load(ClassSearcher.indexFileFor(reactorOutputDirectory))
+            : ClassIndex.inMemory();
+    return new ClassSearcher(reactorOutputDirectory, index, 1, Collections.emptySet(), metrics)
+        .search(updatedJavaCodes)
+        .map(className -> className.replace('.', '/'))
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * @return A non-null {@link DiffSession} to share computed difference. In resident mode,
+   *     difference between two commits is also shared with following builds.
+   */
+  private DiffSession diffSession() {
+    // file list may be updated without commit
+    if (resident
+        && uncommitted == UncommittedChanges.IGNORE
+        && changeSetBackend != ChangeSetBackend.FILE_LIST) {
+      return DiffSession.resident();
+    }
+    return DiffSession.of(session);
   }
 
   /** @return A non-null set of compile source roots. Each entry should be absolute {@link Path}. */
@@ -170,6 +1039,21 @@ public class SpotBugsMojo extends AbstractMojo {
         .collect(Collectors.toSet());
   }
 
+  /**
+   * @return A non-null set of directories to compute difference. It consists of source directories
+   *     of every project in the reactor, so all modules can share one computed difference. Note that
+   *     we refer source directories in the model instead of compile source roots, because other
+   *     modules may update their compile source roots in parallel build.
+   */
+  private Set<Path> getDiffScope() {
+    return session.getProjects().stream()
+        .map(reactorProject -> reactorProject.getBuild().getSourceDirectory())
+        .filter(Objects::nonNull)
+        .map(Paths::get)
+        .map(Path::toAbsolutePath)
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
   /**
    * A missing part in Java8: map {@link Optional} to {@link Stream}.
    *
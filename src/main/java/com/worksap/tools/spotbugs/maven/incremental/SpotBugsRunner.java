@@ -0,0 +1,379 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import edu.umd.cs.findbugs.BugInstance;
+import edu.umd.cs.findbugs.BugRanker;
+import edu.umd.cs.findbugs.ClassScreener;
+import edu.umd.cs.findbugs.DetectorFactory;
+import edu.umd.cs.findbugs.DetectorFactoryCollection;
+import edu.umd.cs.findbugs.FindBugs2;
+import edu.umd.cs.findbugs.NoOpFindBugsProgress;
+import edu.umd.cs.findbugs.Plugin;
+import edu.umd.cs.findbugs.PluginException;
+import edu.umd.cs.findbugs.Priorities;
+import edu.umd.cs.findbugs.Project;
+import edu.umd.cs.findbugs.XMLBugReporter;
+import edu.umd.cs.findbugs.config.UserPreferences;
+import edu.umd.cs.findbugs.filter.FilterException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.dom4j.DocumentException;
+
+/**
+ * A runner of SpotBugs engine in the current JVM. It avoids launching new JVM for each module,
+ * which dominates analysis time when only a few classes are updated.
+ *
+ * <p>SpotBugs engine keeps its analysis context in static fields, so this class runs only one
+ * analysis at a time in the JVM.
+ */
+final class SpotBugsRunner {
+  private static final Object LOCK = new Object();
+
+  /** Plugins which this class has loaded into the JVM. Guarded by {@link #LOCK}. */
+  private static final Set<URI> LOADED_PLUGINS = new HashSet<>();
+
+  private final List<Path> auxClasspath = new ArrayList<>();
+  private final List<Path> sourceDirs = new ArrayList<>();
+  private final List<Path> includeFilters = new ArrayList<>();
+  private final List<Path> excludeFilters = new ArrayList<>();
+  private final List<Path> baselines = new ArrayList<>();
+  private final List<Path> userPrefs = new ArrayList<>();
+  private final List<Path> plugins = new ArrayList<>();
+  private final List<String> visitors = new ArrayList<>();
+  private final List<String> omitVisitors = new ArrayList<>();
+  private String effort = UserPreferences.EFFORT_DEFAULT;
+  private int priorityThreshold = Priorities.NORMAL_PRIORITY;
+  private int rankThreshold = BugRanker.VISIBLE_RANK_MAX;
+  private boolean relaxed;
+  private boolean nested;
+  private long analysisMillis;
+
+  SpotBugsRunner auxClasspath(Collection<Path> entries) {
+    auxClasspath.addAll(entries);
+    return this;
+  }
+
+  SpotBugsRunner sourceDirs(Collection<Path> dirs) {
+    sourceDirs.addAll(dirs);
+    return this;
+  }
+
+  SpotBugsRunner includeFilter(Path filter) {
+    includeFilters.add(Objects.requireNonNull(filter));
+    return this;
+  }
+
+  SpotBugsRunner excludeFilter(Path filter) {
+    excludeFilters.add(Objects.requireNonNull(filter));
+    return this;
+  }
+
+  /** @param baseline XML report of bugs to exclude, like the {@code excludeBugsFile} parameter. */
+  SpotBugsRunner excludeBugs(Path baseline) {
+    baselines.add(Objects.requireNonNull(baseline));
+    return this;
+  }
+
+  /** @param file User preferences file of SpotBugs, like the {@code userPrefs} parameter. */
+  SpotBugsRunner userPrefs(Path file) {
+    userPrefs.add(Objects.requireNonNull(file));
+    return this;
+  }
+
+  /** @param jar SpotBugs plugin such as find-sec-bugs, which is loaded into the current JVM. */
+  SpotBugsRunner plugin(Path jar) {
+    plugins.add(Objects.requireNonNull(jar));
+    return this;
+  }
+
+  /** @param names Short names of detectors to run. Other detectors are disabled. */
+  SpotBugsRunner visitors(Collection<String> names) {
+    visitors.addAll(names);
+    return this;
+  }
+
+  /** @param names Short names of detectors not to run, such as {@code "DumbMethods"}. */
+  SpotBugsRunner omitVisitors(Collection<String> names) {
+    omitVisitors.addAll(names);
+    return this;
+  }
+
+  /** @param maxRank Bugs whose rank is greater than this value are not reported. */
+  SpotBugsRunner rankThreshold(int maxRank) {
+    if (maxRank < BugRanker.VISIBLE_RANK_MIN || maxRank > BugRanker.VISIBLE_RANK_MAX) {
+      throw new IllegalArgumentException("Unknown rank: " + maxRank);
+    }
+    rankThreshold = maxRank;
+    return this;
+  }
+
+  SpotBugsRunner relaxed(boolean relaxed) {
+    this.relaxed = relaxed;
+    return this;
+  }
+
+  /** @param nested Flag to analyze archives nested in output directory. */
+  SpotBugsRunner nested(boolean nested) {
+    this.nested = nested;
+    return this;
+  }
+
+  /** @param effort {@code "min"}, {@code "default"} or {@code "max"} */
+  SpotBugsRunner effort(String effort) {
+    String lowerCase = effort.toLowerCase(Locale.ROOT);
+    switch (lowerCase) {
+      case UserPreferences.EFFORT_MIN:
+      case UserPreferences.EFFORT_DEFAULT:
+      case UserPreferences.EFFORT_MAX:
+        this.effort = lowerCase;
+        return this;
+      case "less":
+        this.effort = UserPreferences.EFFORT_MIN;
+        return this;
+      case "more":
+        this.effort = UserPreferences.EFFORT_MAX;
+        return this;
+      default:
+        throw new IllegalArgumentException("Unknown effort: " + effort);
+    }
+  }
+
+  /**
+   * @param threshold {@code "high"}, {@code "medium"}, {@code "default"}, {@code "low"} or {@code
+   *     "exp"}
+   */
+  SpotBugsRunner threshold(String threshold) {
+    switch (threshold.toLowerCase(Locale.ROOT)) {
+      case "high":
+        priorityThreshold = Priorities.HIGH_PRIORITY;
+        return this;
+      case "medium":
+      case "default":
+        priorityThreshold = Priorities.NORMAL_PRIORITY;
+        return this;
+      case "low":
+        priorityThreshold = Priorities.LOW_PRIORITY;
+        return this;
+      case "exp":
+      case "experimental":
+        priorityThreshold = Priorities.EXP_PRIORITY;
+        return this;
+      default:
+        throw new IllegalArgumentException("Unknown threshold: " + threshold);
+    }
+  }
+
+  /**
+   * @return Time spent by the analysis phase of the last run in milliseconds, except overhead such
+   *     as building classpath.
+   */
+  long getAnalysisMillis() {
+    return analysisMillis;
+  }
+
+  /**
+   * Analyze given classes, and write XML report in the same format with spotbugs-maven-plugin.
+   *
+   * @param outputDir A non-null directory which contains classes to analyze.
+   * @param targetClasses A non-null collection of class names, in the same format with {@code
+   *     -onlyAnalyze} option such as {@code "com.worksap.ClassName"} and {@code "com.worksap.*"}.
+   * @param xmlReport A non-null path to write XML report.
+   * @return A non-null list of found bugs.
+   * @throws IOException when failed to read classes or to write report
+   */
+  List<BugInstance> analyze(Path outputDir, Collection<String> targetClasses, Path xmlReport)
+      throws IOException {
+    return analyze(Collections.singleton(outputDir), targetClasses, xmlReport);
+  }
+
+  /**
+   * Analyze given classes in several output directories by one analysis, and write XML report in
+   * the same format with spotbugs-maven-plugin.
+   *
+   * @param outputDirs A non-null collection of directories which contain classes to analyze.
+   * @param targetClasses A non-null collection of class names, in the same format with {@code
+   *     -onlyAnalyze} option such as {@code "com.worksap.ClassName"} and {@code "com.worksap.*"}.
+   * @param xmlReport A non-null path to write XML report.
+   * @return A non-null list of found bugs.
+   * @throws IOException when failed to read classes or to write report
+   */
+  List<BugInstance> analyze(
+      Collection<Path> outputDirs, Collection<String> targetClasses, Path xmlReport)
+      throws IOException {
+    Objects.requireNonNull(outputDirs);
+    Objects.requireNonNull(targetClasses);
+    Objects.requireNonNull(xmlReport);
+
+    Project project = new Project();
+    outputDirs.forEach(outputDir -> project.addFile(outputDir.toAbsolutePath().toString()));
+    auxClasspath.forEach(entry -> project.addAuxClasspathEntry(entry.toString()));
+    sourceDirs.forEach(dir -> project.addSourceDir(dir.toString()));
+
+    ClassScreener screener = new ClassScreener();
+    for (String targetClass : targetClasses) {
+      // same with -onlyAnalyze option of SpotBugs
+      if (targetClass.endsWith(".-")) {
+        screener.addAllowedPrefix(targetClass.substring(0, targetClass.length() - 1));
+      } else if (targetClass.endsWith(".*")) {
+        screener.addAllowedPackage(targetClass.substring(0, targetClass.length() - 1));
+      } else {
+        screener.addAllowedClass(targetClass);
+      }
+    }
+
+    UserPreferences preferences = UserPreferences.createDefaultUserPreferences();
+    for (Path file : userPrefs) {
+      try (InputStream input = Files.newInputStream(file)) {
+        preferences.read(input);
+      }
+    }
+    preferences.setEffort(effort);
+
+    Files.createDirectories(xmlReport.toAbsolutePath().getParent());
+    synchronized (LOCK) {
+      loadPlugins();
+      configureDetectors(preferences);
+      try (OutputStream output = Files.newOutputStream(xmlReport);
+          PrintStream printStream = new PrintStream(output, false, StandardCharsets.UTF_8.name());
+          FindBugs2 engine = new FindBugs2()) {
+        XMLBugReporter reporter = new XMLBugReporter(project);
+        reporter.setAddMessages(true);
+        reporter.setPriorityThreshold(priorityThreshold);
+        reporter.setRankThreshold(rankThreshold);
+        reporter.setIsRelaxed(relaxed);
+        reporter.setOutputStream(printStream);
+
+        engine.setProject(project);
+        engine.setBugReporter(reporter);
+        engine.setDetectorFactoryCollection(DetectorFactoryCollection.instance());
+        engine.setUserPreferences(preferences);
+        engine.setAnalysisFeatureSettings(preferences.getAnalysisFeatureSettings());
+        engine.setClassScreener(screener);
+        engine.setNoClassOk(true);
+        engine.setRelaxedReportingMode(relaxed);
+        engine.setScanNestedArchives(nested);
+        for (Path filter : includeFilters) {
+          engine.addFilter(filter.toString(), true);
+        }
+        for (Path filter : excludeFilters) {
+          engine.addFilter(filter.toString(), false);
+        }
+        for (Path baseline : baselines) {
+          engine.excludeBaselineBugs(baseline.toString());
+        }
+        AnalysisTimer timer = new AnalysisTimer();
+        engine.setProgressCallback(timer);
+        engine.execute();
+        analysisMillis = timer.elapsedMillis();
+        return new ArrayList<>(reporter.getBugCollection().getCollection());
+      } catch (FilterException e) {
+        throw new IOException("Failed to load filter file", e);
+      } catch (DocumentException e) {
+        throw new IOException("Failed to load bugs to exclude", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while running SpotBugs", e);
+      }
+    }
+  }
+
+  /**
+   * Load SpotBugs plugins into {@link DetectorFactoryCollection}. Plugins are shared in the JVM, so
+   * plugins loaded for previous analysis, e.g. for other module or by other build in Maven daemon,
+   * are removed unless this analysis also uses them.
+   */
+  private void loadPlugins() throws IOException {
+    Set<URI> requested = plugins.stream().map(Path::toUri).collect(Collectors.toSet());
+    boolean removed = false;
+    for (Iterator<URI> iterator = LOADED_PLUGINS.iterator(); iterator.hasNext(); ) {
+      URI uri = iterator.next();
+      if (!requested.contains(uri)) {
+        Plugin plugin = Plugin.getAllPluginsMap().get(uri);
+        if (plugin != null) {
+          Plugin.removeCustomPlugin(plugin);
+          removed = true;
+        }
+        iterator.remove();
+      }
+    }
+    if (removed) {
+      // removed plugin stays in the collection, so let it be rebuilt from remaining plugins
+      DetectorFactoryCollection.resetInstance(null);
+    }
+    for (URI uri : requested) {
+      if (Plugin.getAllPluginsURIs().contains(uri)) {
+        continue;
+      }
+      try {
+        Plugin.addCustomPlugin(uri);
+      } catch (PluginException e) {
+        throw new IOException("Failed to load SpotBugs plugin " + uri, e);
+      }
+      LOADED_PLUGINS.add(uri);
+    }
+  }
+
+  /** Enable or disable detectors in given preferences, like the {@code -visitors} option. */
+  private void configureDetectors(UserPreferences preferences) {
+    DetectorFactoryCollection factories = DetectorFactoryCollection.instance();
+    if (!visitors.isEmpty()) {
+      for (DetectorFactory factory : factories.getFactories()) {
+        preferences.enableDetector(factory, visitors.contains(factory.getShortName()));
+      }
+    }
+    for (String name : omitVisitors) {
+      DetectorFactory factory = factories.getFactory(name);
+      if (factory == null) {
+        throw new IllegalArgumentException("Unknown detector: " + name);
+      }
+      preferences.enableDetector(factory, false);
+    }
+  }
+
+  /** A progress callback which measures time since the analysis phase starts. */
+  private static final class AnalysisTimer extends NoOpFindBugsProgress {
+    private long start;
+    private boolean started;
+
+    @Override
+    public void startAnalysis(int numClasses) {
+      start = System.nanoTime();
+      started = true;
+    }
+
+    long elapsedMillis() {
+      return started ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : 0;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A schedule of target classes which fit in a time budget of analysis. Classes are ranked by
+ * changed lines of their source file first and estimated cost second, so most changed and cheapest
+ * classes are analyzed first. Other classes are deferred, and listed in a report so a following
+ * build such as nightly job can analyze them.
+ *
+ * <p>Nested classes are kept with their outer class, because SpotBugs analyzes them together.
+ */
+final class TimeBudget {
+  private final List<String> selected;
+  private final List<String> deferred;
+  private final long estimatedMillis;
+
+  private TimeBudget(List<String> selected, List<String> deferred, long estimatedMillis) {
+    this.selected = Collections.unmodifiableList(selected);
+    this.deferred = Collections.unmodifiableList(deferred);
+    this.estimatedMillis = estimatedMillis;
+  }
+
+  /**
+   * @param outputDir A non-null output directory which contains class files.
+   * @param targetClasses A non-null collection of class names such as {@code
+   *     "com.worksap.ClassName$1"}.
+   * @param changedLines A non-null map from outer class name to changed lines of its source file.
+   *     Missing class is regarded as having no changed line, e.g. dependents of updated classes.
+   * @param history A non-null history to estimate cost of each class and overhead of the run.
+   * @param budgetMillis A non-negative time budget in milliseconds.
+   * @return A non-null schedule. Both of selected and deferred classes keep order of given classes.
+   */
+  static TimeBudget schedule(
+      Path outputDir,
+      Collection<String> targetClasses,
+      Map<String, Integer> changedLines,
+      CostHistory history,
+      long budgetMillis) {
+    Objects.requireNonNull(outputDir);
+    Objects.requireNonNull(targetClasses);
+    Objects.requireNonNull(changedLines);
+    Objects.requireNonNull(history);
+    if (budgetMillis < 0) {
+      throw new IllegalArgumentException("Time budget should not be negative: " + budgetMillis);
+    }
+
+    // Key: outer class name such as "com.worksap.ClassName", Value: size of its class files
+    Map<String, Long> groups = new LinkedHashMap<>();
+    for (String className : targetClasses) {
+      groups.merge(Shards.outerClassOf(className), Shards.sizeOf(outputDir, className), Long::sum);
+    }
+    List<String> ranked = new ArrayList<>(groups.keySet());
+    ranked.sort(
+        Comparator.<String>comparingInt(group -> changedLines.getOrDefault(group, 0))
+            .reversed()
+            .thenComparingLong(groups::get)
+            .thenComparing(Comparator.naturalOrder()));
+
+    // smaller group ranked lower may still fit in the rest of budget
+    Map<String, Boolean> fits = new HashMap<>();
+    long overhead = history.getOverheadMillis();
+    long estimatedMillis = 0;
+    for (String group : ranked) {
+      long cost = history.estimateMillis(groups.get(group));
+      boolean fit = overhead + estimatedMillis + cost <= budgetMillis;
+      if (fit) {
+        estimatedMillis += cost;
+      }
+      fits.put(group, fit);
+    }
+    if (fits.containsValue(true)) {
+      estimatedMillis += overhead;
+    }
+
+    List<String> selected = new ArrayList<>();
+    List<String> deferred = new ArrayList<>();
+    for (String className : targetClasses) {
+      if (fits.get(Shards.outerClassOf(className))) {
+        selected.add(className);
+      } else {
+        deferred.add(className);
+      }
+    }
+    return new TimeBudget(selected, deferred, estimatedMillis);
+  }
+
+  /** @return A non-null list of class names to analyze in this build. */
+  List<String> getSelected() {
+    return selected;
+  }
+
+  /** @return A non-null list of class names which did not fit in the budget. */
+  List<String> getDeferred() {
+    return deferred;
+  }
+
+  /** @return Estimated time to analyze selected classes including overhead, in milliseconds. */
+  long getEstimatedMillis() {
+    return estimatedMillis;
+  }
+
+  /**
+   * Write deferred classes to given file, one class name per line. The file is written even if no
+   * class is deferred, so a stale report of earlier build does not remain.
+   *
+   * @param file A non-null path of report file to write.
+   * @throws IOException when failed to write the file
+   */
+  void writeDeferred(Path file) throws IOException {
+    Objects.requireNonNull(file);
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+        for (String className : deferred) {
+          writer.write(className);
+          writer.newLine();
+        }
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+/** Uncommitted changes to compare with the target commit. */
+public enum UncommittedChanges {
+  /** Compare committed source with target, and ignore uncommitted changes. */
+  IGNORE,
+  /** Compare the Git index with target, so staged changes are analyzed. */
+  STAGED,
+  /**
+   * Compare the working tree with target, so staged, unstaged and untracked changes are analyzed.
+   * Ignored files are excluded.
+   */
+  ALL
+}
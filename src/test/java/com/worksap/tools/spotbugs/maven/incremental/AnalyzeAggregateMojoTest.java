@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.junit.Test;
+
+public class AnalyzeAggregateMojoTest {
+  private static final String PLUGIN_KEY = "com.worksap.tools:incremental-analysis-maven-plugin";
+  private static final String GOAL = "analyze-aggregate";
+
+  @Test
+  public void testAggregatorIsLastModuleWhichBindsGoal() {
+    List<MavenProject> projects =
+        Arrays.asList(module("verify"), module("verify"), module(null), module("none"));
+    assertThat(AnalyzeAggregateMojo.aggregatorOf(projects, PLUGIN_KEY, GOAL), is(1));
+  }
+
+  @Test
+  public void testAggregatorIsLastModuleWhenNoModuleBindsGoal() {
+    List<MavenProject> projects = Arrays.asList(module(null), module("none"), module(null));
+    assertThat(AnalyzeAggregateMojo.aggregatorOf(projects, PLUGIN_KEY, GOAL), is(2));
+  }
+
+  /**
+   * @param phase Phase to bind the goal, or {@code null} to create a module without the plugin.
+   * @return A non-null module.
+   */
+  private static MavenProject module(String phase) {
+    Build build = new Build();
+    if (phase != null) {
+      PluginExecution execution = new PluginExecution();
+      execution.setPhase(phase);
+      execution.addGoal(GOAL);
+      Plugin plugin = new Plugin();
+      plugin.setGroupId("com.worksap.tools");
+      plugin.setArtifactId("incremental-analysis-maven-plugin");
+      plugin.addExecution(execution);
+      build.addPlugin(plugin);
+    }
+    Model model = new Model();
+    model.setBuild(build);
+    return new MavenProject(model);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+public class AuxClasspathTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReduce() throws IOException {
+    // Target -> Local -> Base (lib.jar) -> Dependency (dependency.jar), and field of List<Value>
+    Path outputDir = folder.newFolder("classes").toPath();
+    write(outputDir, "com/example/Target", "com/example/Local", null);
+    write(outputDir, "com/example/Local", "com/lib/Base", null);
+    write(outputDir, "com/example/Unused", "com/unused/Unused", null);
+    write(
+        outputDir,
+        "com/example/Generic",
+        "java/lang/Object",
+        "Ljava/util/List<Lcom/value/Value;>;");
+    Path lib = jar("lib.jar", "com/lib/Base", "com/dependency/Dependency");
+    Path dependency = jar("dependency.jar", "com/dependency/Dependency", "java/lang/Object");
+    Path value = jar("value.jar", "com/value/Value", "java/lang/Object");
+    Path unused = jar("unused.jar", "com/unused/Unused", "java/lang/Object");
+    List<Path> classpath = Arrays.asList(unused, value, dependency, lib);
+
+    Path indexFile = folder.getRoot().toPath().resolve("aux-classpath.idx");
+    AuxClasspath index = AuxClasspath.load(indexFile);
+    assertThat(
+        index.reduce(outputDir, Collections.singleton("com.example.Target"), classpath).get(),
+        contains(dependency, lib));
+    index.save();
+    assertThat(
+        AuxClasspath.load(indexFile)
+            .reduce(
+                outputDir, Arrays.asList("com.example.Target", "com.example.Generic"), classpath)
+            .get(),
+        contains(value, dependency, lib));
+  }
+
+  @Test
+  public void testReduceWithMissingClass() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    write(outputDir, "com/example/Target", "com/missing/Missing", null);
+    List<Path> classpath =
+        Collections.singletonList(jar("lib.jar", "com/lib/Base", "java/lang/Object"));
+
+    assertThat(
+        AuxClasspath.inMemory()
+            .reduce(outputDir, Collections.singleton("com.example.Target"), classpath),
+        is(Optional.empty()));
+  }
+
+  @Test
+  public void testReduceWithNonClassTarget() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    write(outputDir, "com/example/Target", "java/lang/Object", null);
+    List<Path> classpath =
+        Collections.singletonList(jar("lib.jar", "com/lib/Base", "java/lang/Object"));
+
+    for (String target : Arrays.asList("com.example.*", "com.example.-", "@targets.txt")) {
+      assertThat(
+          AuxClasspath.inMemory()
+              .reduce(outputDir, Arrays.asList("com.example.Target", target), classpath),
+          is(Optional.empty()));
+    }
+  }
+
+  private void write(Path outputDir, String internalName, String superName, String signature)
+      throws IOException {
+    Path classFile = outputDir.resolve(internalName + ".class");
+    Files.createDirectories(classFile.getParent());
+    Files.write(classFile, generate(internalName, superName, signature));
+  }
+
+  private Path jar(String name, String internalName, String superName) throws IOException {
+    Path jar = folder.getRoot().toPath().resolve(name);
+    try (OutputStream output = Files.newOutputStream(jar);
+        JarOutputStream jarOutput = new JarOutputStream(output)) {
+      jarOutput.putNextEntry(new JarEntry(internalName + ".class"));
+      jarOutput.write(generate(internalName, superName, null));
+      jarOutput.closeEntry();
+    }
+    return jar;
+  }
+
+  private static byte[] generate(String internalName, String superName, String signature) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, superName, null);
+    if (signature != null) {
+      writer.visitField(Opcodes.ACC_PRIVATE, "values", "Ljava/util/List;", signature, null);
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
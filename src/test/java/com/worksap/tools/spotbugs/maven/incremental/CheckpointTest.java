@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("checkpoint/com.worksap.example.txt");
+    assertThat(Checkpoint.load(file), is(Optional.empty()));
+
+    new Checkpoint("base", "source", Arrays.asList("com.worksap.ClassName", "com.worksap.Other$1"))
+        .save(file);
+    Checkpoint loaded = Checkpoint.load(file).get();
+    assertThat(loaded.getBase(), is("base"));
+    assertThat(loaded.getSource(), is("source"));
+    assertThat(loaded.getClasses(), contains("com.worksap.ClassName", "com.worksap.Other$1"));
+
+    Files.write(file, "broken".getBytes(StandardCharsets.UTF_8));
+    assertThat(Checkpoint.load(file), is(Optional.empty()));
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class ClassFileReaderTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testGeneratedClass() throws IOException {
+    assertSameWithAsm(generate("com/worksap/ClassName", "ClassName.java", 1));
+    assertSameWithAsm(
+        generate("com/worksap/test/ClassName$InternalClassName", "ClassName.java", 3));
+    assertSameWithAsm(generate("com/worksap/verify/ClassName$1", "ClassName.java", 0));
+  }
+
+  @Test
+  public void testNonAsciiSourceName() throws IOException {
+    assertSameWithAsm(generate("com/worksap/Klasse", "Klässeクラス.java", 1));
+  }
+
+  @Test
+  public void testClassWithoutSourceFile() throws IOException {
+    Path classFile = generate("com/worksap/ClassName", null, 1);
+    assertThat(ClassFileReader.readSourceFile(classFile), is(nullValue()));
+    assertSameWithAsm(classFile);
+  }
+
+  @Test
+  public void testLargeClass() throws IOException {
+    Path classFile = generate("com/worksap/Generated", "Generated.java", 1000);
+    assertThat(Files.size(classFile), is(greaterThan(256L * 1024)));
+    assertSameWithAsm(classFile);
+  }
+
+  @Test
+  public void testCompiledClass() throws IOException {
+    assertSameWithAsm(copy(ClassSearcher.class));
+    assertSameWithAsm(copy(ClassSearcherTest.class));
+    // java.lang.Math has long and double constants, which take two entries in the constant pool
+    assertSameWithAsm(copy(Math.class));
+  }
+
+  @Test
+  public void testNest() throws IOException {
+    ClassFileReader.Nest nest = ClassFileReader.readNest(copy(ClassSearcher.class));
+    assertThat(nest.getSourceFile(), is("ClassSearcher.java"));
+    assertThat(
+        nest.getMembers(),
+        hasItem("com/worksap/tools/spotbugs/maven/incremental/ClassSearcher$Candidate"));
+
+    ClassFileReader.Nest nested = ClassFileReader.readNest(copy(ClassFileReader.Nest.class));
+    assertThat(nested.getSourceFile(), is("ClassFileReader.java"));
+    assertThat(
+        nested.getMembers(),
+        hasItem("com/worksap/tools/spotbugs/maven/incremental/ClassFileReader$Nest"));
+  }
+
+  @Test
+  public void testReferences() throws IOException {
+    ClassFileReader.References references =
+        ClassFileReader.readReferences(copy(ClassSearcher.class));
+    assertThat(
+        references.getClassName(),
+        is("com/worksap/tools/spotbugs/maven/incremental/ClassSearcher"));
+    assertThat(
+        references.getReferredClasses(),
+        hasItems(
+            "java/lang/Object",
+            "com/worksap/tools/spotbugs/maven/incremental/ClassIndex",
+            "com/worksap/tools/spotbugs/maven/incremental/ClassFileReader"));
+    assertThat(references.getReferredClasses(), not(hasItem(references.getClassName())));
+
+    // Math has long and double constants, and refers array class
+    ClassFileReader.References math = ClassFileReader.readReferences(copy(Math.class));
+    assertThat(math.getClassName(), is("java/lang/Math"));
+    assertThat(math.getReferredClasses(), everyItem(not(startsWith("["))));
+  }
+
+  private void assertSameWithAsm(Path classFile) throws IOException {
+    String[] expected = new String[1];
+    new ClassReader(Files.readAllBytes(classFile))
+        .accept(
+            new ClassVisitor(Opcodes.ASM7) {
+              @Override
+              public void visitSource(String source, String debug) {
+                expected[0] = source;
+              }
+            },
+            0);
+    assertThat(ClassFileReader.readSourceFile(classFile), is(expected[0]));
+  }
+
+  private Path copy(Class<?> clazz) throws IOException {
+    String resource = "/" + clazz.getName().replace('.', '/') + ".class";
+    Path classFile = folder.newFile().toPath();
+    try (InputStream input = clazz.getResourceAsStream(resource)) {
+      Files.write(classFile, ByteStreams.toByteArray(input));
+    }
+    return classFile;
+  }
+
+  private Path generate(String internalName, String source, int methods) throws IOException {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    if (source != null) {
+      writer.visitSource(source, null);
+    }
+    writer.visitField(Opcodes.ACC_PRIVATE, "value", "J", null, null).visitEnd();
+    writer
+        .visitField(
+            Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "RATE", "D", null, 0.5)
+        .visitEnd();
+    for (int i = 0; i < methods; ++i) {
+      MethodVisitor method =
+          writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "()J", null, null);
+      method.visitCode();
+      for (int j = 0; j < 20; ++j) {
+        method.visitLdcInsn((long) i * 100 + j);
+        method.visitInsn(Opcodes.POP2);
+      }
+      method.visitLdcInsn("constant " + i);
+      method.visitInsn(Opcodes.POP);
+      method.visitLdcInsn((long) i);
+      method.visitInsn(Opcodes.LRETURN);
+      method.visitMaxs(0, 0);
+      method.visitEnd();
+    }
+    writer.visitEnd();
+
+    Path classFile = folder.newFile().toPath();
+    Files.write(classFile, writer.toByteArray());
+    return classFile;
+  }
+}
@@ -18,15 +18,25 @@ package com.worksap.tools.spotbugs.maven.incremental;
 import static org.hamcrest.Matchers.both;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.junit.Rule;
@@ -81,10 +91,158 @@ public class ClassSearcherTest {
             .and(hasItem("com.worksap.verify.ClassName$1")));
   }
 
+  @Test
+  public void testIndexSkipsParsingUnchangedClassFile() throws IOException {
+    Path indexFile = folder.getRoot().toPath().resolve("classes.idx");
+    ClassIndex index = ClassIndex.load(indexFile);
+    ClassSearcher searcher =
+        createClassFiles(index, "com.worksap", "ClassName", "ClassName$1", "AnotherClassName");
+    List<String> expected =
+        searcher
+            .search(Stream.of(Paths.get("com", "worksap", "ClassName.java").toString()))
+            .collect(Collectors.toList());
+    index.save();
+
+    ClassSearcher another =
+        spy(
+            new ClassSearcher(
+                folder.getRoot().toPath().resolve("classes"), ClassIndex.load(indexFile)));
+    List<String> result =
+        another
+            .search(Stream.of(Paths.get("com", "worksap", "ClassName.java").toString()))
+            .collect(Collectors.toList());
+
+    assertThat(result, is(expected));
+    verify(another, never()).loadCompiledFrom(any());
+  }
+
+  @Test
+  public void testParallelScanKeepsOrder() throws IOException {
+    String[] classNames = new String[32];
+    for (int i = 0; i < classNames.length; ++i) {
+      classNames[i] = String.format("ClassName$%02d", i);
+    }
+    ClassSearcher searcher = createClassFiles(ClassIndex.inMemory(), 4, "com.worksap", classNames);
+    List<String> result =
+        searcher
+            .search(Stream.of(Paths.get("com", "worksap", "ClassName.java").toString()))
+            .collect(Collectors.toList());
+
+    List<String> expected =
+        Arrays.stream(classNames).map("com.worksap."::concat).collect(Collectors.toList());
+    assertThat(result, is(expected));
+  }
+
+  @Test
+  public void testDiscoverNestedClasses() throws IOException {
+    Path sourceRoot = createSourceFiles("com.worksap", "ClassName", "AnotherClassName");
+    ClassSearcher searcher =
+        createClassFiles(
+            sourceRoot,
+            "com.worksap",
+            "ClassName",
+            "ClassName$1",
+            "ClassName$Inner",
+            "ClassName$Inner$1",
+            "AnotherClassName");
+    Path packageDir = folder.getRoot().toPath().resolve(Paths.get("classes", "com", "worksap"));
+    doReturn(nest("ClassName.java", "com/worksap/ClassName$1", "com/worksap/ClassName$Inner"))
+        .when(searcher)
+        .loadNest(packageDir.resolve("ClassName.class"));
+    doReturn(nest("ClassName.java", "com/worksap/ClassName"))
+        .when(searcher)
+        .loadNest(packageDir.resolve("ClassName$1.class"));
+    doReturn(nest("ClassName.java", "com/worksap/ClassName$Inner$1"))
+        .when(searcher)
+        .loadNest(packageDir.resolve("ClassName$Inner.class"));
+    doReturn(nest("ClassName.java"))
+        .when(searcher)
+        .loadNest(packageDir.resolve("ClassName$Inner$1.class"));
+
+    List<String> result =
+        searcher
+            .search(Stream.of(Paths.get("com", "worksap", "ClassName.java").toString()))
+            .collect(Collectors.toList());
+
+    assertThat(
+        result,
+        is(
+            Arrays.asList(
+                "com.worksap.ClassName$1",
+                "com.worksap.ClassName$Inner$1",
+                "com.worksap.ClassName$Inner",
+                "com.worksap.ClassName")));
+    verify(searcher, never()).loadCompiledFrom(any());
+    verify(searcher, never()).loadNest(packageDir.resolve("AnotherClassName.class"));
+  }
+
+  @Test
+  public void testDiscoveryFallsBackToScan() throws IOException {
+    // NonPublicClassName is declared in ClassName.java
+    Path sourceRoot = createSourceFiles("com.worksap", "ClassName");
+    ClassSearcher searcher =
+        createClassFiles(sourceRoot, "com.worksap", "ClassName", "NonPublicClassName");
+    Path packageDir = folder.getRoot().toPath().resolve(Paths.get("classes", "com", "worksap"));
+    doReturn("ClassName.java")
+        .when(searcher)
+        .loadCompiledFrom(packageDir.resolve("NonPublicClassName.class"));
+
+    List<String> result =
+        searcher
+            .search(Stream.of(Paths.get("com", "worksap", "ClassName.java").toString()))
+            .collect(Collectors.toList());
+
+    assertThat(
+        result, is(Arrays.asList("com.worksap.ClassName", "com.worksap.NonPublicClassName")));
+    verify(searcher, never()).loadNest(any());
+  }
+
+  private ClassFileReader.Nest nest(String sourceFile, String... members) {
+    return new ClassFileReader.Nest(sourceFile, new TreeSet<>(Arrays.asList(members)));
+  }
+
+  private Path createSourceFiles(String packageName, String... classNames) throws IOException {
+    Path sourceRoot = folder.newFolder("src").toPath();
+    Path packageDir = sourceRoot.resolve(packageName.replace('.', File.separatorChar));
+    Files.createDirectories(packageDir);
+    for (String className : classNames) {
+      Files.createFile(packageDir.resolve(className + ".java"));
+    }
+    return sourceRoot;
+  }
+
   private ClassSearcher createClassFiles(String packageName, String... classNames)
       throws IOException {
+    return createClassFiles(ClassIndex.inMemory(), packageName, classNames);
+  }
+
+  private ClassSearcher createClassFiles(ClassIndex index, String packageName, String... classNames)
+      throws IOException {
+    return createClassFiles(index, 1, packageName, classNames);
+  }
+
+  private ClassSearcher createClassFiles(
+      ClassIndex index, int parallelism, String packageName, String... classNames)
+      throws IOException {
+    return createClassFiles(index, parallelism, Collections.emptySet(), packageName, classNames);
+  }
+
+  private ClassSearcher createClassFiles(Path sourceRoot, String packageName, String... classNames)
+      throws IOException {
+    return createClassFiles(
+        ClassIndex.inMemory(), 1, Collections.singleton(sourceRoot), packageName, classNames);
+  }
+
+  private ClassSearcher createClassFiles(
+      ClassIndex index,
+      int parallelism,
+      Collection<Path> sourceRoots,
+      String packageName,
+      String... classNames)
+      throws IOException {
     File classesDir = folder.newFolder("classes");
-    ClassSearcher searcher = spy(new ClassSearcher(classesDir.toPath()));
+    ClassSearcher searcher =
+        spy(new ClassSearcher(classesDir.toPath(), index, parallelism, sourceRoots));
     File packageDir = Paths.get(classesDir.getAbsolutePath(), packageName.split("\\.")).toFile();
     assertTrue(packageDir.mkdirs());
 
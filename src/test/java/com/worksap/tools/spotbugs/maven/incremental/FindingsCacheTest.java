@@ -0,0 +1,201 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+
+public class FindingsCacheTest {
+  private static final String REPORT =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+          + "<BugCollection version=\"4.2.0\">"
+          + "<Project projectName=\"example\"/>"
+          + "<BugInstance type=\"NP_NULL_ON_SOME_PATH\" priority=\"1\">"
+          + "<Class classname=\"com.worksap.ClassName\" primary=\"true\"/>"
+          + "</BugInstance>"
+          + "<BugInstance type=\"SIC_INNER_SHOULD_BE_STATIC_ANON\" priority=\"2\">"
+          + "<Class classname=\"com.worksap.ClassName$1\" primary=\"true\"/>"
+          + "<Class classname=\"com.worksap.ClassName\"/>"
+          + "</BugInstance>"
+          + "<BugPattern type=\"NP_NULL_ON_SOME_PATH\"/>"
+          + "</BugCollection>";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testGroupByPrimaryClass() throws IOException {
+    Map<String, List<Element>> findings = load().bugInstancesByClass();
+
+    assertThat(findings.keySet(), contains("com.worksap.ClassName", "com.worksap.ClassName$1"));
+    assertThat(
+        findings.get("com.worksap.ClassName$1").get(0).getAttribute("type"),
+        is("SIC_INNER_SHOULD_BE_STATIC_ANON"));
+  }
+
+  @Test
+  public void testStoreAndMerge() throws IOException {
+    Path classFile = folder.newFile("ClassName.class").toPath();
+    Files.write(classFile, new byte[] {(byte) 0xCA, (byte) 0xFE});
+    FindingsCache cache = new FindingsCache(folder.newFolder("cache").toPath(), "configuration");
+    String key = cache.keyOf(classFile);
+
+    assertThat(cache.load(key), is(Optional.empty()));
+    BugCollectionXml report = load();
+    cache.store(key, report.bugInstancesByClass().get("com.worksap.ClassName"), report);
+    assertThat(cache.load(key).get().bugInstances(), hasSize(1));
+    FindingsCache another = new FindingsCache(folder.getRoot().toPath(), "other configuration");
+    assertThat(another.keyOf(classFile), is(not(key)));
+
+    Path merged = folder.getRoot().toPath().resolve("spotbugsXml.xml");
+    BugCollectionXml bugCollection = BugCollectionXml.empty();
+    BugCollectionXml entry = cache.load(key).get();
+    bugCollection.addAll(entry.bugInstances(), entry);
+    bugCollection.save(merged);
+    assertThat(BugCollectionXml.load(merged).bugInstances(), hasSize(1));
+    // definition of the pattern is cached with the finding
+    assertThat(
+        new String(Files.readAllBytes(merged), StandardCharsets.UTF_8),
+        containsString("<BugPattern type=\"NP_NULL_ON_SOME_PATH\"/>"));
+  }
+
+  @Test
+  public void testStoreClassWithoutFinding() throws IOException {
+    Path classFile = folder.newFile("ClassName.class").toPath();
+    FindingsCache cache = new FindingsCache(folder.newFolder("cache").toPath(), "configuration");
+    String key = cache.keyOf(classFile);
+    cache.store(key, Collections.emptyList(), BugCollectionXml.empty());
+
+    assertThat(cache.load(key).get().bugInstances(), is(empty()));
+  }
+
+  @Test
+  public void testMergeIntoExistingReport() throws IOException {
+    BugCollectionXml bugCollection = load();
+    BugCollectionXml cached = load();
+    bugCollection.addAll(cached.bugInstancesByClass().get("com.worksap.ClassName"), cached);
+
+    List<Element> bugInstances = bugCollection.bugInstances();
+    assertThat(bugInstances, hasSize(3));
+    assertThat(bugInstances.get(2).getNextSibling(), is(notNullValue()));
+    assertThat(((Element) bugInstances.get(2).getNextSibling()).getTagName(), is("BugPattern"));
+  }
+
+  @Test
+  public void testRetainClasses() throws IOException {
+    BugCollectionXml bugCollection = load();
+    bugCollection.retainClasses(className -> className.endsWith("$1"));
+
+    List<Element> bugInstances = bugCollection.bugInstances();
+    assertThat(bugInstances, hasSize(1));
+    assertThat(bugInstances.get(0).getAttribute("type"), is("SIC_INNER_SHOULD_BE_STATIC_ANON"));
+  }
+
+  @Test
+  public void testMergeUpdatesSummary() throws IOException {
+    BugCollectionXml bugCollection = load(shardReport("com.worksap.First", "DM_EXIT", "Dm"));
+    bugCollection.merge(load(shardReport("com.worksap.Second", "DM_GC", "Dm")));
+
+    Path merged = folder.getRoot().toPath().resolve("merged.xml");
+    bugCollection.save(merged);
+    String xml = new String(Files.readAllBytes(merged), StandardCharsets.UTF_8);
+    assertThat(bugCollection.bugInstances(), hasSize(2));
+    assertThat(xml, containsString("<BugPattern type=\"DM_EXIT\"/><BugPattern type=\"DM_GC\"/>"));
+    assertThat(xml, containsString("<BugCode abbrev=\"Dm\"/><FindBugsSummary"));
+    assertThat(
+        xml,
+        containsString(
+            "<FindBugsSummary num_packages=\"1\" priority_2=\"2\" total_bugs=\"2\""
+                + " total_classes=\"2\" total_size=\"20\">"));
+    assertThat(
+        xml,
+        containsString(
+            "<PackageStats package=\"com.worksap\" priority_2=\"2\" total_bugs=\"2\""
+                + " total_size=\"20\" total_types=\"2\">"));
+
+    bugCollection.retainClasses(className -> className.equals("com.worksap.Second"));
+    bugCollection.save(merged);
+    xml = new String(Files.readAllBytes(merged), StandardCharsets.UTF_8);
+    assertThat(
+        xml,
+        containsString(
+            "<FindBugsSummary num_packages=\"1\" priority_2=\"1\" total_bugs=\"1\""
+                + " total_classes=\"1\" total_size=\"10\">"));
+    assertThat(xml, not(containsString("com/worksap/First.java")));
+  }
+
+  private BugCollectionXml load() throws IOException {
+    return load(REPORT);
+  }
+
+  private BugCollectionXml load(String xml) throws IOException {
+    Path report = folder.getRoot().toPath().resolve("report.xml");
+    Files.write(report, xml.getBytes(StandardCharsets.UTF_8));
+    return BugCollectionXml.load(report);
+  }
+
+  /** @return A report of one class which has one finding, like report of a shard. */
+  private static String shardReport(String className, String type, String abbrev) {
+    String simpleName = className.substring(className.lastIndexOf('.') + 1);
+    return "<BugCollection version=\"4.2.0\">"
+        + "<Project projectName=\"example\"/>"
+        + "<BugInstance type=\""
+        + type
+        + "\" priority=\"2\" abbrev=\""
+        + abbrev
+        + "\"><Class classname=\""
+        + className
+        + "\" primary=\"true\"/></BugInstance>"
+        + "<BugPattern type=\""
+        + type
+        + "\"/><BugCode abbrev=\""
+        + abbrev
+        + "\"/>"
+        + "<FindBugsSummary total_bugs=\"1\" total_classes=\"1\" total_size=\"10\""
+        + " num_packages=\"1\" priority_2=\"1\">"
+        + "<FileStats path=\"com/worksap/"
+        + simpleName
+        + ".java\" bugCount=\"1\" size=\"10\"/>"
+        + "<PackageStats package=\"com.worksap\" total_bugs=\"1\" total_types=\"1\""
+        + " total_size=\"10\" priority_2=\"1\">"
+        + "<ClassStats class=\""
+        + className
+        + "\" sourceFile=\""
+        + simpleName
+        + ".java\" size=\"10\" bugs=\"1\" priority_2=\"1\"/>"
+        + "</PackageStats>"
+        + "</FindBugsSummary>"
+        + "</BugCollection>";
+  }
+}
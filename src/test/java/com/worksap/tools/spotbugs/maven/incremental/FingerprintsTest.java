@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class FingerprintsTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testDebugInformationIsIgnored() throws IOException {
+    String original = Fingerprints.of(generate("com/worksap/ClassName", 10, 1L));
+    // e.g. Javadoc added above the method
+    String moved = Fingerprints.of(generate("com/worksap/ClassName", 25, 1L));
+    String updated = Fingerprints.of(generate("com/worksap/ClassName", 10, 2L));
+
+    assertThat(moved, is(original));
+    assertThat(updated, is(not(original)));
+  }
+
+  @Test
+  public void testScanAndManifest() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    Path classFile = outputDir.resolve("com/worksap/ClassName$1.class");
+    Files.createDirectories(classFile.getParent());
+    Files.copy(generate("com/worksap/ClassName$1", 10, 1L), classFile);
+
+    Map<String, String> fingerprints = Fingerprints.scan(outputDir);
+    assertThat(fingerprints.keySet().iterator().next(), is("com.worksap.ClassName$1"));
+
+    Path manifest = folder.getRoot().toPath().resolve("incremental-analysis/fingerprints.txt");
+    Fingerprints.save(manifest, fingerprints);
+    assertThat(Fingerprints.load(manifest), is(fingerprints));
+  }
+
+  private Path generate(String internalName, int line, long value) throws IOException {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    writer.visitSource("ClassName.java", null);
+    MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "method", "()J", null, null);
+    method.visitCode();
+    Label start = new Label();
+    method.visitLabel(start);
+    method.visitLineNumber(line, start);
+    method.visitLdcInsn(value);
+    method.visitInsn(Opcodes.LRETURN);
+    Label end = new Label();
+    method.visitLabel(end);
+    method.visitLocalVariable("this", "L" + internalName + ";", null, start, end, 0);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+    writer.visitEnd();
+
+    Path classFile = folder.newFile().toPath();
+    Files.write(classFile, writer.toByteArray());
+    return classFile;
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GitUpdatedJavaCodeDetectorTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException, GitAPIException {
+    root = folder.getRoot().toPath().toRealPath();
+    try (Git git = Git.init().setDirectory(root.toFile()).call()) {
+      write("module-1/src/main/java/com/example/Main.java");
+      write("module-2/src/main/java/com/example/Main.java");
+      git.add().addFilepattern(".").call();
+      git.commit().setMessage("initial commit").call();
+      git.checkout().setName("feature-branch").setCreateBranch(true).call();
+
+      write("module-1/src/main/java/com/example/Another.java");
+      write("module-1/src/test/java/com/example/AnotherTest.java");
+      write("module-1/README.md");
+      git.add().addFilepattern(".").call();
+      git.commit().setMessage("second commit").call();
+    }
+  }
+
+  @Test
+  public void testSliceForEachModule() throws IOException {
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    DiffSession session = new DiffSession();
+    Path sourceRoot1 = root.resolve("module-1/src/main/java");
+    Path sourceRoot2 = root.resolve("module-2/src/main/java");
+    List<Path> scope = Arrays.asList(sourceRoot1, sourceRoot2);
+
+    List<Path> module1 =
+        detector
+            .detectUpdatedCode(
+                session,
+                root.resolve("module-1"),
+                scope,
+                Collections.singleton(sourceRoot1),
+                "refs/heads/master",
+                "refs/heads/feature-branch")
+            .collect(Collectors.toList());
+    List<Path> module2 =
+        detector
+            .detectUpdatedCode(
+                session,
+                root.resolve("module-2"),
+                scope,
+                Collections.singleton(sourceRoot2),
+                "refs/heads/master",
+                "refs/heads/feature-branch")
+            .collect(Collectors.toList());
+
+    assertThat(module1, contains(sourceRoot1.resolve("com/example/Another.java")));
+    assertThat(module2, is(empty()));
+  }
+
+  @Test
+  public void testGitCommandBackend() throws IOException {
+    assertThat(
+        detectWith(new GitCommandChangeSetProvider("git")),
+        contains(root.resolve("module-1/src/main/java/com/example/Another.java")));
+  }
+
+  @Test
+  public void testFileListBackend() throws IOException {
+    Path fileList = folder.newFile("changed-files.txt").toPath();
+    Files.write(
+        fileList,
+        Arrays.asList(
+            "module-1/src/main/java/com/example/Another.java",
+            "module-1/src/main/java/com/example/Deleted.java",
+            "module-1/README.md",
+            root.resolve("module-2/src/main/java/com/example/Main.java").toString()));
+
+    assertThat(
+        detectWith(new FileListChangeSetProvider(fileList)),
+        contains(
+            root.resolve("module-1/src/main/java/com/example/Another.java"),
+            root.resolve("module-2/src/main/java/com/example/Main.java")));
+  }
+
+  @Test
+  public void testNoDifference() throws IOException {
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    assertThat(
+        detector.detectDifference(root, "refs/heads/master", "refs/heads/master"), is(false));
+    assertThat(
+        detector.detectDifference(root, "refs/heads/master", "refs/heads/feature-branch"),
+        is(true));
+  }
+
+  @Test
+  public void testNoDifferenceInModule() throws IOException {
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    assertThat(
+        detector.detectDifference(
+            root.resolve("module-1"), "refs/heads/master", "refs/heads/feature-branch"),
+        is(true));
+    assertThat(
+        detector.detectDifference(
+            root.resolve("module-2"), "refs/heads/master", "refs/heads/feature-branch"),
+        is(false));
+    assertThat(
+        detector.detectDifference(
+            root.resolve("module-1/README.md"), "refs/heads/master", "refs/heads/feature-branch"),
+        is(true));
+  }
+
+  @Test
+  public void testIsAncestor() throws IOException, GitAPIException {
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    String feature = detector.resolveCommit(root, "refs/heads/feature-branch").name();
+    assertThat(detector.isAncestor(root, "refs/heads/master", feature), is(true));
+    assertThat(detector.isAncestor(root, feature, "refs/heads/master"), is(false));
+
+    // rewrite the branch like force-push
+    try (Git git = Git.open(root.toFile())) {
+      git.commit().setAmend(true).setMessage("amended commit").call();
+    }
+    assertThat(detector.isAncestor(root, feature, "refs/heads/feature-branch"), is(false));
+    assertThat(
+        detector.isAncestor(root, "0123456789012345678901234567890123456789", feature), is(false));
+  }
+
+  @Test
+  public void testCountChangedLines() throws IOException, GitAPIException {
+    Path main = root.resolve("module-1/src/main/java/com/example/Main.java");
+    Path another = root.resolve("module-1/src/main/java/com/example/Another.java");
+    try (Git git = Git.open(root.toFile())) {
+      Files.write(main, "line 1\nline 2\nline 3\n".getBytes(StandardCharsets.UTF_8));
+      git.commit().setAll(true).setMessage("third commit").call();
+    }
+    Files.write(main, "line 1\nupdated\nline 3\n".getBytes(StandardCharsets.UTF_8));
+
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    Map<Path, Integer> committed =
+        detector.countChangedLines(
+            root,
+            Arrays.asList(main, another),
+            "refs/heads/master",
+            "refs/heads/feature-branch",
+            UncommittedChanges.IGNORE);
+    // one line is deleted and three lines are inserted in Main.java
+    assertThat(committed.get(main), is(4));
+    assertThat(committed.get(another), is(1));
+
+    Map<Path, Integer> uncommitted =
+        detector.countChangedLines(
+            root,
+            Collections.singleton(main),
+            "refs/heads/feature-branch",
+            "refs/heads/feature-branch",
+            UncommittedChanges.ALL);
+    assertThat(uncommitted.get(main), is(2));
+  }
+
+  @Test
+  public void testUncommittedChanges() throws IOException, GitAPIException {
+    Path sourceRoot = root.resolve("module-1/src/main/java");
+    try (Git git = Git.open(root.toFile())) {
+      write("module-1/src/main/java/com/example/Staged.java");
+      git.add().addFilepattern("module-1/src/main/java/com/example/Staged.java").call();
+      Files.write(
+          sourceRoot.resolve("com/example/Main.java"), "updated".getBytes(StandardCharsets.UTF_8));
+      write("module-1/src/main/java/com/example/Untracked.java");
+      write("module-1/src/main/java/com/example/Ignored.java");
+      Files.write(root.resolve(".gitignore"), "Ignored.java".getBytes(StandardCharsets.UTF_8));
+    }
+
+    assertThat(
+        detectUncommitted(sourceRoot, UncommittedChanges.STAGED),
+        contains(sourceRoot.resolve("com/example/Staged.java")));
+    assertThat(
+        detectUncommitted(sourceRoot, UncommittedChanges.ALL),
+        contains(
+            sourceRoot.resolve("com/example/Main.java"),
+            sourceRoot.resolve("com/example/Staged.java"),
+            sourceRoot.resolve("com/example/Untracked.java")));
+  }
+
+  @Test
+  public void testHasUncommittedChanges() throws IOException {
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    assertThat(detector.hasUncommittedChanges(root), is(false));
+
+    write("module-1/src/main/java/com/example/Untracked.java");
+    assertThat(detector.hasUncommittedChanges(root), is(true));
+    assertThat(detector.hasUncommittedChanges(root.resolve("module-1")), is(true));
+    assertThat(detector.hasUncommittedChanges(root.resolve("module-2")), is(false));
+  }
+
+  @Test
+  public void testSessionComputesChangeSetOnlyOnce() throws Exception {
+    DiffSession session = new DiffSession();
+    DiffSession.Key key =
+        new DiffSession.Key(root, ObjectId.zeroId(), ObjectId.zeroId(), Collections.emptyList());
+    AtomicInteger count = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<ChangeSet>> futures =
+          executor.invokeAll(
+              Collections.nCopies(
+                  8,
+                  () ->
+                      session.changeSet(
+                          key,
+                          () -> {
+                            count.incrementAndGet();
+                            Thread.sleep(50);
+                            return new ChangeSet(root, Collections.emptyList());
+                          })));
+      for (Future<ChangeSet> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(count.get(), is(1));
+  }
+
+  @Test
+  public void testMergeBase() throws IOException, GitAPIException {
+    ObjectId branchPoint;
+    try (Git git = Git.open(root.toFile())) {
+      branchPoint = git.getRepository().resolve("refs/heads/master");
+      git.checkout().setName("master").call();
+      Files.write(
+          root.resolve("module-2/src/main/java/com/example/Main.java"),
+          "updated in master".getBytes(StandardCharsets.UTF_8));
+      git.commit().setAll(true).setMessage("commit in master").call();
+    }
+    GitUpdatedJavaCodeDetector detector = new GitUpdatedJavaCodeDetector();
+    String mergeBase =
+        detector
+            .findMergeBase(root, "refs/heads/master", "refs/heads/feature-branch", 10)
+            .map(ObjectId::name)
+            .orElse(null);
+    assertThat(mergeBase, is(branchPoint.name()));
+
+    List<Path> sourceRoots =
+        Arrays.asList(
+            root.resolve("module-1/src/main/java"), root.resolve("module-2/src/main/java"));
+    assertThat(
+        detector
+            .detectUpdatedCode(
+                new DiffSession(),
+                root,
+                sourceRoots,
+                sourceRoots,
+                mergeBase,
+                "refs/heads/feature-branch")
+            .collect(Collectors.toList()),
+        contains(root.resolve("module-1/src/main/java/com/example/Another.java")));
+
+    // bounded walk and shallow clone give up finding merge base
+    assertThat(
+        detector
+            .findMergeBase(root, "refs/heads/master", "refs/heads/feature-branch", 0)
+            .isPresent(),
+        is(false));
+    try (Git git = Git.open(root.toFile())) {
+      ObjectId head = git.getRepository().resolve("refs/heads/feature-branch");
+      Files.write(
+          root.resolve(".git/shallow"), (head.name() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+    assertThat(
+        detector
+            .findMergeBase(root, "refs/heads/master", "refs/heads/feature-branch", 10)
+            .isPresent(),
+        is(false));
+  }
+
+  private List<Path> detectWith(ChangeSetProvider provider) throws IOException {
+    List<Path> sourceRoots =
+        Arrays.asList(
+            root.resolve("module-1/src/main/java"), root.resolve("module-2/src/main/java"));
+    return new GitUpdatedJavaCodeDetector(new Metrics(), provider)
+        .detectUpdatedCode(
+            new DiffSession(),
+            root,
+            sourceRoots,
+            sourceRoots,
+            "refs/heads/master",
+            "refs/heads/feature-branch")
+        .collect(Collectors.toList());
+  }
+
+  private List<Path> detectUncommitted(Path sourceRoot, UncommittedChanges uncommitted)
+      throws IOException {
+    return new GitUpdatedJavaCodeDetector()
+        .detectUpdatedCode(
+            new DiffSession(),
+            root.resolve("module-1"),
+            Collections.singleton(sourceRoot),
+            Collections.singleton(sourceRoot),
+            "refs/heads/feature-branch",
+            "refs/heads/feature-branch",
+            uncommitted)
+        .collect(Collectors.toList());
+  }
+
+  private void write(String path) throws IOException {
+    File file = root.resolve(path).toFile();
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), path.getBytes(StandardCharsets.UTF_8));
+  }
+}
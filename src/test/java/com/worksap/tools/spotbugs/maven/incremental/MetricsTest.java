@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetricsTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSave() throws IOException {
+    Metrics metrics = new Metrics();
+    try (Metrics.Timer timer = metrics.time("diff")) {
+      metrics.increment(Metrics.Counter.DIFF_ENTRIES);
+    }
+    try (Metrics.Timer timer = metrics.time("diff")) {
+      metrics.add(Metrics.Counter.BYTES_READ, 1024);
+    }
+    assertThat(metrics.get(Metrics.Counter.DIFF_ENTRIES), is(1L));
+    assertThat(metrics.summary(), containsString("diffEntries 1"));
+
+    Path file = folder.getRoot().toPath().resolve("incremental-analysis/metrics.json");
+    metrics.save(file, "com.worksap:\"quoted\"");
+    String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    assertThat(json, containsString("\"project\": \"com.worksap:\\\"quoted\\\"\""));
+    assertThat(json, containsString("\"diff\": "));
+    assertThat(json, containsString("\"bytesRead\": 1024"));
+    assertThat(json, containsString("\"classesEmitted\": 0"));
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OnlyAnalyzeTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCollapse() throws IOException {
+    Path outputDir = folder.getRoot().toPath();
+    createClassFile(outputDir, "com/worksap/A.class");
+    createClassFile(outputDir, "com/worksap/A$1.class");
+    createClassFile(outputDir, "com/worksap/sub/B.class");
+    createClassFile(outputDir, "com/worksap/sub/C.class");
+    createClassFile(outputDir, "D.class");
+
+    assertThat(
+        OnlyAnalyze.collapse(
+            outputDir, Arrays.asList("com.worksap.A", "com.worksap.sub.B", "com.worksap.A$1", "D")),
+        contains("com.worksap.*", "com.worksap.sub.B", "D"));
+    assertThat(OnlyAnalyze.countClassFiles(outputDir), is(5L));
+  }
+
+  @Test
+  public void testWriteOptionFile() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("sub/only-analyze.txt");
+    String argument = OnlyAnalyze.writeOptionFile(file, "com.worksap.*,D");
+
+    assertThat(argument, is("@" + file.toAbsolutePath()));
+    assertThat(
+        new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim(), is("com.worksap.*,D"));
+  }
+
+  private static void createClassFile(Path outputDir, String path) throws IOException {
+    Path classFile = outputDir.resolve(path);
+    Files.createDirectories(classFile.getParent());
+    Files.createFile(classFile);
+  }
+}
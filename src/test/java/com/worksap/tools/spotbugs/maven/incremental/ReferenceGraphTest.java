@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import org.junit.Test;
+
+public class ReferenceGraphTest {
+  @Test
+  public void testDependentsOf() {
+    // Caller -> Service <- ServiceImpl, Controller -> Caller
+    ReferenceGraph.Builder builder = ReferenceGraph.builder();
+    int service = builder.id("com/worksap/Service");
+    int serviceImpl = builder.id("com/worksap/ServiceImpl");
+    int caller = builder.id("com/worksap/Caller");
+    int controller = builder.id("com/worksap/Controller");
+    int object = builder.id("java/lang/Object");
+    builder
+        .addReference(serviceImpl, service)
+        .addReference(serviceImpl, object)
+        .addReference(caller, service)
+        .addReference(caller, object)
+        .addReference(controller, caller);
+    ReferenceGraph graph = builder.build();
+
+    assertThat(graph.size(), is(5));
+    assertThat(graph.dependentsOf(Collections.singleton("com/worksap/Service"), 0), is(empty()));
+    assertThat(
+        graph.dependentsOf(Collections.singleton("com/worksap/Service"), 1),
+        is(new TreeSet<>(Arrays.asList("com/worksap/Caller", "com/worksap/ServiceImpl"))));
+    assertThat(
+        graph.dependentsOf(Collections.singleton("com/worksap/Service"), 2),
+        is(
+            new TreeSet<>(
+                Arrays.asList(
+                    "com/worksap/Caller", "com/worksap/Controller", "com/worksap/ServiceImpl"))));
+  }
+
+  @Test
+  public void testDependentsOfExcludesGivenClasses() {
+    ReferenceGraph.Builder builder = ReferenceGraph.builder();
+    int first = builder.id("com/worksap/First");
+    int second = builder.id("com/worksap/Second");
+    builder.addReference(first, second).addReference(second, first);
+    ReferenceGraph graph = builder.build();
+
+    assertThat(
+        graph.dependentsOf(Arrays.asList("com/worksap/First", "com/worksap/Second"), 3),
+        is(empty()));
+    assertThat(graph.dependentsOf(Collections.singleton("com/worksap/Unknown"), 1), is(empty()));
+  }
+
+  @Test
+  public void testDependentsOfUnionOfGraphs() {
+    // upstream: Impl -> Service, downstream: Caller -> Impl
+    ReferenceGraph.Builder upstream = ReferenceGraph.builder();
+    upstream.addReference(upstream.id("com/worksap/Impl"), upstream.id("com/worksap/Service"));
+    ReferenceGraph.Builder downstream = ReferenceGraph.builder();
+    downstream.addReference(downstream.id("com/worksap/Caller"), downstream.id("com/worksap/Impl"));
+
+    assertThat(
+        ReferenceGraph.dependentsOf(
+            Arrays.asList(upstream.build(), downstream.build()),
+            Collections.singleton("com/worksap/Service"),
+            2),
+        is(new TreeSet<>(Arrays.asList("com/worksap/Caller", "com/worksap/Impl"))));
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReferenceIndexTest {
+  private static final String PACKAGE = "com/worksap/tools/spotbugs/maven/incremental/";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testUpdateAndBuildGraph() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    copy(ClassSearcher.class, outputDir);
+    copy(ClassIndex.class, outputDir);
+    Path indexFile = ReferenceIndex.indexFileFor(outputDir);
+
+    ReferenceIndex index = ReferenceIndex.load(indexFile);
+    index.update(outputDir);
+    index.save();
+    assertThat(
+        index.classNames(),
+        is(new HashSet<>(Arrays.asList(PACKAGE + "ClassSearcher", PACKAGE + "ClassIndex"))));
+
+    ReferenceGraph.Builder builder = ReferenceGraph.builder();
+    index.addTo(builder);
+    assertThat(
+        builder.build().dependentsOf(Collections.singleton(PACKAGE + "ClassIndex"), 1),
+        is(Collections.singleton(PACKAGE + "ClassSearcher")));
+
+    ReferenceIndex loaded = spy(ReferenceIndex.load(indexFile));
+    loaded.update(outputDir);
+    verify(loaded, never()).loadReferences(any());
+    assertThat(loaded.classNames(), is(index.classNames()));
+
+    Files.delete(outputDir.resolve(PACKAGE + "ClassIndex.class"));
+    loaded.update(outputDir);
+    assertThat(loaded.classNames(), is(Collections.singleton(PACKAGE + "ClassSearcher")));
+  }
+
+  private void copy(Class<?> clazz, Path outputDir) throws IOException {
+    String resource = clazz.getName().replace('.', '/') + ".class";
+    Path classFile = outputDir.resolve(resource);
+    Files.createDirectories(classFile.getParent());
+    try (InputStream input = clazz.getResourceAsStream("/" + resource)) {
+      Files.write(classFile, ByteStreams.toByteArray(input));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResidentIndexTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @After
+  public void tearDown() {
+    ResidentIndex.clear();
+  }
+
+  @Test
+  public void testReuseResultUntilPackageChanges() throws Exception {
+    Path outputDir = folder.newFolder("classes").toPath();
+    Files.createDirectories(outputDir.resolve("com/worksap"));
+    Files.createDirectories(outputDir.resolve("com/example"));
+    ResidentIndex resident = ResidentIndex.of(outputDir, ClassIndex::inMemory).get();
+    assertThat(ResidentIndex.of(outputDir, ClassIndex::inMemory).get(), is(sameInstance(resident)));
+
+    AtomicInteger searched = new AtomicInteger();
+    Function<Stream<String>, Stream<String>> searcher =
+        sources -> {
+          searched.incrementAndGet();
+          return sources.map(source -> source.replace(".java", "").replace(File.separator, "."));
+        };
+    List<String> sources =
+        Arrays.asList(path("com/worksap/Main.java"), path("com/example/Another.java"));
+
+    assertThat(
+        resident.search(sources, searcher), contains("com.example.Another", "com.worksap.Main"));
+    assertThat(
+        resident.search(sources, searcher), contains("com.example.Another", "com.worksap.Main"));
+    assertThat(searched.get(), is(1));
+
+    Files.createFile(outputDir.resolve("com/worksap/Main.class"));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (searched.get() == 1 && System.nanoTime() < deadline) {
+      resident.search(sources, searcher);
+      Thread.sleep(10);
+    }
+    assertThat(searched.get(), is(2));
+  }
+
+  @Test
+  public void testCleanedOutputDirectory() throws Exception {
+    Path outputDir = folder.newFolder("classes").toPath();
+    ResidentIndex resident = ResidentIndex.of(outputDir, ClassIndex::inMemory).get();
+    Files.delete(outputDir);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (ResidentIndex.of(outputDir, ClassIndex::inMemory).isPresent()
+        && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(ResidentIndex.of(outputDir, ClassIndex::inMemory).isPresent(), is(false));
+
+    Files.createDirectories(outputDir);
+    Optional<ResidentIndex> recreated = ResidentIndex.of(outputDir, ClassIndex::inMemory);
+    assertTrue(recreated.isPresent());
+    assertThat(recreated.get() == resident, is(false));
+  }
+
+  private static String path(String slashSeparated) {
+    return slashSeparated.replace("/", File.separator);
+  }
+}
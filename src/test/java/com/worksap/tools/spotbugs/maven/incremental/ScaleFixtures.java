@@ -0,0 +1,179 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Generators of large fixtures for scale tests and benchmarks. Class {@code i} belongs to package
+ * {@code com.example.p<i / 100>}, and every fifth class has a nested class.
+ */
+final class ScaleFixtures {
+  static final int CLASSES_PER_PACKAGE = 100;
+  static final String SOURCE_ROOT = "src/main/java";
+  static final String TARGET = "refs/heads/master";
+  static final String SOURCE = "refs/heads/feature-branch";
+
+  private ScaleFixtures() {}
+
+  /**
+   * @param i An index of class.
+   * @return A relative path of source file such as {@code "com/example/p0/Class0.java"}.
+   */
+  static String sourceOf(int i) {
+    return String.format("com/example/p%d/Class%d.java", i / CLASSES_PER_PACKAGE, i);
+  }
+
+  /**
+   * Generate class files compiled from {@link #sourceOf(int)} into given directory.
+   *
+   * @param outputDir A non-null directory to generate class files.
+   * @param classes A number of top level classes to generate.
+   */
+  static void createOutputDirectory(Path outputDir, int classes) throws IOException {
+    for (int i = 0; i < classes; ++i) {
+      String internalName = sourceOf(i).replace(".java", "");
+      String sourceName = internalName.substring(internalName.lastIndexOf('/') + 1) + ".java";
+      Path packageDir = outputDir.resolve(internalName).getParent();
+      Files.createDirectories(packageDir);
+      boolean hasNested = i % 5 == 0;
+      writeClass(outputDir, internalName, sourceName, hasNested ? internalName + "$Nested" : null);
+      if (hasNested) {
+        writeClass(outputDir, internalName + "$Nested", sourceName, internalName + "$Nested");
+      }
+    }
+  }
+
+  /**
+   * Create Git repository which has given number of .java files in its tree. {@link #TARGET} has
+   * given number of commits which update one file each, and {@link #SOURCE} has one more commit
+   * which updates {@code sourceOf(0)}. Objects are inserted directly, so working tree is empty.
+   *
+   * @param root A non-null directory to create repository.
+   * @param files A number of .java files in the tree.
+   * @param history A number of commits in {@link #TARGET}.
+   */
+  static void createRepository(Path root, int files, int history)
+      throws IOException, GitAPIException {
+    try (Git git = Git.init().setDirectory(root.toFile()).call()) {
+      Repository repository = git.getRepository();
+      try (ObjectInserter inserter = repository.newObjectInserter()) {
+        DirCache tree = DirCache.newInCore();
+        DirCacheBuilder builder = tree.builder();
+        for (int i = 0; i < files; ++i) {
+          builder.add(entry(inserter, SOURCE_ROOT + "/" + sourceOf(i), "initial " + i));
+        }
+        builder.finish();
+
+        ObjectId commit = commit(inserter, tree, null, "initial commit");
+        for (int i = 1; i < history; ++i) {
+          // skip the file updated by the source branch
+          update(inserter, tree, SOURCE_ROOT + "/" + sourceOf(1 + i % (files - 1)), "update " + i);
+          commit = commit(inserter, tree, commit, "commit " + i);
+        }
+        inserter.flush();
+        setRef(repository, TARGET, commit);
+
+        update(inserter, tree, SOURCE_ROOT + "/" + sourceOf(0), "updated");
+        ObjectId source = commit(inserter, tree, commit, "one file change");
+        inserter.flush();
+        setRef(repository, SOURCE, source);
+      }
+    }
+  }
+
+  private static void writeClass(
+      Path outputDir, String internalName, String sourceName, String nested) throws IOException {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    writer.visitSource(sourceName, null);
+    if (nested != null) {
+      String outer = nested.substring(0, nested.lastIndexOf('$'));
+      writer.visitInnerClass(nested, outer, "Nested", Opcodes.ACC_STATIC);
+    }
+    writer.visitEnd();
+    Files.write(outputDir.resolve(internalName + ".class"), writer.toByteArray());
+  }
+
+  private static DirCacheEntry entry(ObjectInserter inserter, String path, String content)
+      throws IOException {
+    DirCacheEntry entry = new DirCacheEntry(path);
+    entry.setFileMode(FileMode.REGULAR_FILE);
+    entry.setObjectId(
+        inserter.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8)));
+    return entry;
+  }
+
+  private static void update(ObjectInserter inserter, DirCache tree, String path, String content)
+      throws IOException {
+    ObjectId blob = inserter.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8));
+    // editor invalidates cached tree IDs, so the next writeTree() reflects this change
+    DirCacheEditor editor = tree.editor();
+    editor.add(
+        new DirCacheEditor.PathEdit(path) {
+          @Override
+          public void apply(DirCacheEntry entry) {
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(blob);
+          }
+        });
+    editor.finish();
+  }
+
+  private static ObjectId commit(
+      ObjectInserter inserter, DirCache tree, ObjectId parent, String message) throws IOException {
+    PersonIdent ident = new PersonIdent("fixture", "fixture@example.com");
+    CommitBuilder commit = new CommitBuilder();
+    commit.setTreeId(tree.writeTree(inserter));
+    if (parent != null) {
+      commit.setParentId(parent);
+    }
+    commit.setAuthor(ident);
+    commit.setCommitter(ident);
+    commit.setMessage(message);
+    return inserter.insert(commit);
+  }
+
+  private static void setRef(Repository repository, String ref, ObjectId commit)
+      throws IOException {
+    RefUpdate update = repository.updateRef(ref);
+    update.setNewObjectId(commit);
+    update.setForceUpdate(true);
+    RefUpdate.Result result = update.update();
+    if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED) {
+      throw new IOException("Failed to update " + ref + ": " + result);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Stopwatch;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Check that a one-file change is handled within fixed time budget, even if the repository grows.
+ * Run it by {@code mvn -P benchmark verify}. Set {@code scale.budgetMillis} system property to
+ * change the budget.
+ */
+@RunWith(Parameterized.class)
+public class ScaleIT {
+  private static final long BUDGET_MILLIS = Long.getLong("scale.budgetMillis", 2000);
+  private static final int HISTORY = 100;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Parameterized.Parameter public int size;
+
+  @Parameterized.Parameters(name = "{0} classes")
+  public static Collection<Object[]> sizes() {
+    return Arrays.asList(new Object[][] {{1_000}, {10_000}, {100_000}});
+  }
+
+  @Test
+  public void testOneFileChange() throws Exception {
+    Path root = folder.newFolder("repo").toPath();
+    Path sourceRoot = root.resolve(ScaleFixtures.SOURCE_ROOT);
+    Path outputDir = root.resolve("target/classes");
+    ScaleFixtures.createRepository(root, size, HISTORY);
+    ScaleFixtures.createOutputDirectory(outputDir, size);
+
+    // warm up JIT and file system cache, then measure with cold index and session
+    run(root, sourceRoot, outputDir);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    List<String> classes = run(root, sourceRoot, outputDir);
+    long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+    assertThat(classes, contains("com.example.p0.Class0$Nested", "com.example.p0.Class0"));
+    assertThat(elapsed, lessThan(BUDGET_MILLIS));
+  }
+
+  private List<String> run(Path root, Path sourceRoot, Path outputDir) throws Exception {
+    Stream<String> updated =
+        new GitUpdatedJavaCodeDetector()
+            .detectUpdatedCode(
+                new DiffSession(),
+                root,
+                Collections.singleton(sourceRoot),
+                Collections.singleton(sourceRoot),
+                ScaleFixtures.TARGET,
+                ScaleFixtures.SOURCE)
+            .map(sourceRoot::relativize)
+            .map(Path::toString);
+    return new ClassSearcher(outputDir, ClassIndex.inMemory())
+        .search(updated)
+        .collect(Collectors.toList());
+  }
+}
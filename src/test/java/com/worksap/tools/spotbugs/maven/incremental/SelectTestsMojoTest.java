@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class SelectTestsMojoTest {
+  @Test
+  public void testSelect() {
+    // ServiceTest -> TestHelper -> Service, ControllerTest$Nested -> Controller
+    ReferenceGraph.Builder builder = ReferenceGraph.builder();
+    int service = builder.id("com/worksap/Service");
+    int controller = builder.id("com/worksap/Controller");
+    int helper = builder.id("com/worksap/TestHelper");
+    int serviceTest = builder.id("com/worksap/ServiceTest");
+    int controllerTest = builder.id("com/worksap/ControllerTest$Nested");
+    builder
+        .addReference(helper, service)
+        .addReference(serviceTest, helper)
+        .addReference(controllerTest, controller);
+    ReferenceGraph graph = builder.build();
+    Set<String> testClasses =
+        new HashSet<>(
+            Arrays.asList(
+                "com/worksap/TestHelper",
+                "com/worksap/ServiceTest",
+                "com/worksap/ControllerTest",
+                "com/worksap/ControllerTest$Nested"));
+
+    assertThat(
+        SelectTestsMojo.select(
+            graph,
+            Collections.singleton("com/worksap/Service"),
+            Collections.emptySet(),
+            testClasses),
+        contains("com.worksap.ServiceTest", "com.worksap.TestHelper"));
+    assertThat(
+        SelectTestsMojo.select(
+            graph,
+            Collections.singleton("com/worksap/Controller"),
+            Collections.singleton("com/worksap/TestHelper"),
+            testClasses),
+        contains(
+            "com.worksap.ControllerTest", "com.worksap.ServiceTest", "com.worksap.TestHelper"));
+    assertThat(
+        SelectTestsMojo.select(
+            graph,
+            Collections.singleton("com/worksap/Unknown"),
+            Collections.emptySet(),
+            testClasses),
+        empty());
+  }
+
+  @Test
+  public void testSelectFollowsEveryReference() {
+    // Test -> Class20 -> Class19 -> ... -> Class0
+    ReferenceGraph.Builder builder = ReferenceGraph.builder();
+    int previous = builder.id("com/worksap/Class0");
+    for (int i = 1; i <= 20; ++i) {
+      int current = builder.id("com/worksap/Class" + i);
+      builder.addReference(current, previous);
+      previous = current;
+    }
+    builder.addReference(builder.id("com/worksap/Test"), previous);
+
+    assertThat(
+        SelectTestsMojo.select(
+            builder.build(),
+            Collections.singleton("com/worksap/Class0"),
+            Collections.emptySet(),
+            Collections.singleton("com/worksap/Test")),
+        contains("com.worksap.Test"));
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardsTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSelectBalancesSize() throws IOException {
+    Path outputDir = folder.getRoot().toPath();
+    write(outputDir, "com/worksap/Large.class", 100);
+    write(outputDir, "com/worksap/Large$Nested.class", 50);
+    write(outputDir, "com/worksap/Medium.class", 80);
+    write(outputDir, "com/worksap/Small.class", 40);
+    write(outputDir, "com/worksap/Tiny.class", 30);
+    List<String> classes =
+        Arrays.asList(
+            "com.worksap.Large",
+            "com.worksap.Large$Nested",
+            "com.worksap.Medium",
+            "com.worksap.Small",
+            "com.worksap.Tiny");
+
+    assertThat(
+        Shards.select(outputDir, classes, 0, 2),
+        contains("com.worksap.Large", "com.worksap.Large$Nested"));
+    assertThat(
+        Shards.select(outputDir, classes, 1, 2),
+        contains("com.worksap.Medium", "com.worksap.Small", "com.worksap.Tiny"));
+  }
+
+  @Test
+  public void testSelectCoversEveryClassOnce() {
+    Path outputDir = folder.getRoot().toPath();
+    List<String> classes = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      classes.add("com.worksap.Class" + i);
+    }
+    List<String> selected = new ArrayList<>();
+    for (int i = 0; i < 3; ++i) {
+      List<String> shard = Shards.select(outputDir, classes, i, 3);
+      assertThat(shard, is(Shards.select(outputDir, classes, i, 3)));
+      selected.addAll(shard);
+    }
+    assertThat(selected, containsInAnyOrder(classes.toArray()));
+  }
+
+  private void write(Path outputDir, String classFile, int size) throws IOException {
+    Path path = outputDir.resolve(classFile);
+    Files.createDirectories(path.getParent());
+    Files.write(path, new byte[size]);
+  }
+}
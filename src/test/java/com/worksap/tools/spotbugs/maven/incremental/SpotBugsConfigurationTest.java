@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpotBugsConfigurationTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private MavenSession session;
+  private MavenProject project;
+  private Properties userProperties;
+
+  @Before
+  public void setUp() throws IOException {
+    userProperties = new Properties();
+    session = mock(MavenSession.class);
+    when(session.getUserProperties()).thenReturn(userProperties);
+    when(session.getSystemProperties()).thenReturn(new Properties());
+    project = new MavenProject();
+    project.setFile(folder.newFile("pom.xml"));
+
+    Xpp3Dom configuration = new Xpp3Dom("configuration");
+    Xpp3Dom threshold = new Xpp3Dom("threshold");
+    threshold.setValue("Low");
+    configuration.addChild(threshold);
+    Plugin plugin = new Plugin();
+    plugin.setGroupId("com.github.spotbugs");
+    plugin.setArtifactId("spotbugs-maven-plugin");
+    plugin.setVersion("4.1.4");
+    plugin.setConfiguration(configuration);
+    project.getBuild().addPlugin(plugin);
+  }
+
+  @Test
+  public void testEffectiveValue() {
+    SpotBugsConfiguration configuration = SpotBugsConfiguration.of(session, project);
+    assertThat(configuration.get("effort"), is(Optional.of("Default")));
+    assertThat(configuration.get("threshold"), is(Optional.of("Low")));
+    assertThat(configuration.get("includeFilterFile"), is(Optional.empty()));
+
+    project.getProperties().setProperty("spotbugs.effort", "Less");
+    assertThat(configuration.get("effort"), is(Optional.of("Less")));
+    userProperties.setProperty("spotbugs.effort", "Max");
+    userProperties.setProperty("spotbugs.threshold", "High");
+    assertThat(configuration.get("effort"), is(Optional.of("Max")));
+    // configuration in POM has priority over properties
+    assertThat(configuration.get("threshold"), is(Optional.of("Low")));
+  }
+
+  @Test
+  public void testSpotBugsVersion() {
+    assertThat(SpotBugsConfiguration.of(session, project).spotBugsVersion(), is(Optional.empty()));
+    Dependency dependency = new Dependency();
+    dependency.setGroupId("com.github.spotbugs");
+    dependency.setArtifactId("spotbugs");
+    dependency.setVersion("4.2.0");
+    project.getPlugin(SpotBugsConfiguration.SPOTBUGS_PLUGIN).addDependency(dependency);
+    assertThat(
+        SpotBugsConfiguration.of(session, project).spotBugsVersion(), is(Optional.of("4.2.0")));
+  }
+
+  @Test
+  public void testFingerprintReflectsPropertiesAndFilterFiles() throws IOException {
+    SpotBugsConfiguration configuration = SpotBugsConfiguration.of(session, project);
+    String original = configuration.fingerprint();
+    userProperties.setProperty("spotbugs.effort", "Max");
+    String maxEffort = configuration.fingerprint();
+    assertThat(maxEffort, is(not(original)));
+
+    Path filter = folder.getRoot().toPath().resolve("exclude.xml");
+    Files.write(filter, "<FindBugsFilter/>".getBytes(StandardCharsets.UTF_8));
+    userProperties.setProperty("spotbugs.excludeFilterFile", "exclude.xml");
+    String withFilter = configuration.fingerprint();
+    Files.write(
+        filter, "<FindBugsFilter><Match/></FindBugsFilter>".getBytes(StandardCharsets.UTF_8));
+    assertThat(configuration.fingerprint(), is(not(withFilter)));
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import edu.umd.cs.findbugs.BugInstance;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class SpotBugsRunnerTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testAnalyzeOnlyTargetClasses() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    generateClassCallingExit(outputDir, "com/worksap/Target");
+    generateClassCallingExit(outputDir, "com/worksap/Another");
+    Path report = folder.getRoot().toPath().resolve("spotbugsXml.xml");
+
+    List<BugInstance> bugs =
+        new SpotBugsRunner()
+            .effort("Default")
+            .threshold("Default")
+            .analyze(outputDir, Collections.singleton("com.worksap.Target"), report);
+
+    assertThat(
+        bugs.stream().map(BugInstance::getType).collect(Collectors.toList()), contains("DM_EXIT"));
+    assertThat(bugs.get(0).getPrimaryClass().getClassName(), is("com.worksap.Target"));
+    assertThat(BugCollectionXml.load(report).bugInstances(), hasSize(1));
+  }
+
+  @Test
+  public void testAnalyzePackage() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    generateClassCallingExit(outputDir, "com/worksap/Target");
+    generateClassCallingExit(outputDir, "com/worksap/sub/Another");
+    Path report = folder.getRoot().toPath().resolve("spotbugsXml.xml");
+
+    List<BugInstance> bugs =
+        new SpotBugsRunner().analyze(outputDir, Collections.singleton("com.worksap.-"), report);
+
+    assertThat(bugs, hasSize(2));
+  }
+
+  @Test
+  public void testOmitVisitorsAndRankThreshold() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    generateClassCallingExit(outputDir, "com/worksap/Target");
+    Path report = folder.getRoot().toPath().resolve("spotbugsXml.xml");
+    Collection<String> targetClasses = Collections.singleton("com.worksap.Target");
+
+    assertThat(
+        new SpotBugsRunner()
+            .omitVisitors(Collections.singleton("DumbMethods"))
+            .analyze(outputDir, targetClasses, report),
+        is(empty()));
+    assertThat(
+        new SpotBugsRunner().rankThreshold(1).analyze(outputDir, targetClasses, report),
+        is(empty()));
+    assertThat(new SpotBugsRunner().analyze(outputDir, targetClasses, report), hasSize(1));
+  }
+
+  private void generateClassCallingExit(Path outputDir, String internalName) throws IOException {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+    MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "stop", "()V", null, null);
+    method.visitCode();
+    method.visitInsn(Opcodes.ICONST_1);
+    method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "exit", "(I)V", false);
+    method.visitInsn(Opcodes.RETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+    writer.visitEnd();
+
+    Path classFile = outputDir.resolve(internalName + ".class");
+    Files.createDirectories(classFile.getParent());
+    Files.write(classFile, writer.toByteArray());
+  }
+}
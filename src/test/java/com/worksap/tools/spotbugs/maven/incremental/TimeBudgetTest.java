@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 (c) Works Applications Co.,Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.worksap.tools.spotbugs.maven.incremental;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimeBudgetTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testScheduleRanksByChangedLinesAndCost() throws IOException {
+    Path outputDir = folder.newFolder("classes").toPath();
+    Path packageDir = Files.createDirectories(outputDir.resolve("com/worksap"));
+    Files.write(packageDir.resolve("Large.class"), new byte[1024]);
+    Files.write(packageDir.resolve("Large$Nested.class"), new byte[512]);
+    Files.write(packageDir.resolve("Medium.class"), new byte[1024]);
+    Files.write(packageDir.resolve("Small.class"), new byte[512]);
+    Files.write(packageDir.resolve("Tiny.class"), new byte[256]);
+    List<String> classes =
+        Arrays.asList(
+            "com.worksap.Large",
+            "com.worksap.Large$Nested",
+            "com.worksap.Medium",
+            "com.worksap.Small",
+            "com.worksap.Tiny");
+    Map<String, Integer> changedLines = new HashMap<>();
+    changedLines.put("com.worksap.Large", 50);
+    changedLines.put("com.worksap.Medium", 50);
+    changedLines.put("com.worksap.Small", 5);
+    CostHistory history = CostHistory.empty().record(1024, 10, 15);
+
+    // 5 ms of overhead leaves 20 ms for classes
+    TimeBudget schedule = TimeBudget.schedule(outputDir, classes, changedLines, history, 25);
+    // Medium is cheaper than Large, and Tiny still fits in the rest of budget
+    assertThat(
+        schedule.getSelected(),
+        contains("com.worksap.Medium", "com.worksap.Small", "com.worksap.Tiny"));
+    assertThat(schedule.getDeferred(), contains("com.worksap.Large", "com.worksap.Large$Nested"));
+    assertThat(schedule.getEstimatedMillis(), is(23L));
+
+    Path report = folder.getRoot().toPath().resolve("deferred-classes.txt");
+    schedule.writeDeferred(report);
+    assertThat(
+        Files.readAllLines(report, StandardCharsets.UTF_8),
+        contains("com.worksap.Large", "com.worksap.Large$Nested"));
+  }
+
+  @Test
+  public void testCostHistory() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("cost-history.txt");
+    assertThat(
+        CostHistory.load(file).getMillisPerKilobyte(), is(CostHistory.DEFAULT_MILLIS_PER_KILOBYTE));
+    assertThat(CostHistory.load(file).getOverheadMillis(), is(0L));
+
+    CostHistory.load(file).record(2048, 20, 1020).save(file);
+    assertThat(CostHistory.load(file).getMillisPerKilobyte(), closeTo(10.0, 0.001));
+    assertThat(CostHistory.load(file).getOverheadMillis(), is(1000L));
+    CostHistory.load(file).record(1024, 20, 1020).save(file);
+    assertThat(CostHistory.load(file).getMillisPerKilobyte(), closeTo(15.0, 0.001));
+    assertThat(CostHistory.load(file).getOverheadMillis(), is(1000L));
+
+    Files.write(file, "broken".getBytes(StandardCharsets.UTF_8));
+    assertThat(
+        CostHistory.load(file).getMillisPerKilobyte(), is(CostHistory.DEFAULT_MILLIS_PER_KILOBYTE));
+  }
+
+  @Test
+  public void testSmallRunDoesNotInflateRate() {
+    // one class of 1 KB took 1 second, mostly to start SpotBugs
+    CostHistory history = CostHistory.empty().record(1024, 10, 1000);
+    assertThat(history.estimateMillis(100 * 1024), is(1000L));
+    assertThat(history.getOverheadMillis(), is(990L));
+  }
+}